@@ -19,9 +19,6 @@ import com.vaadin.data.Item;
 import com.vaadin.data.util.BeanItem;
 import com.vaadin.data.util.ObjectProperty;
 
-import java.beans.BeanInfo;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -50,6 +47,10 @@ public abstract class AbstractBeanQuery<T> implements Query {
      * The ascending or descending state of sort properties.
      */
     private boolean[] sortStates;
+    /**
+     * Template populating new beans with default values if query definition does not provide one.
+     */
+    private DefaultValueTemplate defaultValueTemplate;
 
     /**
      * Default constructor for serialization.
@@ -111,15 +112,7 @@ public abstract class AbstractBeanQuery<T> implements Query {
     public final Item constructItem() {
         try {
             T bean = constructBean();
-            BeanInfo info = Introspector.getBeanInfo(bean.getClass());
-            for (PropertyDescriptor pd : info.getPropertyDescriptors()) {
-                for (Object propertyId : queryDefinition.getPropertyIds()) {
-                    if (pd.getName().equals(propertyId)) {
-                        pd.getWriteMethod().invoke(bean,
-                                queryDefinition.getPropertyDefaultValue(propertyId));
-                    }
-                }
-            }
+            getDefaultValueTemplate(bean.getClass()).apply(bean);
             return toItem(bean);
         } catch (Exception e) {
             throw new RuntimeException(
@@ -128,6 +121,23 @@ public abstract class AbstractBeanQuery<T> implements Query {
         }
     }
 
+    /**
+     * Gets template populating new beans with default values. The template of the
+     * query definition is used if available.
+     *
+     * @param beanClass The bean class.
+     * @return the default value template
+     */
+    private DefaultValueTemplate getDefaultValueTemplate(final Class<?> beanClass) {
+        if (queryDefinition instanceof LazyQueryDefinition) {
+            return ((LazyQueryDefinition) queryDefinition).getDefaultValueTemplate(beanClass);
+        }
+        if (defaultValueTemplate == null || defaultValueTemplate.getBeanClass() != beanClass) {
+            defaultValueTemplate = new DefaultValueTemplate(beanClass, queryDefinition);
+        }
+        return defaultValueTemplate;
+    }
+
     /**
      * Constructs new bean.
      *
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.io.Serializable;
+
+/**
+ * Aggregate of a property computed over the query result with an aggregate function.
+ * Aggregates are immutable and can be used as keys of aggregate values.
+ */
+public final class Aggregate implements Serializable {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The ID of the aggregated property.
+     */
+    private final Object propertyId;
+    /**
+     * The aggregate function.
+     */
+    private final AggregateFunction function;
+
+    /**
+     * Constructor which sets the aggregated property and the aggregate function.
+     *
+     * @param propertyId the ID of the aggregated property
+     * @param function   the aggregate function
+     */
+    public Aggregate(final Object propertyId, final AggregateFunction function) {
+        if (propertyId == null || function == null) {
+            throw new IllegalArgumentException("Aggregate requires property ID and function.");
+        }
+        this.propertyId = propertyId;
+        this.function = function;
+    }
+
+    /**
+     * @return the ID of the aggregated property
+     */
+    public Object getPropertyId() {
+        return propertyId;
+    }
+
+    /**
+     * @return the aggregate function
+     */
+    public AggregateFunction getFunction() {
+        return function;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Aggregate)) {
+            return false;
+        }
+        final Aggregate otherAggregate = (Aggregate) other;
+        return propertyId.equals(otherAggregate.propertyId) && function == otherAggregate.function;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * propertyId.hashCode() + function.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return function + "(" + propertyId + ")";
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+/**
+ * Enumeration defining the aggregate functions computed over query results.
+ */
+public enum AggregateFunction {
+    /**
+     * Number of non null property values.
+     */
+    COUNT,
+    /**
+     * Number of rows including rows with null property value.
+     */
+    COUNT_ROWS,
+    /**
+     * Sum of the numeric property values.
+     */
+    SUM,
+    /**
+     * Average of the numeric property values.
+     */
+    AVG,
+    /**
+     * Minimum of the comparable property values.
+     */
+    MIN,
+    /**
+     * Maximum of the comparable property values.
+     */
+    MAX,
+    /**
+     * Number of distinct non null property values.
+     */
+    COUNT_DISTINCT
+}
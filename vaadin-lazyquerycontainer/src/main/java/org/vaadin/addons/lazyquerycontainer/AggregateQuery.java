@@ -0,0 +1,34 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Optional extension of Query for implementations which can compute aggregates
+ * over the query result in the backend. LazyQueryView uses this method to compute
+ * footer totals without loading the items.
+ */
+public interface AggregateQuery extends Query {
+    /**
+     * Computes the given aggregates over the query result in a single operation.
+     *
+     * @param aggregates The aggregates to be computed.
+     * @return Map from the aggregates to their values. Aggregates over empty result have null values.
+     */
+    Map<Aggregate, Object> aggregate(Collection<Aggregate> aggregates);
+}
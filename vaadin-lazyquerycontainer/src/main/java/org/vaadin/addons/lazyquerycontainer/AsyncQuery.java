@@ -0,0 +1,62 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Optional extension of Query for implementations which can count, load and save
+ * without blocking the caller. LazyQueryView uses these methods to run the count
+ * and several batch loads in parallel and cancels the returned futures when the
+ * view is refreshed. Blocking Query implementations can be adapted with
+ * ExecutorAsyncQuery.
+ */
+public interface AsyncQuery extends Query {
+    /**
+     * Starts counting the items available through this query.
+     *
+     * @param callback Callback notified when the count completes or null.
+     * @return Future of the number of items.
+     */
+    Future<Integer> sizeAsync(AsyncQueryCallback<Integer> callback);
+
+    /**
+     * Starts loading a batch of items. The count may exceed the number of items
+     * remaining after startIndex if the query size is not yet known, in which case
+     * only the remaining items are returned.
+     *
+     * @param startIndex Starting index of the item list.
+     * @param count      Count of the items to be retrieved.
+     * @param callback   Callback notified when the load completes or null.
+     * @return Future of the list of items.
+     */
+    Future<List<Item>> loadItemsAsync(int startIndex, int count, AsyncQueryCallback<List<Item>> callback);
+
+    /**
+     * Starts saving the modifications done by container to the query result.
+     *
+     * @param addedItems    Items to be inserted.
+     * @param modifiedItems Items to be updated.
+     * @param removedItems  Items to be deleted.
+     * @param callback      Callback notified when the save completes or null.
+     * @return Future completing when the items have been saved.
+     */
+    Future<Void> saveItemsAsync(List<Item> addedItems, List<Item> modifiedItems, List<Item> removedItems,
+                                AsyncQueryCallback<Void> callback);
+}
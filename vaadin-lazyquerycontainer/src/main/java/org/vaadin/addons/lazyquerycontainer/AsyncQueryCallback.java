@@ -0,0 +1,39 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+/**
+ * Callback notified when an asynchronous query operation completes. Callbacks are
+ * invoked in the thread which executed the operation and are not invoked for
+ * cancelled operations.
+ *
+ * @param <T> the result type
+ */
+public interface AsyncQueryCallback<T> {
+    /**
+     * Invoked when the operation completed successfully.
+     *
+     * @param result the operation result
+     */
+    void completed(T result);
+
+    /**
+     * Invoked when the operation failed.
+     *
+     * @param cause the failure cause
+     */
+    void failed(Throwable cause);
+}
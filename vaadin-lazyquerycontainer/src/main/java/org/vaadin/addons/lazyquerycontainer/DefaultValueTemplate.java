@@ -0,0 +1,94 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Template for populating new beans with the default values of a QueryDefinition.
+ * The setters of the bean properties included in the definition are resolved once
+ * so that constructing new items does not require introspection.
+ */
+public final class DefaultValueTemplate {
+    /**
+     * The bean class.
+     */
+    private final Class<?> beanClass;
+    /**
+     * Setters of the properties with default values.
+     */
+    private final Method[] setters;
+    /**
+     * Default values in the order of the setters.
+     */
+    private final Object[] defaultValues;
+
+    /**
+     * Constructor which resolves the setters of the bean class for the properties
+     * of the query definition.
+     *
+     * @param beanClass       The bean class.
+     * @param queryDefinition The query definition.
+     */
+    public DefaultValueTemplate(final Class<?> beanClass, final QueryDefinition queryDefinition) {
+        this.beanClass = beanClass;
+        final BeanInfo info;
+        try {
+            info = Introspector.getBeanInfo(beanClass);
+        } catch (final IntrospectionException e) {
+            throw new RuntimeException("Error in introspection of bean class: " + beanClass, e);
+        }
+        final Collection<Object> propertyIds = queryDefinition.getPropertyIds();
+        final List<Method> setterList = new ArrayList<Method>();
+        final List<Object> defaultValueList = new ArrayList<Object>();
+        for (final PropertyDescriptor pd : info.getPropertyDescriptors()) {
+            if (pd.getWriteMethod() != null && propertyIds.contains(pd.getName())) {
+                setterList.add(pd.getWriteMethod());
+                defaultValueList.add(queryDefinition.getPropertyDefaultValue(pd.getName()));
+            }
+        }
+        this.setters = setterList.toArray(new Method[setterList.size()]);
+        this.defaultValues = defaultValueList.toArray();
+    }
+
+    /**
+     * @return the bean class
+     */
+    public Class<?> getBeanClass() {
+        return beanClass;
+    }
+
+    /**
+     * Sets the default values to the given bean.
+     *
+     * @param bean The bean.
+     * @throws IllegalAccessException    if setter is not accessible.
+     * @throws InvocationTargetException if setter throws exception.
+     */
+    public void apply(final Object bean) throws IllegalAccessException, InvocationTargetException {
+        for (int i = 0; i < setters.length; i++) {
+            setters[i].invoke(bean, defaultValues[i]);
+        }
+    }
+}
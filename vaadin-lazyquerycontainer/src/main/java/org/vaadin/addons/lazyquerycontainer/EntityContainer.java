@@ -15,6 +15,7 @@
  */
 package org.vaadin.addons.lazyquerycontainer;
 
+import com.vaadin.data.Item;
 import com.vaadin.data.util.BeanItem;
 
 import javax.persistence.EntityManager;
@@ -114,11 +115,19 @@ public final class EntityContainer<T> extends LazyQueryContainer {
      * Gets entity by ID.
      *
      * @param id The ID of the entity.
-     * @return the entity.
+     * @return the entity or null if container does not contain entity with the given ID.
      */
     @SuppressWarnings("unchecked")
     public T getEntity(final Object id) {
-        return getEntity(indexOfId(id));
+        final Item item = getItem(id);
+        if (item == null) {
+            return null;
+        }
+        if (getQueryView().getQueryDefinition().isCompositeItems()) {
+            return ((BeanItem<T>) ((CompositeItem) item).getItem("bean")).getBean();
+        } else {
+            return ((BeanItem<T>) item).getBean();
+        }
     }
 
     /**
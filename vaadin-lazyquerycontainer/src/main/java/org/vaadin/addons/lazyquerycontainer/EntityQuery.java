@@ -17,8 +17,11 @@ package org.vaadin.addons.lazyquerycontainer;
 
 import com.vaadin.data.Container;
 import com.vaadin.data.Item;
+import com.vaadin.data.Property;
 import com.vaadin.data.util.BeanItem;
 import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+import com.vaadin.data.util.filter.AbstractJunctionFilter;
 import com.vaadin.data.util.filter.And;
 import com.vaadin.data.util.filter.Between;
 import com.vaadin.data.util.filter.Compare;
@@ -30,19 +33,36 @@ import com.vaadin.data.util.filter.SimpleStringFilter;
 import org.apache.log4j.Logger;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.FlushModeType;
+import javax.persistence.criteria.AbstractQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.FetchParent;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Order;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
-import java.beans.BeanInfo;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
+import javax.persistence.criteria.Selection;
+import javax.persistence.criteria.Subquery;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Entity query implementation which dynamically injects missing query
@@ -52,7 +72,8 @@ import java.util.List;
  *
  * @author Tommi S.E. Laukkanen
  */
-public class EntityQuery<E> implements Query, Serializable {
+public class EntityQuery<E> implements ItemIdQuery, PollingQuery, HierarchicalQuery, AggregateQuery,
+        IdSnapshotQuery, Serializable {
     /**
      * Java serialization version UID.
      */
@@ -60,9 +81,15 @@ public class EntityQuery<E> implements Query, Serializable {
     /** The logger. */
     private static final Logger LOGGER = Logger.getLogger(EntityQuery.class);
     /**
-     * The JPA EntityManager.
+     * The JPA EntityManager shared by all operations or null if entity managers
+     * are created per operation.
      */
-    private final EntityManager entityManager;
+    private final EntityManager sharedEntityManager;
+    /**
+     * The JPA EntityManagerFactory creating entity manager per operation or null
+     * if entity manager is shared.
+     */
+    private final EntityManagerFactory entityManagerFactory;
     /**
      * Flag reflecting whether application manages transactions.
      */
@@ -77,114 +104,1143 @@ public class EntityQuery<E> implements Query, Serializable {
      */
     private final EntityQueryDefinition queryDefinition;
     /**
-     * The size of the query.
+     * The size of the query.
+     */
+    private int querySize = -1;
+    /**
+     * The maximum value of the version property when the size was counted or changes
+     * were last polled or null if version property has not been defined.
+     */
+    private Object pollVersion;
+    /**
+     * The item IDs of the query result if ID snapshot is enabled and size has been counted.
+     */
+    private IdSnapshot idSnapshot;
+    /**
+     * The select criteria query reused by batch loads or null if not yet built.
+     */
+    private transient CriteriaQuery<E> selectCriteriaQuery;
+    /**
+     * The select query of the shared entity manager reused by batch loads or null if not yet built.
+     */
+    private transient javax.persistence.TypedQuery<E> selectQuery;
+    /**
+     * The group criteria query reused by batch loads of grouped query or null if not yet built.
+     */
+    private transient CriteriaQuery<Object[]> groupCriteriaQuery;
+    /**
+     * The column indexes of the group rows by property index or -1 for properties
+     * having default values or null if not yet resolved.
+     */
+    private transient int[] groupColumnIndexes;
+    /**
+     * Time spent building the queries in nanoseconds.
+     */
+    private long queryBuildTime;
+
+    /**
+     * Constructor for configuring the query.
+     *
+     * @param entityQueryDefinition The entity query definition.
+     * @param entityManager The entity manager.
+     */
+    public EntityQuery(final EntityQueryDefinition entityQueryDefinition, final EntityManager entityManager) {
+        this.sharedEntityManager = entityManager;
+        this.entityManagerFactory = null;
+        this.queryDefinition = entityQueryDefinition;
+        this.entityClass = (Class<E>) entityQueryDefinition.getEntityClass();
+        this.applicationTransactionManagement = entityQueryDefinition.isApplicationManagedTransactions();
+    }
+
+    /**
+     * Constructor for configuring the query with entity manager per operation.
+     * Each size, load, save and delete operation creates its own short lived
+     * entity manager, which is closed when the operation completes. Loaded
+     * entities are therefore always detached and modified or removed entities
+     * are merged on save.
+     *
+     * @param entityQueryDefinition The entity query definition.
+     * @param entityManagerFactory The entity manager factory.
+     */
+    public EntityQuery(final EntityQueryDefinition entityQueryDefinition,
+                       final EntityManagerFactory entityManagerFactory) {
+        this.sharedEntityManager = null;
+        this.entityManagerFactory = entityManagerFactory;
+        this.queryDefinition = entityQueryDefinition;
+        this.entityClass = (Class<E>) entityQueryDefinition.getEntityClass();
+        this.applicationTransactionManagement = entityQueryDefinition.isApplicationManagedTransactions();
+    }
+
+    /**
+     * Constructs new item based on QueryDefinition.
+     *
+     * @return new item.
+     */
+    @Override
+    public final Item constructItem() {
+        try {
+            final Object entity = entityClass.newInstance();
+            queryDefinition.getDefaultValueTemplate(entityClass).apply(entity);
+            return toItem(entity);
+        } catch (final Exception e) {
+            throw new RuntimeException("Error in bean construction or property population with default values.", e);
+        }
+    }
+
+    /**
+     * Number of beans returned by query.
+     *
+     * @return number of beans.
+     */
+    @Override
+    public final int size() {
+
+        if (querySize == -1) {
+            if (queryDefinition.getBatchSize() == 0) {
+                LOGGER.debug(entityClass.getName() + " size skipped due to 0 bath size.");
+                return 0;
+            }
+
+            final EntityManager entityManager = openEntityManager();
+            try {
+                if (queryDefinition.isGrouped()) {
+                    querySize = countGroups(entityManager);
+                } else if (isIdSnapshot()) {
+                    idSnapshot = loadIdSnapshot(entityManager);
+                    querySize = idSnapshot.size();
+                    if (queryDefinition.getVersionPropertyId() != null) {
+                        pollVersion = countRows(entityManager)[1];
+                    }
+                } else {
+                    final Object[] countAndVersion = countRows(entityManager);
+                    querySize = ((Number) countAndVersion[0]).intValue();
+                    pollVersion = countAndVersion[1];
+                }
+            } finally {
+                closeEntityManager(entityManager);
+            }
+
+            LOGGER.debug(entityClass.getName() + " container size: " + querySize);
+        }
+        return querySize;
+    }
+
+    /**
+     * Counts the rows matching the filters. If version property has been defined the
+     * maximum version of the rows is selected in the same query.
+     *
+     * @param entityManager the entity manager of the operation
+     * @return the row count and the maximum version or null
+     */
+    private Object[] countRows(final EntityManager entityManager) {
+        final long buildStartTime = System.nanoTime();
+        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        final Object versionPropertyId = queryDefinition.getVersionPropertyId();
+        final javax.persistence.Query query;
+        if (versionPropertyId == null) {
+            final CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+            final Root<E> root = cq.from(entityClass);
+
+            cq.select(cb.count(root));
+
+            setWhereCriteria(cb, cq, root);
+
+            query = entityManager.createQuery(cq);
+        } else {
+            final CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+            final Root<E> root = cq.from(entityClass);
+            final Expression<Comparable> version = (Expression) getPropertyPath(root, versionPropertyId);
+
+            cq.multiselect(cb.count(root), cb.greatest(version));
+
+            setWhereCriteria(cb, cq, root);
+
+            query = entityManager.createQuery(cq);
+        }
+        setQueryTimeout(query);
+        setReadOnlyHints(query);
+        addQueryBuildTime(buildStartTime);
+
+        final Object result = query.getSingleResult();
+        if (result instanceof Object[]) {
+            return (Object[]) result;
+        }
+        return new Object[] {result, null};
+    }
+
+    /**
+     * Polls the rows changed since the size was counted or changes were last polled
+     * by comparing the version property to the remembered maximum version. Each poll
+     * runs one query selecting the row count and the maximum version and, only if the
+     * maximum version has grown, one query loading the changed rows.
+     *
+     * @return The changed rows or null if version property has not been defined,
+     *         the row count has changed or more than batch size of rows have changed.
+     */
+    @Override
+    public final List<Item> pollChanges() {
+        final Object versionPropertyId = queryDefinition.getVersionPropertyId();
+        if (versionPropertyId == null) {
+            return null;
+        }
+        if (querySize == -1) {
+            size();
+            return Collections.emptyList();
+        }
+
+        final EntityManager entityManager = openEntityManager();
+        try {
+            final Object[] countAndVersion = countRows(entityManager);
+            if (((Number) countAndVersion[0]).intValue() != querySize) {
+                LOGGER.debug(entityClass.getName() + " row count changed since last poll.");
+                return null;
+            }
+            final Object maxVersion = countAndVersion[1];
+            if (maxVersion == null || maxVersion.equals(pollVersion)) {
+                return Collections.emptyList();
+            }
+
+            final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+            final CriteriaQuery<E> cq = cb.createQuery(entityClass);
+            final Root<E> root = cq.from(entityClass);
+
+            cq.select(root);
+
+            setFetchJoins(root);
+
+            setWhereCriteria(cb, cq, root);
+
+            final Expression<Comparable> version = (Expression) getPropertyPath(root, versionPropertyId);
+            final Predicate versionPredicate;
+            if (pollVersion == null) {
+                versionPredicate = cb.isNotNull(version);
+            } else {
+                versionPredicate = cb.greaterThan(version, (Comparable) pollVersion);
+            }
+            if (cq.getRestriction() == null) {
+                cq.where(versionPredicate);
+            } else {
+                cq.where(cb.and(cq.getRestriction(), versionPredicate));
+            }
+
+            final javax.persistence.TypedQuery<E> query = entityManager.createQuery(cq);
+            setQueryTimeout(query);
+            setReadOnlyHints(query);
+            query.setMaxResults(queryDefinition.getBatchSize() + 1);
+
+            final List<E> entities = query.getResultList();
+            if (entities.size() > queryDefinition.getBatchSize()) {
+                LOGGER.debug(entityClass.getName() + " more than batch size of rows changed since last poll.");
+                return null;
+            }
+            final List<Item> items = new ArrayList<Item>();
+            for (final E entity : entities) {
+                if (sharedEntityManager != null
+                        && (queryDefinition.isDetachedEntities() || queryDefinition.isReadOnly())) {
+                    entityManager.detach(entity);
+                } else if (sharedEntityManager != null) {
+                    // Attached entities already in persistence context are not updated by the query.
+                    entityManager.refresh(entity);
+                }
+                items.add(toItem(entity));
+            }
+            pollVersion = maxVersion;
+            LOGGER.debug(entityClass.getName() + " rows changed since last poll: " + items.size());
+            return items;
+        } finally {
+            closeEntityManager(entityManager);
+        }
+    }
+
+    /**
+     * Sets the query timeout hint of the query definition to the query.
+     *
+     * @param query the JPA query
+     */
+    private void setQueryTimeout(final javax.persistence.Query query) {
+        if (queryDefinition.getQueryTimeout() > 0) {
+            query.setHint("javax.persistence.query.timeout", queryDefinition.getQueryTimeout());
+        }
+    }
+
+    /**
+     * Sets the read only hints of the supported persistence providers and commit
+     * flush mode to the query if the query definition is read only. Unknown hints
+     * are ignored by persistence providers.
+     *
+     * @param query the JPA query
+     */
+    private void setReadOnlyHints(final javax.persistence.Query query) {
+        if (queryDefinition.isReadOnly()) {
+            setUntrackedHints(query);
+        }
+    }
+
+    /**
+     * Sets the read only hints of the supported persistence providers and commit
+     * flush mode to the query regardless of the query definition.
+     *
+     * @param query the JPA query
+     */
+    private static void setUntrackedHints(final javax.persistence.Query query) {
+        query.setHint("eclipselink.read-only", "true");
+        query.setHint("org.hibernate.readOnly", Boolean.TRUE);
+        query.setFlushMode(FlushModeType.COMMIT);
+    }
+
+    /**
+     * Load batch of items.
+     *
+     * @param startIndex Starting index of the item list.
+     * @param count      Count of the items to be retrieved.
+     * @return List of items.
+     */
+    @Override
+    public final List<Item> loadItems(final int startIndex, final int count) {
+        if (queryDefinition.isGrouped()) {
+            return loadGroups(startIndex, count);
+        }
+        if (isIdSnapshot()) {
+            return loadSnapshotItems(startIndex, count);
+        }
+        final EntityManager entityManager = openEntityManager();
+        try {
+            final javax.persistence.TypedQuery<E> query = getSelectQuery(entityManager);
+
+            query.setFirstResult(startIndex);
+            query.setMaxResults(count);
+
+            return toItems(entityManager, query.getResultList());
+        } finally {
+            closeEntityManager(entityManager);
+        }
+    }
+
+    /**
+     * Converts the loaded batch of entities to items detaching them if required.
+     * Only the loaded entities are detached from the shared entity manager as the
+     * rest of its persistence context belongs to the caller.
+     *
+     * @param entityManager the entity manager of the operation
+     * @param entities      the loaded entities
+     * @return the items
+     */
+    private List<Item> toItems(final EntityManager entityManager, final List<?> entities) {
+        final List<Item> items = new ArrayList<Item>();
+        for (final Object entity : entities) {
+            if (sharedEntityManager != null
+                    && (queryDefinition.isDetachedEntities() || queryDefinition.isReadOnly())) {
+                entityManager.detach(entity);
+            }
+            items.add(toItem(entity));
+        }
+        return items;
+    }
+
+    /**
+     * Selects the item IDs of the whole filtered and sorted query result page by page
+     * into the snapshot so that only one page of boxed IDs is held at a time. Each page
+     * is selected by key: it continues after the sort key values and ID of the last row
+     * of the previous page, so the database does not have to skip the preceding rows
+     * and rows deleted meanwhile do not shift the pages. The ID property is used as the
+     * last sort key to make the order total.
+     *
+     * @param entityManager the entity manager of the operation
+     * @return the ID snapshot
+     */
+    private IdSnapshot loadIdSnapshot(final EntityManager entityManager) {
+        final int pageSize = queryDefinition.getIdSnapshotPageSize();
+        final IdSnapshot snapshot = new IdSnapshot();
+        Object[] lastRow = null;
+        while (true) {
+            final List<Object[]> rows = loadIdSnapshotPage(entityManager, lastRow, pageSize);
+            for (final Object[] row : rows) {
+                snapshot.add(row[row.length - 1]);
+            }
+            if (rows.size() < pageSize) {
+                break;
+            }
+            lastRow = rows.get(rows.size() - 1);
+        }
+        snapshot.complete();
+        return snapshot;
+    }
+
+    /**
+     * Selects page of the sort key values and IDs of the query result following the
+     * given row. Null sort key values are ordered before other values regardless of
+     * the database so that the following rows can be selected by comparing the keys.
+     * Only scalar values are selected and read only hints are set so that no entities
+     * are managed by the entity manager.
+     *
+     * @param entityManager the entity manager of the operation
+     * @param lastRow the sort key values and ID of the last row of the previous page or null
+     * @param pageSize the maximum number of rows
+     * @return the sort key values and IDs of the rows
+     */
+    private List<Object[]> loadIdSnapshotPage(final EntityManager entityManager, final Object[] lastRow,
+                                              final int pageSize) {
+        final long buildStartTime = System.nanoTime();
+        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+        final Root<E> root = cq.from(entityClass);
+
+        final Object[] sortPropertyIds = getEffectiveSortPropertyIds();
+        final boolean[] sortPropertyAscendingStates = getEffectiveSortPropertyAscendingStates();
+        final List<Path<Object>> keys = new ArrayList<Path<Object>>();
+        final boolean[] ascendingStates = new boolean[sortPropertyIds.length + 1];
+        final List<Order> orders = new ArrayList<Order>();
+        for (int i = 0; i < sortPropertyIds.length; i++) {
+            final Path<Object> key = getPropertyPath(root, sortPropertyIds[i]);
+            final Expression<Integer> nullOrder = cb.<Integer>selectCase()
+                    .when(cb.isNull(key), cb.literal(0)).otherwise(cb.literal(1));
+            ascendingStates[i] = sortPropertyAscendingStates[i];
+            orders.add(ascendingStates[i] ? cb.asc(nullOrder) : cb.desc(nullOrder));
+            orders.add(ascendingStates[i] ? cb.asc(key) : cb.desc(key));
+            keys.add(key);
+        }
+        final Path<Object> idPath = getPropertyPath(root, queryDefinition.getIdPropertyId());
+        keys.add(idPath);
+        ascendingStates[sortPropertyIds.length] = true;
+        orders.add(cb.asc(idPath));
+
+        cq.multiselect(new ArrayList<Selection<?>>(keys));
+        setWhereCriteria(cb, cq, root);
+        if (lastRow != null) {
+            final Predicate after = getFollowingRowsPredicate(cb, keys, ascendingStates, lastRow);
+            cq.where(cq.getRestriction() == null ? after : cb.and(cq.getRestriction(), after));
+        }
+        cq.orderBy(orders);
+
+        final javax.persistence.TypedQuery<Object[]> query = entityManager.createQuery(cq);
+        setQueryTimeout(query);
+        setUntrackedHints(query);
+        query.setMaxResults(pageSize);
+        addQueryBuildTime(buildStartTime);
+        return query.getResultList();
+    }
+
+    /**
+     * Gets predicate selecting the rows following the given row in the order of the
+     * keys, where null values are ordered before other values.
+     *
+     * @param cb the CriteriaBuilder
+     * @param keys the key paths
+     * @param ascendingStates the sort states of the keys
+     * @param row the key values of the row
+     * @return the predicate
+     */
+    @SuppressWarnings("unchecked")
+    private Predicate getFollowingRowsPredicate(final CriteriaBuilder cb, final List<Path<Object>> keys,
+                                                final boolean[] ascendingStates, final Object[] row) {
+        final List<Predicate> alternatives = new ArrayList<Predicate>();
+        final List<Predicate> equalKeys = new ArrayList<Predicate>();
+        for (int i = 0; i < keys.size(); i++) {
+            final Expression<Comparable> key = (Expression) keys.get(i);
+            final Comparable value = (Comparable) row[i];
+            final Predicate following;
+            if (value == null) {
+                // only non null values follow null in ascending order
+                following = ascendingStates[i] ? cb.isNotNull(key) : null;
+            } else if (ascendingStates[i]) {
+                following = cb.greaterThan(key, value);
+            } else {
+                following = cb.or(cb.lessThan(key, value), cb.isNull(key));
+            }
+            if (following != null) {
+                final List<Predicate> conjuncts = new ArrayList<Predicate>(equalKeys);
+                conjuncts.add(following);
+                alternatives.add(cb.and(conjuncts.toArray(new Predicate[conjuncts.size()])));
+            }
+            equalKeys.add(value == null ? cb.isNull(key) : cb.equal(key, value));
+        }
+        return cb.or(alternatives.toArray(new Predicate[alternatives.size()]));
+    }
+
+    /**
+     * Loads the batch of items by the IDs of the corresponding slice of the ID snapshot.
+     * Rows deleted after the snapshot was taken are returned as deleted items in their
+     * positions so that the items stay aligned with the snapshot.
+     *
+     * @param startIndex Starting index of the item list.
+     * @param count      Count of the items to be retrieved.
+     * @return List of items in the snapshot order.
+     */
+    private List<Item> loadSnapshotItems(final int startIndex, final int count) {
+        final List<Object> itemIds = getIdSnapshot().getRange(startIndex,
+                Math.min(startIndex + count, getIdSnapshot().size()));
+        if (itemIds.isEmpty()) {
+            return new ArrayList<Item>();
+        }
+        final Object idPropertyId = queryDefinition.getIdPropertyId();
+        final EntityManager entityManager = openEntityManager();
+        try {
+            final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+            final CriteriaQuery<E> cq = cb.createQuery(entityClass);
+            final Root<E> root = cq.from(entityClass);
+
+            cq.select(root);
+
+            setFetchJoins(root);
+
+            final In idFilter = new In(idPropertyId, itemIds);
+            checkInParameterCount(idFilter);
+            cq.where(setFilter(idFilter, cb, cq, root));
+
+            final javax.persistence.TypedQuery<E> query = entityManager.createQuery(cq);
+            setQueryTimeout(query);
+            setReadOnlyHints(query);
+
+            final Map<Object, Item> loadedItems = new HashMap<Object, Item>();
+            for (final Item item : toItems(entityManager, query.getResultList())) {
+                loadedItems.put(item.getItemProperty(idPropertyId).getValue(), item);
+            }
+            final List<Item> items = new ArrayList<Item>(itemIds.size());
+            for (final Object itemId : itemIds) {
+                final Item item = loadedItems.get(itemId);
+                if (item != null) {
+                    items.add(item);
+                } else {
+                    items.add(constructDeletedItem(itemId));
+                }
+            }
+            return items;
+        } finally {
+            closeEntityManager(entityManager);
+        }
+    }
+
+    /**
+     * Constructs read only item standing in for a row deleted after the ID snapshot was
+     * taken. The item has the ID of the deleted row and Removed status if the status
+     * property is defined. The item is not removed in the view and therefore not
+     * deleted again on commit.
+     *
+     * @param itemId the ID of the deleted row
+     * @return the deleted item
+     */
+    private Item constructDeletedItem(final Object itemId) {
+        final Item item = constructItem();
+        final Property idProperty = item.getItemProperty(queryDefinition.getIdPropertyId());
+        if (idProperty != null && !idProperty.isReadOnly()) {
+            idProperty.setValue(itemId);
+        }
+        final Property statusProperty = item.getItemProperty(LazyQueryView.PROPERTY_ID_ITEM_STATUS);
+        if (statusProperty != null) {
+            statusProperty.setReadOnly(false);
+            statusProperty.setValue(QueryItemStatus.Removed);
+        }
+        for (final Object propertyId : item.getItemPropertyIds()) {
+            item.getItemProperty(propertyId).setReadOnly(true);
+        }
+        return item;
+    }
+
+    /**
+     * Gets the ID snapshot taking it if size has not been counted yet.
+     *
+     * @return the ID snapshot
+     */
+    private IdSnapshot getIdSnapshot() {
+        if (idSnapshot == null) {
+            size();
+        }
+        if (idSnapshot == null) {
+            // size was skipped due to 0 batch size
+            idSnapshot = new IdSnapshot(Collections.emptyList());
+        }
+        return idSnapshot;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final boolean isIdSnapshot() {
+        return queryDefinition.isIdSnapshot() && !queryDefinition.isGrouped()
+                && queryDefinition.getIdPropertyId() != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final Object getItemId(final int index) {
+        return getIdSnapshot().get(index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final int indexOfItemId(final Object itemId) {
+        return getIdSnapshot().indexOf(itemId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void removeItemId(final int index) {
+        getIdSnapshot().remove(index);
+        querySize = idSnapshot.size();
+    }
+
+    /**
+     * Counts the groups of grouped query. Single group key is counted in the database
+     * as count of distinct key values plus one if rows with null key exist. JPA 2.0
+     * Criteria API does not support subqueries in from clause so multiple group keys
+     * are counted from the list of selected group keys.
+     *
+     * @param entityManager the entity manager of the operation
+     * @return the number of groups
+     */
+    private int countGroups(final EntityManager entityManager) {
+        final long buildStartTime = System.nanoTime();
+        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        final Object[] groupByPropertyIds = queryDefinition.getGroupByPropertyIds();
+        if (groupByPropertyIds.length != 1) {
+            final javax.persistence.Query query = entityManager.createQuery(createGroupCriteriaQuery(cb, true));
+            setQueryTimeout(query);
+            setReadOnlyHints(query);
+            addQueryBuildTime(buildStartTime);
+            return query.getResultList().size();
+        }
+
+        final CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+        final Root<E> root = cq.from(entityClass);
+        final Expression<?> groupKey = getOuterPropertyPath(root, groupByPropertyIds[0]);
+        cq.multiselect(cb.countDistinct(groupKey), cb.count(root), cb.count(groupKey));
+        setWhereCriteria(cb, cq, root);
+        final javax.persistence.TypedQuery<Object[]> query = entityManager.createQuery(cq);
+        setQueryTimeout(query);
+        setReadOnlyHints(query);
+        addQueryBuildTime(buildStartTime);
+
+        final Object[] counts = query.getSingleResult();
+        final long distinctKeyCount = ((Number) counts[0]).longValue();
+        final boolean nullKeyGroup = ((Number) counts[1]).longValue() > ((Number) counts[2]).longValue();
+        return (int) distinctKeyCount + (nullKeyGroup ? 1 : 0);
+    }
+
+    /**
+     * Loads batch of group rows of grouped query.
+     *
+     * @param startIndex Starting index of the group list.
+     * @param count      Count of the groups to be retrieved.
+     * @return List of group items.
+     */
+    private List<Item> loadGroups(final int startIndex, final int count) {
+        final EntityManager entityManager = openEntityManager();
+        try {
+            final javax.persistence.TypedQuery<Object[]> query = entityManager.createQuery(
+                    getGroupCriteriaQuery(entityManager));
+            setQueryTimeout(query);
+            setReadOnlyHints(query);
+            query.setFirstResult(startIndex);
+            query.setMaxResults(count);
+
+            final int[] columnIndexes = getGroupColumnIndexes();
+            final List<Item> items = new ArrayList<Item>();
+            for (final Object row : query.getResultList()) {
+                items.add(toGroupItem(row instanceof Object[] ? (Object[]) row : new Object[] {row}, columnIndexes));
+            }
+            return items;
+        } finally {
+            closeEntityManager(entityManager);
+        }
+    }
+
+    /**
+     * Gets the group criteria query or builds it on first call.
+     *
+     * @param entityManager the entity manager of the operation
+     * @return the group criteria query
+     */
+    private synchronized CriteriaQuery<Object[]> getGroupCriteriaQuery(final EntityManager entityManager) {
+        if (groupCriteriaQuery == null) {
+            final long buildStartTime = System.nanoTime();
+            groupCriteriaQuery = createGroupCriteriaQuery(entityManager.getCriteriaBuilder(), false);
+            addQueryBuildTime(buildStartTime);
+        }
+        return groupCriteriaQuery;
+    }
+
+    /**
+     * Creates criteria query selecting the group by property values followed by the
+     * aggregate values of each group. Associations of the group by properties are
+     * left joined so that entities with null associations form a group of their own.
+     *
+     * @param cb the CriteriaBuilder
+     * @param keysOnly true if only the group by property values are selected without ordering
+     * @return the group criteria query
+     */
+    private CriteriaQuery<Object[]> createGroupCriteriaQuery(final CriteriaBuilder cb, final boolean keysOnly) {
+        final CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+        final Root<E> root = cq.from(entityClass);
+
+        final Map<Object, Expression<?>> selectionMap = new HashMap<Object, Expression<?>>();
+        final List<Expression<?>> groupings = new ArrayList<Expression<?>>();
+        for (final Object propertyId : queryDefinition.getGroupByPropertyIds()) {
+            final Expression<?> grouping = getOuterPropertyPath(root, propertyId);
+            groupings.add(grouping);
+            selectionMap.put(propertyId, grouping);
+        }
+        final List<Selection<?>> selections = new ArrayList<Selection<?>>(groupings);
+        if (!keysOnly) {
+            for (final Aggregate aggregate : queryDefinition.getGroupAggregates()) {
+                final Expression<?> aggregateExpression = getAggregateExpression(cb, root, aggregate);
+                selections.add(aggregateExpression);
+                selectionMap.put(aggregate, aggregateExpression);
+            }
+        }
+        cq.multiselect(selections);
+
+        setWhereCriteria(cb, cq, root);
+
+        cq.groupBy(groupings);
+
+        if (!keysOnly) {
+            setOrderClause(cb, cq, root, selectionMap);
+        }
+        return cq;
+    }
+
+    /**
+     * Gets the column indexes of the group rows by property index or resolves them on
+     * first call.
+     *
+     * @return the column indexes with -1 for properties having default values
+     */
+    private synchronized int[] getGroupColumnIndexes() {
+        if (groupColumnIndexes == null) {
+            final List<Object> selectedPropertyIds = new ArrayList<Object>(
+                    Arrays.asList(queryDefinition.getGroupByPropertyIds()));
+            selectedPropertyIds.addAll(queryDefinition.getGroupAggregates());
+            final int[] columnIndexes = new int[queryDefinition.getPropertyIds().size()];
+            int propertyIndex = 0;
+            for (final Object propertyId : queryDefinition.getPropertyIds()) {
+                columnIndexes[propertyIndex++] = selectedPropertyIds.indexOf(propertyId);
+            }
+            groupColumnIndexes = columnIndexes;
+        }
+        return groupColumnIndexes;
+    }
+
+    /**
+     * Converts group row to item containing the group by property values and the aggregate
+     * values. Other properties of the query definition get their default values.
+     *
+     * @param row the group by property values followed by the aggregate values
+     * @param columnIndexes the column indexes of the row by property index
+     * @return the group item
+     */
+    private Item toGroupItem(final Object[] row, final int[] columnIndexes) {
+        final PropertysetItem item = new PropertysetItem();
+        int propertyIndex = 0;
+        for (final Object propertyId : queryDefinition.getPropertyIds()) {
+            final int index = columnIndexes[propertyIndex++];
+            final Object value = index == -1 ? queryDefinition.getPropertyDefaultValue(propertyId) : row[index];
+            item.addItemProperty(propertyId, new ObjectProperty(value, queryDefinition.getPropertyType(propertyId),
+                    true));
+        }
+        return item;
+    }
+
+    /**
+     * Gets the select query for loading batches. The criteria query is built once per
+     * query instance and the typed query is reused as long as the entity manager is
+     * shared so that only the paging parameters change between batches.
+     *
+     * @param entityManager the entity manager of the operation
+     * @return the select query
+     */
+    private javax.persistence.TypedQuery<E> getSelectQuery(final EntityManager entityManager) {
+        if (selectQuery != null) {
+            return selectQuery;
+        }
+        final long buildStartTime = System.nanoTime();
+        final javax.persistence.TypedQuery<E> query = entityManager.createQuery(
+                getSelectCriteriaQuery(entityManager));
+        setQueryTimeout(query);
+        setReadOnlyHints(query);
+        if (entityManager == sharedEntityManager) {
+            selectQuery = query;
+        }
+        addQueryBuildTime(buildStartTime);
+        return query;
+    }
+
+    /**
+     * Gets the select criteria query or builds it on first call.
+     *
+     * @param entityManager the entity manager of the operation
+     * @return the select criteria query
+     */
+    private synchronized CriteriaQuery<E> getSelectCriteriaQuery(final EntityManager entityManager) {
+        if (selectCriteriaQuery == null) {
+            final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+            final CriteriaQuery<E> cq = cb.createQuery(entityClass);
+            final Root<E> root = cq.from(entityClass);
+
+            cq.select(root);
+
+            setFetchJoins(root);
+
+            setWhereCriteria(cb, cq, root);
+
+            setOrderClause(cb, cq, root);
+
+            selectCriteriaQuery = cq;
+        }
+        return selectCriteriaQuery;
+    }
+
+    /**
+     * Adds the time elapsed since the given start time to the query build time.
+     *
+     * @param buildStartTime the build start time from System.nanoTime
      */
-    private int querySize = -1;
+    private synchronized void addQueryBuildTime(final long buildStartTime) {
+        final long buildTime = System.nanoTime() - buildStartTime;
+        queryBuildTime += buildTime;
+        LOGGER.debug(entityClass.getName() + " query build time: " + buildTime / 1000 + " us");
+    }
 
     /**
-     * Constructor for configuring the query.
+     * Gets the total time spent building the criteria and JPA queries of this query
+     * instance. Batch loads after the first one reuse the built select query and do
+     * not add to the build time while the entity manager is shared.
      *
-     * @param entityQueryDefinition The entity query definition.
-     * @param entityManager The entity manager.
+     * @return the query build time in nanoseconds
      */
-    public EntityQuery(final EntityQueryDefinition entityQueryDefinition, final EntityManager entityManager) {
-        this.entityManager = entityManager;
-        this.queryDefinition = entityQueryDefinition;
-        this.entityClass = (Class<E>) entityQueryDefinition.getEntityClass();
-        this.applicationTransactionManagement = entityQueryDefinition.isApplicationManagedTransactions();
+    public final synchronized long getQueryBuildTime() {
+        return queryBuildTime;
     }
 
     /**
-     * Constructs new item based on QueryDefinition.
+     * Loads the item with the given ID property value. Without filters the entity is
+     * looked up with EntityManager.find if the ID property is the entity identifier.
+     * Otherwise a single row query restricted by the filters and the ID is executed.
      *
-     * @return new item.
+     * @param itemId The value of the ID property of the item.
+     * @return The item or null if query result does not contain item with the given ID.
      */
     @Override
-    public final Item constructItem() {
+    public final Item loadItem(final Object itemId) {
+        final Object idPropertyId = queryDefinition.getIdPropertyId();
+        if (idPropertyId == null || itemId == null) {
+            return null;
+        }
+
+        final EntityManager entityManager = openEntityManager();
         try {
-            final Object entity = entityClass.newInstance();
-            final BeanInfo info = Introspector.getBeanInfo(entityClass);
-            for (final PropertyDescriptor pd : info.getPropertyDescriptors()) {
-                for (final Object propertyId : queryDefinition.getPropertyIds()) {
-                    if (pd.getName().equals(propertyId)) {
-                        pd.getWriteMethod().invoke(entity, queryDefinition.getPropertyDefaultValue(propertyId));
-                    }
+            final E entity;
+            if (queryDefinition.getDefaultFilters().isEmpty() && queryDefinition.getFilters().isEmpty()
+                    && isIdAttribute(idPropertyId)) {
+                entity = entityManager.find(entityClass, itemId);
+            } else {
+                final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+                final CriteriaQuery<E> cq = cb.createQuery(entityClass);
+                final Root<E> root = cq.from(entityClass);
+
+                cq.select(root);
+
+                setFetchJoins(root);
+
+                setWhereCriteria(cb, cq, root);
+
+                final Predicate idPredicate = cb.equal(getPropertyPath(root, idPropertyId), itemId);
+                if (cq.getRestriction() == null) {
+                    cq.where(idPredicate);
+                } else {
+                    cq.where(cb.and(cq.getRestriction(), idPredicate));
                 }
+
+                final javax.persistence.TypedQuery<E> query = entityManager.createQuery(cq);
+                setQueryTimeout(query);
+                setReadOnlyHints(query);
+                query.setMaxResults(1);
+
+                final List<E> entities = query.getResultList();
+                entity = entities.isEmpty() ? null : entities.get(0);
+            }
+
+            if (entity == null) {
+                return null;
+            }
+            if (sharedEntityManager != null
+                    && (queryDefinition.isDetachedEntities() || queryDefinition.isReadOnly())) {
+                entityManager.detach(entity);
             }
             return toItem(entity);
-        } catch (final Exception e) {
-            throw new RuntimeException("Error in bean construction or property population with default values.", e);
+        } finally {
+            closeEntityManager(entityManager);
         }
     }
 
     /**
-     * Number of beans returned by query.
+     * Computes the given aggregates over the entities matching the filters with a single
+     * query sharing the where criteria of the count and select queries.
      *
-     * @return number of beans.
+     * @param aggregates The aggregates to be computed.
+     * @return Map from the aggregates to their values. Aggregates over empty result have null values.
      */
     @Override
-    public final int size() {
-
-        if (querySize == -1) {
-            if (queryDefinition.getBatchSize() == 0) {
-                LOGGER.debug(entityClass.getName() + " size skipped due to 0 bath size.");
-                return 0;
-            }
+    public final Map<Aggregate, Object> aggregate(final Collection<Aggregate> aggregates) {
+        final Map<Aggregate, Object> values = new HashMap<Aggregate, Object>();
+        if (aggregates.isEmpty()) {
+            return values;
+        }
+        final List<Aggregate> aggregateList = new ArrayList<Aggregate>(aggregates);
 
+        final EntityManager entityManager = openEntityManager();
+        try {
+            final long buildStartTime = System.nanoTime();
             final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-            final CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+            final CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
             final Root<E> root = cq.from(entityClass);
 
-            cq.select(cb.count(root));
+            final List<Selection<?>> selections = new ArrayList<Selection<?>>();
+            for (final Aggregate aggregate : aggregateList) {
+                selections.add(getAggregateExpression(cb, root, aggregate));
+            }
+            cq.multiselect(selections);
 
             setWhereCriteria(cb, cq, root);
 
-            //setOrderClause(cb, cq, root);
-
             final javax.persistence.Query query = entityManager.createQuery(cq);
+            setQueryTimeout(query);
+            setReadOnlyHints(query);
+            addQueryBuildTime(buildStartTime);
 
-            querySize = ((Number) query.getSingleResult()).intValue();
+            final Object result = query.getSingleResult();
+            final Object[] row = result instanceof Object[] ? (Object[]) result : new Object[] {result};
+            for (int i = 0; i < aggregateList.size(); i++) {
+                values.put(aggregateList.get(i), row[i]);
+            }
+            return values;
+        } finally {
+            closeEntityManager(entityManager);
+        }
+    }
 
-            LOGGER.debug(entityClass.getName() + " container size: " + querySize);
+    /**
+     * Gets the JPA 2.0 Criteria API expression of the aggregate.
+     *
+     * @param cb the CriteriaBuilder
+     * @param root the root
+     * @param aggregate the aggregate
+     * @return the aggregate expression
+     */
+    private Expression<?> getAggregateExpression(final CriteriaBuilder cb, final Root<E> root,
+                                                 final Aggregate aggregate) {
+        final Expression property = (Expression) getPropertyPath(root, aggregate.getPropertyId());
+        switch (aggregate.getFunction()) {
+            case COUNT:
+                return cb.count(property);
+            case COUNT_ROWS:
+                return cb.count(root);
+            case SUM:
+                return cb.sum(property);
+            case AVG:
+                return cb.avg(property);
+            case MIN:
+                return cb.least(property);
+            case MAX:
+                return cb.greatest(property);
+            case COUNT_DISTINCT:
+                return cb.countDistinct(property);
+            default:
+                throw new UnsupportedOperationException("Aggregate function: " + aggregate.getFunction()
+                        + " is not supported.");
         }
-        return querySize;
     }
 
     /**
-     * Load batch of items.
+     * Gets those of the given item IDs which are parent property values of entities
+     * matching the filters with a single distinct query.
      *
-     * @param startIndex Starting index of the item list.
-     * @param count      Count of the items to be retrieved.
-     * @return List of items.
+     * @param parentPropertyId The ID of the property referring to the parent item ID.
+     * @param itemIds          The item IDs to be checked.
+     * @return The item IDs having children.
      */
     @Override
-    public final List<Item> loadItems(final int startIndex, final int count) {
+    public final Set<Object> getParentIds(final Object parentPropertyId, final Collection<?> itemIds) {
+        final Set<Object> parentIds = new HashSet<Object>();
+        if (itemIds.isEmpty()) {
+            return parentIds;
+        }
 
-        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-        final CriteriaQuery<E> cq = cb.createQuery(entityClass);
-        final Root<E> root = cq.from(entityClass);
+        final EntityManager entityManager = openEntityManager();
+        try {
+            final long buildStartTime = System.nanoTime();
+            final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+            final CriteriaQuery<Object> cq = cb.createQuery(Object.class);
+            final Root<E> root = cq.from(entityClass);
+            final Path<Object> parentPath = getPropertyPath(root, parentPropertyId);
 
-        cq.select(root);
+            cq.select(parentPath).distinct(true);
 
-        setWhereCriteria(cb, cq, root);
+            setWhereCriteria(cb, cq, root);
 
-        setOrderClause(cb, cq, root);
+            final Predicate parentPredicate = parentPath.in(itemIds);
+            if (cq.getRestriction() == null) {
+                cq.where(parentPredicate);
+            } else {
+                cq.where(cb.and(cq.getRestriction(), parentPredicate));
+            }
 
-        final javax.persistence.TypedQuery<E> query = entityManager.createQuery(cq);
+            final javax.persistence.TypedQuery<Object> query = entityManager.createQuery(cq);
+            setQueryTimeout(query);
+            setReadOnlyHints(query);
+            addQueryBuildTime(buildStartTime);
 
-        query.setFirstResult(startIndex);
-        query.setMaxResults(count);
+            parentIds.addAll(query.getResultList());
+            return parentIds;
+        } finally {
+            closeEntityManager(entityManager);
+        }
+    }
 
-        final List<?> entities = query.getResultList();
-        final List<Item> items = new ArrayList<Item>();
-        for (final Object entity : entities) {
-            if (queryDefinition.isDetachedEntities()) {
-                entityManager.detach(entity);
-            }
-            items.add(toItem(entity));
+    /**
+     * Gets the shared entity manager or creates a new entity manager for the operation.
+     *
+     * @return the entity manager
+     */
+    private EntityManager openEntityManager() {
+        if (sharedEntityManager != null) {
+            return sharedEntityManager;
         }
+        return entityManagerFactory.createEntityManager();
+    }
 
-        return items;
+    /**
+     * Closes the entity manager if it was created for the operation.
+     *
+     * @param entityManager the entity manager
+     */
+    private void closeEntityManager(final EntityManager entityManager) {
+        if (entityManager != sharedEntityManager && entityManager.isOpen()) {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Checks whether the operation runs in its own resource local transaction. This is
+     * the case if application manages transactions or if the entity manager created for
+     * the operation is not a JTA entity manager and has no container managed transaction
+     * to join.
+     *
+     * @param entityManager the entity manager
+     * @return true if the operation begins and commits resource local transaction
+     */
+    private boolean isLocalTransaction(final EntityManager entityManager) {
+        if (applicationTransactionManagement) {
+            return true;
+        }
+        return entityManager != sharedEntityManager && !isJtaEntityManager(entityManager);
+    }
+
+    /**
+     * Begins the resource local transaction of the operation or joins the JTA entity
+     * manager created for the operation to the active container managed transaction.
+     *
+     * @param entityManager    the entity manager
+     * @param localTransaction true if the operation runs in resource local transaction
+     */
+    private void beginTransaction(final EntityManager entityManager, final boolean localTransaction) {
+        if (localTransaction) {
+            entityManager.getTransaction().begin();
+        } else if (entityManager != sharedEntityManager) {
+            entityManager.joinTransaction();
+        }
+    }
+
+    /**
+     * Checks whether the entity manager is a JTA entity manager. JTA entity managers
+     * refuse to return resource local transaction.
+     *
+     * @param entityManager the entity manager
+     * @return true if the entity manager is a JTA entity manager
+     */
+    private static boolean isJtaEntityManager(final EntityManager entityManager) {
+        try {
+            entityManager.getTransaction();
+            return false;
+        } catch (final IllegalStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * @return the metamodel of the persistence unit
+     */
+    private Metamodel getMetamodel() {
+        if (sharedEntityManager != null) {
+            return sharedEntityManager.getMetamodel();
+        }
+        return entityManagerFactory.getMetamodel();
+    }
+
+    /**
+     * Checks whether the given property is the identifier attribute of the entity.
+     *
+     * @param propertyId the property ID
+     * @return true if property is the identifier attribute
+     */
+    private boolean isIdAttribute(final Object propertyId) {
+        try {
+            final SingularAttribute<? super E, ?> attribute = getMetamodel().entity(entityClass)
+                    .getSingularAttribute(propertyId.toString());
+            return attribute.isId();
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Adds left fetch joins for the single valued associations traversed by nested
+     * property IDs so that nested property values do not trigger a query per row.
+     * @param root the root
+     */
+    private void setFetchJoins(final Root<E> root) {
+        if (!queryDefinition.isFetchJoins()) {
+            return;
+        }
+        final Map<String, FetchParent<?, ?>> fetches = new HashMap<String, FetchParent<?, ?>>();
+        for (final Object propertyId : queryDefinition.getPropertyIds()) {
+            if (!(propertyId instanceof String) || ((String) propertyId).indexOf('.') == -1) {
+                continue;
+            }
+            final String[] propertyIdParts = ((String) propertyId).split("\\.");
+            FetchParent<?, ?> parent = root;
+            ManagedType<?> type = getMetamodel().managedType(entityClass);
+            String path = "";
+            for (int i = 0; i < propertyIdParts.length - 1; i++) {
+                final Attribute<?, ?> attribute;
+                try {
+                    attribute = type.getAttribute(propertyIdParts[i]);
+                } catch (final IllegalArgumentException e) {
+                    break;
+                }
+                if (!attribute.isAssociation() || attribute.isCollection()) {
+                    break;
+                }
+                final Type<?> attributeType = ((SingularAttribute<?, ?>) attribute).getType();
+                if (!(attributeType instanceof ManagedType)) {
+                    break;
+                }
+                path = path + "." + propertyIdParts[i];
+                FetchParent<?, ?> fetch = fetches.get(path);
+                if (fetch == null) {
+                    fetch = parent.fetch(propertyIdParts[i], JoinType.LEFT);
+                    fetches.put(path, fetch);
+                }
+                parent = fetch;
+                type = (ManagedType<?>) attributeType;
+            }
+        }
     }
 
     /**
@@ -199,23 +1255,60 @@ public class EntityQuery<E> implements Query, Serializable {
         filters.addAll(queryDefinition.getDefaultFilters());
         filters.addAll(queryDefinition.getFilters());
 
-        final Object[] sortPropertyIds;
-        final boolean[] sortPropertyAscendingStates;
-
-        Container.Filter rootFilter;
         if (filters.size() > 0) {
-            rootFilter = filters.remove(0);
-        } else {
-            rootFilter = null;
+            final Container.Filter rootFilter = FilterNormalizer.normalize(
+                    new And(filters.toArray(new Container.Filter[filters.size()])));
+            checkInParameterCount(rootFilter);
+            cq.where(setFilter(rootFilter, cb, cq, root));
         }
-        while (filters.size() > 0) {
-            final Container.Filter filter = filters.remove(0);
-            rootFilter = new And(rootFilter, filter);
+    }
+
+    /**
+     * Checks that the In filters of the statement do not bind more values than
+     * allowed by the query definition.
+     *
+     * @param filter the root filter of the statement
+     * @throws IllegalArgumentException if the In filters bind too many values
+     */
+    private void checkInParameterCount(final Container.Filter filter) {
+        final int inParameterCount = countInValues(filter);
+        final int maxInParameterCount = queryDefinition.getMaxInParameterCount();
+        if (inParameterCount > maxInParameterCount) {
+            throw new IllegalArgumentException("In filters bind " + inParameterCount
+                    + " values which exceeds the maximum of " + maxInParameterCount
+                    + " parameters per statement. Filter with Exists against a table holding the values"
+                    + " or raise the maximum if the database allows more parameters.");
         }
+    }
 
-        if (rootFilter != null) {
-            cq.where(setFilter(rootFilter, cb, cq, root));
+    /**
+     * Counts the values of the In filters in the filter tree. Filters translated with
+     * a registered translator are not counted.
+     *
+     * @param filter the filter
+     * @return the number of In filter values
+     */
+    private int countInValues(final Container.Filter filter) {
+        if (filter == null || queryDefinition.getFilterTranslator(filter.getClass()) != null) {
+            return 0;
+        }
+        if (filter instanceof In) {
+            return ((In) filter).getValues().size();
         }
+        if (filter instanceof AbstractJunctionFilter) {
+            int count = 0;
+            for (final Container.Filter childFilter : ((AbstractJunctionFilter) filter).getFilters()) {
+                count += countInValues(childFilter);
+            }
+            return count;
+        }
+        if (filter instanceof Not) {
+            return countInValues(((Not) filter).getFilter());
+        }
+        if (filter instanceof Exists) {
+            return countInValues(((Exists) filter).getFilter());
+        }
+        return 0;
     }
 
     /**
@@ -226,21 +1319,35 @@ public class EntityQuery<E> implements Query, Serializable {
      * @param <SE> the selected entity
      */
     private <SE> void setOrderClause(final CriteriaBuilder cb, final CriteriaQuery<SE> cq, final Root<E> root) {
-        Object[] sortPropertyIds;
-        boolean[] sortPropertyAscendingStates;
+        setOrderClause(cb, cq, root, null);
+    }
 
-        if (queryDefinition.getSortPropertyIds().length == 0) {
-            sortPropertyIds = queryDefinition.getDefaultSortPropertyIds();
-            sortPropertyAscendingStates = queryDefinition.getDefaultSortPropertyAscendingStates();
-        } else {
-            sortPropertyIds = queryDefinition.getSortPropertyIds();
-            sortPropertyAscendingStates = queryDefinition.getSortPropertyAscendingStates();
-        }
+    /**
+     * Sets order clause of JPA 2.0 Criteria API query according to Vaadin sort states.
+     * If selections are given only the sort properties which are selected are ordered by
+     * using the selection expressions, which is required by grouped queries.
+     * @param cb the CriteriaBuilder
+     * @param cq the CriteriaQuery
+     * @param root the root
+     * @param selections the selection expressions by property ID or null
+     * @param <SE> the selected entity
+     */
+    private <SE> void setOrderClause(final CriteriaBuilder cb, final CriteriaQuery<SE> cq, final Root<E> root,
+                                     final Map<Object, Expression<?>> selections) {
+        final Object[] sortPropertyIds = getEffectiveSortPropertyIds();
+        final boolean[] sortPropertyAscendingStates = getEffectiveSortPropertyAscendingStates();
 
         if (sortPropertyIds.length > 0) {
             final List<Order> orders = new ArrayList<Order>();
             for (int i = 0; i < sortPropertyIds.length; i++) {
-                final Expression property = (Expression) getPropertyPath(root, sortPropertyIds[i]);
+                final Expression property;
+                if (selections == null) {
+                    property = (Expression) getPropertyPath(root, sortPropertyIds[i]);
+                } else if (selections.containsKey(sortPropertyIds[i])) {
+                    property = selections.get(sortPropertyIds[i]);
+                } else {
+                    continue;
+                }
                 if (sortPropertyAscendingStates[i]) {
                     orders.add(cb.asc(property));
                 } else {
@@ -251,21 +1358,59 @@ public class EntityQuery<E> implements Query, Serializable {
         }
     }
 
+    /**
+     * Gets the IDs of the sort properties or the default sort properties if the query
+     * is not sorted.
+     * @return the sort property IDs
+     */
+    private Object[] getEffectiveSortPropertyIds() {
+        if (queryDefinition.getSortPropertyIds().length == 0) {
+            return queryDefinition.getDefaultSortPropertyIds();
+        }
+        return queryDefinition.getSortPropertyIds();
+    }
+
+    /**
+     * Gets the sort states of the sort properties or the default sort properties if
+     * the query is not sorted.
+     * @return the sort states, true means ascending
+     */
+    private boolean[] getEffectiveSortPropertyAscendingStates() {
+        if (queryDefinition.getSortPropertyIds().length == 0) {
+            return queryDefinition.getDefaultSortPropertyAscendingStates();
+        }
+        return queryDefinition.getSortPropertyAscendingStates();
+    }
+
     /**
      * Implements conversion of Vaadin filter to JPA 2.0 Criteria API based predicate.
      * Supports the following operations:
      *
      * And, Between, Compare, Compare.Equal, Compare.Greater, Compare.GreaterOrEqual,
-     * Compare.Less, Compare.LessOrEqual, IsNull, Like, Not, Or, SimpleStringFilter
+     * Compare.Less, Compare.LessOrEqual, Exists, In, IsNull, Like, Not, Or, SimpleStringFilter
+     *
+     * Filters with translator registered to the query definition are translated
+     * with the translator. In filters with more values than allowed in single IN
+     * predicate are split to OR of IN predicates.
+     *
+     * Filters are expected to be normalized by FilterNormalizer. Case insensitive filters
+     * are evaluated against the configured lower case property or lower function of the
+     * property and prefix only SimpleStringFilters are translated to prefix patterns.
      *
      * @param filter the Vaadin filter
      * @param cb the CriteriaBuilder
-     * @param cq the CriteriaQuery
+     * @param cq the CriteriaQuery or Subquery
      * @param root the root
      * @return the predicate
      */
     private Predicate setFilter(final Container.Filter filter, final CriteriaBuilder cb,
-                                final CriteriaQuery<?> cq, final Root<?> root) {
+                                final AbstractQuery<?> cq, final Root<?> root) {
+        final FilterTranslator<Container.Filter> filterTranslator =
+                queryDefinition.getFilterTranslator(filter.getClass());
+        if (filterTranslator != null) {
+            return filterTranslator.translate(filter, new EntityFilterTranslationContext(cb, cq, root));
+        }
+
         if (filter instanceof And) {
             final And and = (And) filter;
             final List<Container.Filter> filters = new ArrayList<Container.Filter>(and.getFilters());
@@ -325,7 +1470,45 @@ public class EntityQuery<E> implements Query, Serializable {
 
         if (filter instanceof IsNull) {
             final IsNull isNull = (IsNull) filter;
-            return cb.isNull((Expression) getPropertyPath(root, isNull.getPropertyId()));
+            return cb.isNull((Expression) getOuterPropertyPath(root, isNull.getPropertyId()));
+        }
+
+        if (filter instanceof In) {
+            final In in = (In) filter;
+            if (in.getValues().isEmpty()) {
+                return cb.disjunction();
+            }
+            final Path<Object> property = getPropertyPath(root, in.getPropertyId());
+            final int maxInValueCount = queryDefinition.getMaxInValueCount();
+            if (in.getValues().size() <= maxInValueCount) {
+                return property.in(in.getValues());
+            }
+            // The chunks only keep each list within the limit: all values remain
+            // parameters of this one statement.
+            final List<Object> values = new ArrayList<Object>(in.getValues());
+            final List<Predicate> predicates = new ArrayList<Predicate>();
+            for (int i = 0; i < values.size(); i += maxInValueCount) {
+                predicates.add(property.in(values.subList(i, Math.min(i + maxInValueCount, values.size()))));
+            }
+            return cb.or(predicates.toArray(new Predicate[predicates.size()]));
+        }
+
+        if (filter instanceof Exists) {
+            final Exists exists = (Exists) filter;
+            final Subquery subquery = cq.subquery(exists.getEntityClass());
+            final Root<?> subqueryRoot = subquery.from(exists.getEntityClass());
+            subquery.select(subqueryRoot);
+            final Expression<?> outerExpression = exists.getOuterPropertyId() == null
+                    ? root : getPropertyPath(root, exists.getOuterPropertyId());
+            final Predicate correlation = cb.equal(
+                    getPropertyPath(subqueryRoot, exists.getPropertyId()), outerExpression);
+            if (exists.getFilter() == null) {
+                subquery.where(correlation);
+            } else {
+                subquery.where(correlation, setFilter(FilterNormalizer.normalize(exists.getFilter()),
+                        cb, subquery, subqueryRoot));
+            }
+            return cb.exists(subquery);
         }
 
         if (filter instanceof Like) {
@@ -333,22 +1516,43 @@ public class EntityQuery<E> implements Query, Serializable {
             if (like.isCaseSensitive()) {
                 return cb.like((Expression) getPropertyPath(root, like.getPropertyId()), like.getValue());
             } else {
-                return cb.like(cb.lower((Expression) getPropertyPath(root, like.getPropertyId())),
+                return cb.like(getCaseInsensitiveExpression(cb, root, like.getPropertyId()),
                         like.getValue().toLowerCase());
             }
         }
 
         if (filter instanceof SimpleStringFilter) {
             final SimpleStringFilter simpleStringFilter = (SimpleStringFilter) filter;
-            final Expression<String> property = (Expression) getPropertyPath(
-                    root, simpleStringFilter.getPropertyId());
-            return cb.like(property, "%"
-                    + simpleStringFilter.getFilterString() + "%");
+            final String pattern = (simpleStringFilter.isOnlyMatchPrefix() ? "" : "%")
+                    + simpleStringFilter.getFilterString() + "%";
+            if (simpleStringFilter.isIgnoreCase()) {
+                return cb.like(getCaseInsensitiveExpression(cb, root, simpleStringFilter.getPropertyId()),
+                        pattern.toLowerCase());
+            } else {
+                return cb.like((Expression) getPropertyPath(root, simpleStringFilter.getPropertyId()), pattern);
+            }
         }
 
         throw new UnsupportedOperationException("Vaadin filter: " + filter.getClass().getName() + " is not supported.");
     }
 
+    /**
+     * Gets expression for case insensitive comparison of the property, which is either
+     * the configured lower case property or lower function of the property.
+     * @param cb the CriteriaBuilder
+     * @param root the root where path starts form
+     * @param propertyId the property ID
+     * @return the lower case expression
+     */
+    private Expression<String> getCaseInsensitiveExpression(final CriteriaBuilder cb, final Root<?> root,
+                                                            final Object propertyId) {
+        final Object lowerCasePropertyId = queryDefinition.getCaseInsensitivePropertyId(propertyId);
+        if (lowerCasePropertyId != null) {
+            return (Expression) getPropertyPath(root, lowerCasePropertyId);
+        }
+        return cb.lower((Expression) getPropertyPath(root, propertyId));
+    }
+
     /**
      * Gets property path.
      * @param root the root where path starts form
@@ -369,6 +1573,24 @@ public class EntityQuery<E> implements Query, Serializable {
         return path;
     }
 
+    /**
+     * Gets property path traversing the associations of nested property ID with left
+     * joins so that rows with null associations are not excluded, for example when
+     * author.name is null is evaluated for tasks without author.
+     * @param root the root where path starts form
+     * @param propertyId the property ID
+     * @return the path to property
+     */
+    private Path<Object> getOuterPropertyPath(final Root<?> root, final Object propertyId) {
+        final String[] propertyIdParts = ((String) propertyId).split("\\.");
+
+        From<?, ?> from = root;
+        for (int i = 0; i < propertyIdParts.length - 1; i++) {
+            from = from.join(propertyIdParts[i], JoinType.LEFT);
+        }
+        return from.get(propertyIdParts[propertyIdParts.length - 1]);
+    }
+
     /**
      * Saves the modifications done by container to the query result. Query will
      * be discarded after changes have been saved and new query loaded so that
@@ -381,10 +1603,11 @@ public class EntityQuery<E> implements Query, Serializable {
     @Override
     public final void saveItems(final List<Item> addedItems, final List<Item> modifiedItems,
                                 final List<Item> removedItems) {
-        if (applicationTransactionManagement) {
-            entityManager.getTransaction().begin();
-        }
+        checkNotReadOnly();
+        final EntityManager entityManager = openEntityManager();
+        final boolean localTransaction = isLocalTransaction(entityManager);
         try {
+            beginTransaction(entityManager, localTransaction);
             for (final Item item : addedItems) {
                 if (!removedItems.contains(item)) {
                     entityManager.persist(fromItem(item));
@@ -393,7 +1616,7 @@ public class EntityQuery<E> implements Query, Serializable {
             for (final Item item : modifiedItems) {
                 if (!removedItems.contains(item)) {
                     Object entity = fromItem(item);
-                    if (queryDefinition.isDetachedEntities()) {
+                    if (queryDefinition.isDetachedEntities() || entityManager != sharedEntityManager) {
                         entity = entityManager.merge(entity);
                     }
                     entityManager.persist(entity);
@@ -402,22 +1625,24 @@ public class EntityQuery<E> implements Query, Serializable {
             for (final Item item : removedItems) {
                 if (!addedItems.contains(item)) {
                     Object entity = fromItem(item);
-                    if (queryDefinition.isDetachedEntities()) {
+                    if (queryDefinition.isDetachedEntities() || entityManager != sharedEntityManager) {
                         entity = entityManager.merge(entity);
                     }
                     entityManager.remove(entity);
                 }
             }
-            if (applicationTransactionManagement) {
+            if (localTransaction) {
                 entityManager.getTransaction().commit();
             }
         } catch (final Exception e) {
-            if (applicationTransactionManagement) {
+            if (localTransaction) {
                 if (entityManager.getTransaction().isActive()) {
                     entityManager.getTransaction().rollback();
                 }
             }
             throw new RuntimeException(e);
+        } finally {
+            closeEntityManager(entityManager);
         }
     }
 
@@ -429,10 +1654,11 @@ public class EntityQuery<E> implements Query, Serializable {
      */
     @Override
     public final boolean deleteAllItems() {
-        if (applicationTransactionManagement) {
-            entityManager.getTransaction().begin();
-        }
+        checkNotReadOnly();
+        final EntityManager entityManager = openEntityManager();
+        final boolean localTransaction = isLocalTransaction(entityManager);
         try {
+            beginTransaction(entityManager, localTransaction);
             final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
             final CriteriaQuery<E> cq = cb.createQuery(entityClass);
             final Root<E> root = cq.from(entityClass);
@@ -450,16 +1676,18 @@ public class EntityQuery<E> implements Query, Serializable {
                 entityManager.remove(entity);
             }
 
-            if (applicationTransactionManagement) {
+            if (localTransaction) {
                 entityManager.getTransaction().commit();
             }
         } catch (final Exception e) {
-            if (applicationTransactionManagement) {
+            if (localTransaction) {
                 if (entityManager.getTransaction().isActive()) {
                     entityManager.getTransaction().rollback();
                 }
             }
             throw new RuntimeException(e);
+        } finally {
+            closeEntityManager(entityManager);
         }
         return true;
     }
@@ -473,6 +1701,7 @@ public class EntityQuery<E> implements Query, Serializable {
      */
     @SuppressWarnings({"rawtypes", "unchecked" })
     protected final Item toItem(final Object entity) {
+        final Item item;
         if (queryDefinition.isCompositeItems()) {
             final NestingBeanItem<?> beanItem = new NestingBeanItem<Object>(entity,
                     queryDefinition.getMaxNestedPropertyDepth(), queryDefinition.getPropertyIds());
@@ -489,11 +1718,28 @@ public class EntityQuery<E> implements Query, Serializable {
                 }
             }
 
-            return compositeItem;
+            item = compositeItem;
         } else {
-            return new NestingBeanItem<Object>(entity,
+            item = new NestingBeanItem<Object>(entity,
                     queryDefinition.getMaxNestedPropertyDepth(), queryDefinition.getPropertyIds());
         }
+        if (queryDefinition.isReadOnly()) {
+            for (final Object propertyId : item.getItemPropertyIds()) {
+                item.getItemProperty(propertyId).setReadOnly(true);
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Checks that the query definition allows editing.
+     *
+     * @throws UnsupportedOperationException if the query definition is read only.
+     */
+    private void checkNotReadOnly() {
+        if (queryDefinition.isReadOnly()) {
+            throw new UnsupportedOperationException("Query definition is read only.");
+        }
     }
 
     /**
@@ -517,4 +1763,67 @@ public class EntityQuery<E> implements Query, Serializable {
         return queryDefinition;
     }
 
+    /**
+     * Filter translation context translating nested filters with this query.
+     */
+    private final class EntityFilterTranslationContext implements FilterTranslationContext {
+        /**
+         * The criteria builder.
+         */
+        private final CriteriaBuilder cb;
+        /**
+         * The query or subquery.
+         */
+        private final AbstractQuery<?> cq;
+        /**
+         * The root.
+         */
+        private final Root<?> root;
+
+        /**
+         * Constructor which sets the criteria builder, query and root.
+         *
+         * @param cb   the criteria builder
+         * @param cq   the query or subquery
+         * @param root the root
+         */
+        private EntityFilterTranslationContext(final CriteriaBuilder cb, final AbstractQuery<?> cq,
+                                               final Root<?> root) {
+            this.cb = cb;
+            this.cq = cq;
+            this.root = root;
+        }
+
+        @Override
+        public CriteriaBuilder getCriteriaBuilder() {
+            return cb;
+        }
+
+        @Override
+        public AbstractQuery<?> getQuery() {
+            return cq;
+        }
+
+        @Override
+        public Root<?> getRoot() {
+            return root;
+        }
+
+        @Override
+        public Path<Object> getPropertyPath(final Object propertyId) {
+            return EntityQuery.this.getPropertyPath(root, propertyId);
+        }
+
+        @Override
+        public Predicate translate(final Container.Filter filter) {
+            return setFilter(FilterNormalizer.normalize(filter), cb, cq, root);
+        }
+
+        @Override
+        public Predicate translate(final Container.Filter filter, final AbstractQuery<?> subquery,
+                                   final Root<?> subqueryRoot) {
+            return setFilter(FilterNormalizer.normalize(filter), cb, subquery, subqueryRoot);
+        }
+    }
+
 }
@@ -15,6 +15,18 @@
  */
 package org.vaadin.addons.lazyquerycontainer;
 
+import com.vaadin.data.Container.Filter;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Defines entity query definition to be used with JPA entity managers.
  *
@@ -25,6 +37,18 @@ public class EntityQueryDefinition extends LazyQueryDefinition {
      * Serial version UID for this class.
      */
     private static final long serialVersionUID = 1L;
+    /**
+     * Default maximum number of values in single IN predicate.
+     */
+    public static final int DEFAULT_MAX_IN_VALUE_COUNT = 1000;
+    /**
+     * Default maximum number of In filter values bound as parameters of single statement.
+     */
+    public static final int DEFAULT_MAX_IN_PARAMETER_COUNT = 2000;
+    /**
+     * Default number of item IDs selected per query when ID snapshot is taken.
+     */
+    public static final int DEFAULT_ID_SNAPSHOT_PAGE_SIZE = 10000;
     /**
      * Class of the persistent entity type.
      */
@@ -37,7 +61,52 @@ public class EntityQueryDefinition extends LazyQueryDefinition {
      * True if application manages transactions instead of container.
      */
     private boolean applicationManagedTransactions;
-
+    /**
+     * Query timeout in milliseconds or 0 for no timeout.
+     */
+    private int queryTimeout;
+    /**
+     * True if associations traversed by nested property IDs are fetch joined.
+     */
+    private boolean fetchJoins = true;
+    /**
+     * The ID of the version or last modified property used in polling changes or null.
+     */
+    private Object versionPropertyId;
+    /**
+     * The IDs of the properties the query result is grouped by.
+     */
+    private Object[] groupByPropertyIds = new Object[0];
+    /**
+     * The aggregates computed for each group.
+     */
+    private List<Aggregate> groupAggregates = new ArrayList<Aggregate>();
+    /**
+     * The IDs of the lower case properties by the IDs of the properties they are used for
+     * in case insensitive filtering.
+     */
+    private HashMap<Object, Object> caseInsensitivePropertyIds = new HashMap<Object, Object>();
+    /**
+     * The custom filter translators by filter class.
+     */
+    private LinkedHashMap<Class<?>, FilterTranslator<?>> filterTranslators =
+            new LinkedHashMap<Class<?>, FilterTranslator<?>>();
+    /**
+     * Maximum number of values in single IN predicate.
+     */
+    private int maxInValueCount = DEFAULT_MAX_IN_VALUE_COUNT;
+    /**
+     * Maximum number of In filter values bound as parameters of single statement.
+     */
+    private int maxInParameterCount = DEFAULT_MAX_IN_PARAMETER_COUNT;
+    /**
+     * True if item IDs of the query result are materialized when the size is counted.
+     */
+    private boolean idSnapshot;
+    /**
+     * Number of item IDs selected per query when ID snapshot is taken.
+     */
+    private int idSnapshotPageSize = DEFAULT_ID_SNAPSHOT_PAGE_SIZE;
 
     /**
      * Constructor for configuring query definition.
@@ -59,6 +128,29 @@ public class EntityQueryDefinition extends LazyQueryDefinition {
         this.detachedEntities = detachedEntities;
     }
 
+    /**
+     * Copy constructor used in taking copies and snapshots.
+     *
+     * @param definition the definition to be copied
+     */
+    protected EntityQueryDefinition(final EntityQueryDefinition definition) {
+        super(definition);
+        entityClass = definition.entityClass;
+        detachedEntities = definition.detachedEntities;
+        applicationManagedTransactions = definition.applicationManagedTransactions;
+        queryTimeout = definition.queryTimeout;
+        fetchJoins = definition.fetchJoins;
+        versionPropertyId = definition.versionPropertyId;
+        groupByPropertyIds = definition.groupByPropertyIds.clone();
+        groupAggregates = new ArrayList<Aggregate>(definition.groupAggregates);
+        caseInsensitivePropertyIds = new HashMap<Object, Object>(definition.caseInsensitivePropertyIds);
+        filterTranslators = new LinkedHashMap<Class<?>, FilterTranslator<?>>(definition.filterTranslators);
+        maxInValueCount = definition.maxInValueCount;
+        maxInParameterCount = definition.maxInParameterCount;
+        idSnapshot = definition.idSnapshot;
+        idSnapshotPageSize = definition.idSnapshotPageSize;
+    }
+
     /**
      * @return the applicationManagedTransactions
      */
@@ -73,6 +165,302 @@ public class EntityQueryDefinition extends LazyQueryDefinition {
         return detachedEntities;
     }
 
+    /**
+     * @return the query timeout in milliseconds or 0 for no timeout
+     */
+    public final int getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    /**
+     * Sets timeout of the count and load queries. The timeout is passed to the
+     * persistence provider as javax.persistence.query.timeout hint so that slow
+     * queries do not hold the loading threads indefinitely.
+     *
+     * @param queryTimeout the query timeout in milliseconds or 0 for no timeout
+     */
+    public final void setQueryTimeout(final int queryTimeout) {
+        checkNotFrozen();
+        this.queryTimeout = queryTimeout;
+    }
+
+    /**
+     * @return true if associations traversed by nested property IDs are fetch joined
+     */
+    public final boolean isFetchJoins() {
+        return fetchJoins;
+    }
+
+    /**
+     * Sets whether the single valued associations traversed by nested property IDs,
+     * for example author and author.company of author.company.name, are loaded in
+     * the same query with left fetch joins instead of one query per row.
+     * Collection valued associations are never fetch joined as they would break paging.
+     *
+     * @param fetchJoins true if associations should be fetch joined
+     */
+    public final void setFetchJoins(final boolean fetchJoins) {
+        checkNotFrozen();
+        this.fetchJoins = fetchJoins;
+    }
+
+    /**
+     * @return the ID of the version or last modified property used in polling changes or null
+     */
+    public final Object getVersionPropertyId() {
+        return versionPropertyId;
+    }
+
+    /**
+     * Sets the version or last modified property, for example the @Version attribute
+     * of the entity, used in polling rows changed since the query size was counted.
+     * The property value has to grow on every update of the row.
+     *
+     * @param versionPropertyId the ID of the version property or null to disable polling
+     */
+    public final void setVersionPropertyId(final Object versionPropertyId) {
+        checkNotFrozen();
+        this.versionPropertyId = versionPropertyId;
+    }
+
+    /**
+     * Gets the lower case property used for the property in case insensitive filtering.
+     *
+     * @param propertyId the ID of the property
+     * @return the ID of the lower case property or null if the property is compared with lower function
+     */
+    public final Object getCaseInsensitivePropertyId(final Object propertyId) {
+        return caseInsensitivePropertyIds.get(propertyId);
+    }
+
+    /**
+     * Sets property containing lower case copy of the property, which case insensitive
+     * Like and SimpleStringFilter filters of the property are evaluated against instead of
+     * lower function of the property. This allows the database to use an index of the lower
+     * case column. Without mapping a function index on lower of the column can be used.
+     *
+     * @param propertyId          the ID of the property
+     * @param lowerCasePropertyId the ID of the lower case property or null to remove mapping
+     */
+    public final void setCaseInsensitivePropertyId(final Object propertyId, final Object lowerCasePropertyId) {
+        checkNotFrozen();
+        if (lowerCasePropertyId == null) {
+            caseInsensitivePropertyIds.remove(propertyId);
+        } else {
+            caseInsensitivePropertyIds.put(propertyId, lowerCasePropertyId);
+        }
+    }
+
+    /**
+     * Gets the translator registered for the filter class or its closest superclass.
+     *
+     * @param filterClass the filter class
+     * @return the translator or null if the filter is translated by EntityQuery
+     */
+    @SuppressWarnings("unchecked")
+    public final FilterTranslator<Filter> getFilterTranslator(final Class<?> filterClass) {
+        for (Class<?> superClass = filterClass; superClass != null; superClass = superClass.getSuperclass()) {
+            final FilterTranslator<?> filterTranslator = filterTranslators.get(superClass);
+            if (filterTranslator != null) {
+                return (FilterTranslator<Filter>) filterTranslator;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Registers translator converting filters of the given class and its subclasses to
+     * predicates. Registered translators take precedence over the filters supported
+     * by EntityQuery. Translator is serialized with the query definition.
+     *
+     * @param filterClass      the filter class
+     * @param filterTranslator the translator or null to remove registration
+     * @param <T>              the filter class
+     */
+    public final <T extends Filter> void setFilterTranslator(final Class<T> filterClass,
+                                                                      final FilterTranslator<? super T>
+                                                                              filterTranslator) {
+        checkNotFrozen();
+        if (filterTranslator == null) {
+            filterTranslators.remove(filterClass);
+        } else {
+            filterTranslators.put(filterClass, filterTranslator);
+        }
+    }
+
+    /**
+     * @return the maximum number of values in single IN predicate
+     */
+    public final int getMaxInValueCount() {
+        return maxInValueCount;
+    }
+
+    /**
+     * Sets maximum number of values in single IN predicate. Larger In filters are
+     * split to OR of IN predicates to stay within the IN list limits of the
+     * database, for example 1000 values in Oracle. The limit applies to each list
+     * and not to the statement: all values are still bound as parameters of the
+     * same statement, see {@link #setMaxInParameterCount(int)}.
+     *
+     * @param maxInValueCount the maximum number of values in single IN predicate
+     */
+    public final void setMaxInValueCount(final int maxInValueCount) {
+        checkNotFrozen();
+        if (maxInValueCount < 1) {
+            throw new IllegalArgumentException("Maximum IN value count has to be positive: " + maxInValueCount);
+        }
+        this.maxInValueCount = maxInValueCount;
+    }
+
+    /**
+     * @return the maximum number of In filter values bound as parameters of single statement
+     */
+    public final int getMaxInParameterCount() {
+        return maxInParameterCount;
+    }
+
+    /**
+     * Sets maximum number of In filter values bound as parameters of single statement.
+     * The values of all In filters of the statement are counted, and a query exceeding
+     * the maximum fails with IllegalArgumentException before the statement is sent
+     * instead of failing in the database. The default stays below the statement
+     * parameter limit of SQL Server, 2100, and can be raised for databases with higher
+     * limits, for example 32767 in PostgreSQL. Larger value sets should be filtered with
+     * Exists against a table holding the values or with a custom filter translator.
+     *
+     * @param maxInParameterCount the maximum number of In filter values in single statement
+     */
+    public final void setMaxInParameterCount(final int maxInParameterCount) {
+        checkNotFrozen();
+        if (maxInParameterCount < 1) {
+            throw new IllegalArgumentException("Maximum IN parameter count has to be positive: "
+                    + maxInParameterCount);
+        }
+        this.maxInParameterCount = maxInParameterCount;
+    }
+
+    /**
+     * @return true if item IDs of the query result are materialized when the size is counted
+     */
+    public final boolean isIdSnapshot() {
+        return idSnapshot;
+    }
+
+    /**
+     * Sets whether the item IDs of the whole filtered and sorted query result are
+     * selected instead of counting the rows, after which batches are loaded by the IDs
+     * of the corresponding slice instead of offset paging. Paging stays consistent
+     * while rows are inserted concurrently until the view is refreshed, and item IDs
+     * are resolved to indexes without loading the items. Requires unique ID property
+     * and is ignored by grouped queries.
+     *
+     * @param idSnapshot true if item IDs should be materialized
+     */
+    public final void setIdSnapshot(final boolean idSnapshot) {
+        checkNotFrozen();
+        this.idSnapshot = idSnapshot;
+    }
+
+    /**
+     * @return the number of item IDs selected per query when ID snapshot is taken
+     */
+    public final int getIdSnapshotPageSize() {
+        return idSnapshotPageSize;
+    }
+
+    /**
+     * Sets the number of item IDs selected per query when ID snapshot is taken. Each
+     * page continues after the sort key values and ID of the last row of the previous
+     * page instead of skipping rows by offset.
+     *
+     * @param idSnapshotPageSize the number of item IDs selected per query
+     */
+    public final void setIdSnapshotPageSize(final int idSnapshotPageSize) {
+        checkNotFrozen();
+        if (idSnapshotPageSize < 1) {
+            throw new IllegalArgumentException("ID snapshot page size has to be positive: " + idSnapshotPageSize);
+        }
+        this.idSnapshotPageSize = idSnapshotPageSize;
+    }
+
+    /**
+     * @return the IDs of the properties the query result is grouped by
+     */
+    public final Object[] getGroupByPropertyIds() {
+        return groupByPropertyIds;
+    }
+
+    /**
+     * @return the aggregates computed for each group
+     */
+    public final List<Aggregate> getGroupAggregates() {
+        return Collections.unmodifiableList(groupAggregates);
+    }
+
+    /**
+     * @return true if the query result is grouped
+     */
+    public final boolean isGrouped() {
+        return groupByPropertyIds.length > 0;
+    }
+
+    /**
+     * Sets grouping of the query result. Each item of a grouped query is a group row
+     * containing the group by property values and the aggregate values. The group by
+     * property IDs and the aggregates are used as property IDs of the items and have to
+     * be added as properties of this definition with the types returned by the database,
+     * for example Long for COUNT. Grouped definitions are read only and the item index
+     * is used as item ID.
+     *
+     * @param groupByPropertyIds the IDs of the properties the query result is grouped by
+     * @param aggregates         the aggregates computed for each group
+     */
+    public final void setGrouping(final Object[] groupByPropertyIds, final Aggregate... aggregates) {
+        checkNotFrozen();
+        this.groupByPropertyIds = groupByPropertyIds;
+        this.groupAggregates = new ArrayList<Aggregate>(Arrays.asList(aggregates));
+        if (groupByPropertyIds.length > 0) {
+            setReadOnly(true);
+        }
+    }
+
+    /**
+     * Creates grouped definition of the distinct values of the property and the number
+     * of rows having each value. The value items contain the value as property propertyId
+     * and the row count as property Aggregate(propertyId, COUNT_ROWS). Values are sorted
+     * in ascending order.
+     *
+     * @param propertyId the ID of the property
+     * @param filtered   true if the filters of this definition not applying to the property
+     *                   are applied to the values, default filters are always applied
+     * @return the distinct value definition
+     */
+    public final EntityQueryDefinition createDistinctValueDefinition(final Object propertyId,
+                                                                     final boolean filtered) {
+        final EntityQueryDefinition definition = (EntityQueryDefinition) copy();
+        for (final Object definitionPropertyId : new ArrayList<Object>(definition.getPropertyIds())) {
+            definition.removeProperty(definitionPropertyId);
+        }
+        definition.removeFilters();
+        if (filtered) {
+            for (final Filter filter : getFilters()) {
+                if (!filter.appliesToProperty(propertyId)) {
+                    definition.addFilter(filter);
+                }
+            }
+        }
+        final Class<?> valueType = getPropertyType(propertyId) == null ? Object.class : getPropertyType(propertyId);
+        final Aggregate rowCount = new Aggregate(propertyId, AggregateFunction.COUNT_ROWS);
+        definition.addProperty(propertyId, valueType, null, true, true);
+        definition.addProperty(rowCount, Long.class, 0L, true, true);
+        definition.setIdPropertyId(null);
+        definition.setVersionPropertyId(null);
+        definition.setGrouping(new Object[]{propertyId}, rowCount);
+        definition.setSortState(new Object[0], new boolean[0]);
+        definition.setDefaultSortState(new Object[]{propertyId}, new boolean[]{true});
+        return definition;
+    }
+
     /**
      * Gets class of the persistent entity type.
      *
@@ -82,4 +470,78 @@ public class EntityQueryDefinition extends LazyQueryDefinition {
         return entityClass;
     }
 
+    @Override
+    protected LazyQueryDefinition createCopy() {
+        if (getClass() != EntityQueryDefinition.class) {
+            return super.createCopy();
+        }
+        return new EntityQueryDefinition(this);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (!super.equals(other)) {
+            return false;
+        }
+        if (this == other) {
+            return true;
+        }
+        final EntityQueryDefinition otherDefinition = (EntityQueryDefinition) other;
+        return entityClass == otherDefinition.entityClass
+                && detachedEntities == otherDefinition.detachedEntities
+                && applicationManagedTransactions == otherDefinition.applicationManagedTransactions
+                && queryTimeout == otherDefinition.queryTimeout
+                && fetchJoins == otherDefinition.fetchJoins
+                && (versionPropertyId == null ? otherDefinition.versionPropertyId == null
+                : versionPropertyId.equals(otherDefinition.versionPropertyId))
+                && Arrays.equals(groupByPropertyIds, otherDefinition.groupByPropertyIds)
+                && groupAggregates.equals(otherDefinition.groupAggregates)
+                && caseInsensitivePropertyIds.equals(otherDefinition.caseInsensitivePropertyIds)
+                && filterTranslators.equals(otherDefinition.filterTranslators)
+                && maxInValueCount == otherDefinition.maxInValueCount
+                && maxInParameterCount == otherDefinition.maxInParameterCount
+                && idSnapshot == otherDefinition.idSnapshot
+                && idSnapshotPageSize == otherDefinition.idSnapshotPageSize;
+    }
+
+    @Override
+    public int hashCode() {
+        if (!isSnapshot()) {
+            return super.hashCode();
+        }
+        return 31 * super.hashCode() + Arrays.hashCode(new Object[]{entityClass, versionPropertyId,
+                Arrays.hashCode(groupByPropertyIds), groupAggregates, caseInsensitivePropertyIds,
+                filterTranslators.keySet(), queryTimeout, maxInValueCount, maxInParameterCount,
+                fetchJoins, idSnapshot, idSnapshotPageSize, detachedEntities, applicationManagedTransactions});
+    }
+
+    /**
+     * Reads the definition restoring the defaults of the fields missing from
+     * definitions serialized by earlier versions.
+     *
+     * @param in the input stream
+     * @throws IOException if IO exception occurs in read
+     * @throws ClassNotFoundException if class not found exception occur in read
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final ObjectInputStream.GetField fields = in.readFields();
+        entityClass = (Class<?>) fields.get("entityClass", null);
+        detachedEntities = fields.get("detachedEntities", false);
+        applicationManagedTransactions = fields.get("applicationManagedTransactions", false);
+        queryTimeout = fields.get("queryTimeout", 0);
+        fetchJoins = fields.get("fetchJoins", true);
+        versionPropertyId = fields.get("versionPropertyId", null);
+        groupByPropertyIds = (Object[]) fields.get("groupByPropertyIds", new Object[0]);
+        groupAggregates = (List<Aggregate>) fields.get("groupAggregates", new ArrayList<Aggregate>());
+        caseInsensitivePropertyIds = (HashMap<Object, Object>) fields.get("caseInsensitivePropertyIds",
+                new HashMap<Object, Object>());
+        filterTranslators = (LinkedHashMap<Class<?>, FilterTranslator<?>>) fields.get("filterTranslators",
+                new LinkedHashMap<Class<?>, FilterTranslator<?>>());
+        maxInValueCount = fields.get("maxInValueCount", DEFAULT_MAX_IN_VALUE_COUNT);
+        maxInParameterCount = fields.get("maxInParameterCount", DEFAULT_MAX_IN_PARAMETER_COUNT);
+        idSnapshot = fields.get("idSnapshot", false);
+        idSnapshotPageSize = fields.get("idSnapshotPageSize", DEFAULT_ID_SNAPSHOT_PAGE_SIZE);
+    }
+
 }
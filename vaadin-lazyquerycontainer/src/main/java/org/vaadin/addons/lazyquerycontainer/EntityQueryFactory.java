@@ -16,6 +16,7 @@
 package org.vaadin.addons.lazyquerycontainer;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import java.io.Serializable;
 
 /**
@@ -33,6 +34,10 @@ public final class EntityQueryFactory implements QueryFactory, Serializable {
      * The JPA EntityManager.
      */
     private final EntityManager entityManager;
+    /**
+     * The JPA EntityManagerFactory.
+     */
+    private final EntityManagerFactory entityManagerFactory;
 
     /**
      * Constructor which allows setting the entity manager.
@@ -40,15 +45,36 @@ public final class EntityQueryFactory implements QueryFactory, Serializable {
      */
     public EntityQueryFactory(final EntityManager entityManager) {
         this.entityManager = entityManager;
+        this.entityManagerFactory = null;
+    }
+
+    /**
+     * Constructor which allows setting the entity manager factory. Queries create
+     * short lived entity manager per operation instead of sharing a single entity
+     * manager so that persistence context does not grow with the scrolled items and
+     * queries can be loaded in parallel, for example with ExecutorAsyncQueryFactory
+     * allowing concurrent access.
+     * @param entityManagerFactory the entity manager factory
+     */
+    public EntityQueryFactory(final EntityManagerFactory entityManagerFactory) {
+        this.entityManager = null;
+        this.entityManagerFactory = entityManagerFactory;
     }
 
     /**
-     * @return the entityManager
+     * @return the entityManager or null if entity manager is created per operation
      */
     public EntityManager getEntityManager() {
         return entityManager;
     }
 
+    /**
+     * @return the entityManagerFactory or null if entity manager is shared
+     */
+    public EntityManagerFactory getEntityManagerFactory() {
+        return entityManagerFactory;
+    }
+
     /**
      * Constructs a new query according to the given QueryDefinition.
      *
@@ -57,6 +83,9 @@ public final class EntityQueryFactory implements QueryFactory, Serializable {
      */
     @Override
     public Query constructQuery(final QueryDefinition queryDefinition) {
+        if (entityManagerFactory != null) {
+            return new EntityQuery((EntityQueryDefinition) queryDefinition, entityManagerFactory);
+        }
         return new EntityQuery((EntityQueryDefinition) queryDefinition, entityManager);
     }
 
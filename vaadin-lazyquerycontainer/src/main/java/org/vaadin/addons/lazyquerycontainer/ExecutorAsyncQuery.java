@@ -0,0 +1,435 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * AsyncQuery adapter which runs a blocking Query on the given Executor, for example
+ * a fixed thread pool or a virtual thread per task executor on runtimes providing one.
+ * Unless concurrent access is enabled the wrapped query is invoked by one thread at a
+ * time, which keeps implementations sharing a single EntityManager safe while still
+ * moving the database calls off the calling thread. If no executor is available,
+ * for example after deserialization, the operations are run in the calling thread.
+ * <p>
+ * The optional query interfaces are forwarded to the wrapped query. As the adapter
+ * implements all of them, callers check whether the wrapped query supports one with
+ * {@link #getQueryInterface(Query, Class)} instead of instanceof.
+ */
+public final class ExecutorAsyncQuery implements AsyncQuery, AggregateQuery, ItemIdQuery, PollingQuery,
+        HierarchicalQuery, IdSnapshotQuery, Serializable {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The wrapped blocking query.
+     */
+    private final Query query;
+    /**
+     * The executor running the query operations.
+     */
+    private final transient Executor executor;
+    /**
+     * True if the wrapped query can be invoked by several threads at a time.
+     */
+    private final boolean concurrentAccess;
+
+    /**
+     * Constructor which sets the wrapped query and executor. The wrapped query
+     * is invoked by one thread at a time.
+     *
+     * @param query    the blocking query to be wrapped
+     * @param executor the executor running the query operations
+     */
+    public ExecutorAsyncQuery(final Query query, final Executor executor) {
+        this(query, executor, false);
+    }
+
+    /**
+     * Constructor which sets the wrapped query, executor and concurrent access flag.
+     *
+     * @param query            the blocking query to be wrapped
+     * @param executor         the executor running the query operations
+     * @param concurrentAccess true if the wrapped query can be invoked by several threads at a time
+     */
+    public ExecutorAsyncQuery(final Query query, final Executor executor, final boolean concurrentAccess) {
+        this.query = query;
+        this.executor = executor;
+        this.concurrentAccess = concurrentAccess;
+    }
+
+    /**
+     * @return the wrapped query
+     */
+    public Query getQuery() {
+        return query;
+    }
+
+    /**
+     * Casts the query to the given query interface if the query supports it. An
+     * ExecutorAsyncQuery supports the interfaces implemented by its wrapped query
+     * in addition to AsyncQuery.
+     *
+     * @param query the query or null
+     * @param queryInterface the query interface
+     * @param <T> the query interface type
+     * @return the query or null if it does not support the interface
+     */
+    public static <T extends Query> T getQueryInterface(final Query query, final Class<T> queryInterface) {
+        if (!queryInterface.isInstance(query)) {
+            return null;
+        }
+        if (query instanceof ExecutorAsyncQuery && !queryInterface.isAssignableFrom(AsyncQuery.class)
+                && !queryInterface.isInstance(((ExecutorAsyncQuery) query).query)) {
+            return null;
+        }
+        return queryInterface.cast(query);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Future<Integer> sizeAsync(final AsyncQueryCallback<Integer> callback) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return size();
+            }
+        }, callback);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Future<List<Item>> loadItemsAsync(final int startIndex, final int count,
+                                             final AsyncQueryCallback<List<Item>> callback) {
+        return submit(new Callable<List<Item>>() {
+            @Override
+            public List<Item> call() {
+                if (concurrentAccess) {
+                    return loadAvailableItems(startIndex, count);
+                }
+                synchronized (query) {
+                    return loadAvailableItems(startIndex, count);
+                }
+            }
+        }, callback);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Future<Void> saveItemsAsync(final List<Item> addedItems, final List<Item> modifiedItems,
+                                       final List<Item> removedItems, final AsyncQueryCallback<Void> callback) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                saveItems(addedItems, modifiedItems, removedItems);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        if (concurrentAccess) {
+            return query.size();
+        }
+        synchronized (query) {
+            return query.size();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Item> loadItems(final int startIndex, final int count) {
+        if (concurrentAccess) {
+            return query.loadItems(startIndex, count);
+        }
+        synchronized (query) {
+            return query.loadItems(startIndex, count);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void saveItems(final List<Item> addedItems, final List<Item> modifiedItems,
+                          final List<Item> removedItems) {
+        if (concurrentAccess) {
+            query.saveItems(addedItems, modifiedItems, removedItems);
+            return;
+        }
+        synchronized (query) {
+            query.saveItems(addedItems, modifiedItems, removedItems);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean deleteAllItems() {
+        if (concurrentAccess) {
+            return query.deleteAllItems();
+        }
+        synchronized (query) {
+            return query.deleteAllItems();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Item constructItem() {
+        if (concurrentAccess) {
+            return query.constructItem();
+        }
+        synchronized (query) {
+            return query.constructItem();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Aggregate, Object> aggregate(final Collection<Aggregate> aggregates) {
+        final AggregateQuery aggregateQuery = getWrappedQuery(AggregateQuery.class);
+        if (concurrentAccess) {
+            return aggregateQuery.aggregate(aggregates);
+        }
+        synchronized (query) {
+            return aggregateQuery.aggregate(aggregates);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Item loadItem(final Object itemId) {
+        final ItemIdQuery itemIdQuery = getWrappedQuery(ItemIdQuery.class);
+        if (concurrentAccess) {
+            return itemIdQuery.loadItem(itemId);
+        }
+        synchronized (query) {
+            return itemIdQuery.loadItem(itemId);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Item> pollChanges() {
+        final PollingQuery pollingQuery = getWrappedQuery(PollingQuery.class);
+        if (concurrentAccess) {
+            return pollingQuery.pollChanges();
+        }
+        synchronized (query) {
+            return pollingQuery.pollChanges();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Object> getParentIds(final Object parentPropertyId, final Collection<?> itemIds) {
+        final HierarchicalQuery hierarchicalQuery = getWrappedQuery(HierarchicalQuery.class);
+        if (concurrentAccess) {
+            return hierarchicalQuery.getParentIds(parentPropertyId, itemIds);
+        }
+        synchronized (query) {
+            return hierarchicalQuery.getParentIds(parentPropertyId, itemIds);
+        }
+    }
+
+    /**
+     * @return true if the wrapped query implements IdSnapshotQuery and materializes item IDs
+     */
+    @Override
+    public boolean isIdSnapshot() {
+        if (!(query instanceof IdSnapshotQuery)) {
+            return false;
+        }
+        if (concurrentAccess) {
+            return ((IdSnapshotQuery) query).isIdSnapshot();
+        }
+        synchronized (query) {
+            return ((IdSnapshotQuery) query).isIdSnapshot();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getItemId(final int index) {
+        final IdSnapshotQuery idSnapshotQuery = getWrappedQuery(IdSnapshotQuery.class);
+        if (concurrentAccess) {
+            return idSnapshotQuery.getItemId(index);
+        }
+        synchronized (query) {
+            return idSnapshotQuery.getItemId(index);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int indexOfItemId(final Object itemId) {
+        final IdSnapshotQuery idSnapshotQuery = getWrappedQuery(IdSnapshotQuery.class);
+        if (concurrentAccess) {
+            return idSnapshotQuery.indexOfItemId(itemId);
+        }
+        synchronized (query) {
+            return idSnapshotQuery.indexOfItemId(itemId);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeItemId(final int index) {
+        final IdSnapshotQuery idSnapshotQuery = getWrappedQuery(IdSnapshotQuery.class);
+        if (concurrentAccess) {
+            idSnapshotQuery.removeItemId(index);
+            return;
+        }
+        synchronized (query) {
+            idSnapshotQuery.removeItemId(index);
+        }
+    }
+
+    /**
+     * Gets the wrapped query as the given query interface.
+     *
+     * @param queryInterface the query interface
+     * @param <T> the query interface type
+     * @return the wrapped query
+     * @throws UnsupportedOperationException if the wrapped query does not implement the interface
+     */
+    private <T extends Query> T getWrappedQuery(final Class<T> queryInterface) {
+        if (!queryInterface.isInstance(query)) {
+            throw new UnsupportedOperationException("Wrapped query does not implement "
+                    + queryInterface.getSimpleName() + ": " + query.getClass().getName());
+        }
+        return queryInterface.cast(query);
+    }
+
+    /**
+     * Loads the items of the requested batch which exist in the query result as
+     * the blocking query expects count not to exceed the query size.
+     *
+     * @param startIndex Starting index of the item list.
+     * @param count      Count of the items to be retrieved.
+     * @return List of items.
+     */
+    private List<Item> loadAvailableItems(final int startIndex, final int count) {
+        final int availableCount = Math.min(count, query.size() - startIndex);
+        if (availableCount <= 0) {
+            return Collections.emptyList();
+        }
+        return query.loadItems(startIndex, availableCount);
+    }
+
+    /**
+     * Submits operation to the executor or runs it in the calling thread if
+     * executor is not available.
+     *
+     * @param callable the operation
+     * @param callback the callback or null
+     * @param <T> the result type
+     * @return future of the operation result
+     */
+    private <T> Future<T> submit(final Callable<T> callable, final AsyncQueryCallback<T> callback) {
+        final FutureTask<T> task = new CallbackFutureTask<T>(callable, callback);
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+        return task;
+    }
+
+    /**
+     * FutureTask notifying callback on completion.
+     *
+     * @param <T> the result type
+     */
+    private static final class CallbackFutureTask<T> extends FutureTask<T> {
+        /**
+         * The callback or null.
+         */
+        private final AsyncQueryCallback<T> callback;
+
+        /**
+         * Constructor which sets the operation and the callback.
+         *
+         * @param callable the operation
+         * @param callback the callback or null
+         */
+        public CallbackFutureTask(final Callable<T> callable, final AsyncQueryCallback<T> callback) {
+            super(callable);
+            this.callback = callback;
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null || isCancelled()) {
+                return;
+            }
+            final T result;
+            try {
+                result = get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final ExecutionException e) {
+                callback.failed(e.getCause());
+                return;
+            }
+            callback.completed(result);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.io.Serializable;
+import java.util.concurrent.Executor;
+
+/**
+ * QueryFactory wrapping the queries of another factory to ExecutorAsyncQuery
+ * adapters so that blocking Query implementations can be loaded asynchronously.
+ * Queries implementing AsyncQuery natively are returned as is. Change listeners
+ * are registered to the wrapped factory if it implements QueryChangeNotifier.
+ */
+public final class ExecutorAsyncQueryFactory implements QueryFactory, QueryChangeNotifier, Serializable {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The factory constructing the blocking queries.
+     */
+    private final QueryFactory queryFactory;
+    /**
+     * The executor running the query operations.
+     */
+    private final transient Executor executor;
+    /**
+     * True if the queries can be invoked by several threads at a time.
+     */
+    private final boolean concurrentAccess;
+
+    /**
+     * Constructor which sets the wrapped factory and executor.
+     *
+     * @param queryFactory the factory constructing the blocking queries
+     * @param executor     the executor running the query operations
+     */
+    public ExecutorAsyncQueryFactory(final QueryFactory queryFactory, final Executor executor) {
+        this(queryFactory, executor, false);
+    }
+
+    /**
+     * Constructor which sets the wrapped factory, executor and concurrent access flag.
+     *
+     * @param queryFactory     the factory constructing the blocking queries
+     * @param executor         the executor running the query operations
+     * @param concurrentAccess true if the queries can be invoked by several threads at a time
+     */
+    public ExecutorAsyncQueryFactory(final QueryFactory queryFactory, final Executor executor,
+                                     final boolean concurrentAccess) {
+        this.queryFactory = queryFactory;
+        this.executor = executor;
+        this.concurrentAccess = concurrentAccess;
+    }
+
+    /**
+     * @return the wrapped query factory
+     */
+    public QueryFactory getQueryFactory() {
+        return queryFactory;
+    }
+
+    /**
+     * Constructs a new query according to the given QueryDefinition.
+     *
+     * @param queryDefinition Properties participating in the sorting.
+     * @return A new query constructed according to the given sort state.
+     */
+    @Override
+    public Query constructQuery(final QueryDefinition queryDefinition) {
+        final Query query = queryFactory.constructQuery(queryDefinition);
+        if (query instanceof AsyncQuery) {
+            return query;
+        }
+        return new ExecutorAsyncQuery(query, executor, concurrentAccess);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addQueryChangeListener(final QueryChangeListener listener) {
+        if (queryFactory instanceof QueryChangeNotifier) {
+            ((QueryChangeNotifier) queryFactory).addQueryChangeListener(listener);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeQueryChangeListener(final QueryChangeListener listener) {
+        if (queryFactory instanceof QueryChangeNotifier) {
+            ((QueryChangeNotifier) queryFactory).removeQueryChangeListener(listener);
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Item;
+
+/**
+ * Filter passing rows for which related entities satisfying the given filter exist,
+ * for example authors having open tasks. Translated to EXISTS subquery by EntityQuery
+ * and can not be evaluated in memory.
+ */
+public final class Exists implements Container.Filter {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The class of the related entities.
+     */
+    private final Class<?> entityClass;
+    /**
+     * The ID of the property of the related entity referring to the filtered row.
+     */
+    private final Object propertyId;
+    /**
+     * The ID of the property of the filtered row referred to or null if the related
+     * entities refer to the filtered entity itself.
+     */
+    private final Object outerPropertyId;
+    /**
+     * The filter of the related entities or null.
+     */
+    private final Container.Filter filter;
+
+    /**
+     * Constructor which sets the related entities referring to the filtered entity.
+     *
+     * @param entityClass the class of the related entities
+     * @param propertyId  the ID of the property of the related entity referring to the filtered entity
+     * @param filter      the filter of the related entities or null
+     */
+    public Exists(final Class<?> entityClass, final Object propertyId, final Container.Filter filter) {
+        this(entityClass, propertyId, null, filter);
+    }
+
+    /**
+     * Constructor which sets the related entities referring to a property of the filtered row.
+     *
+     * @param entityClass     the class of the related entities
+     * @param propertyId      the ID of the property of the related entity referring to the filtered row
+     * @param outerPropertyId the ID of the property of the filtered row or null for the filtered entity
+     * @param filter          the filter of the related entities or null
+     */
+    public Exists(final Class<?> entityClass, final Object propertyId, final Object outerPropertyId,
+                  final Container.Filter filter) {
+        this.entityClass = entityClass;
+        this.propertyId = propertyId;
+        this.outerPropertyId = outerPropertyId;
+        this.filter = filter;
+    }
+
+    /**
+     * @return the class of the related entities
+     */
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * @return the ID of the property of the related entity referring to the filtered row
+     */
+    public Object getPropertyId() {
+        return propertyId;
+    }
+
+    /**
+     * @return the ID of the property of the filtered row or null for the filtered entity
+     */
+    public Object getOuterPropertyId() {
+        return outerPropertyId;
+    }
+
+    /**
+     * @return the filter of the related entities or null
+     */
+    public Container.Filter getFilter() {
+        return filter;
+    }
+
+    @Override
+    public boolean passesFilter(final Object itemId, final Item item) {
+        throw new UnsupportedOperationException("Exists filter can only be evaluated by the database.");
+    }
+
+    @Override
+    public boolean appliesToProperty(final Object propertyId) {
+        return outerPropertyId != null && outerPropertyId.equals(propertyId);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Exists)) {
+            return false;
+        }
+        final Exists otherExists = (Exists) other;
+        return entityClass.equals(otherExists.entityClass) && propertyId.equals(otherExists.propertyId)
+                && (outerPropertyId == null ? otherExists.outerPropertyId == null
+                : outerPropertyId.equals(otherExists.outerPropertyId))
+                && (filter == null ? otherExists.filter == null : filter.equals(otherExists.filter));
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = 31 * entityClass.hashCode() + propertyId.hashCode();
+        hashCode = 31 * hashCode + (outerPropertyId == null ? 0 : outerPropertyId.hashCode());
+        return 31 * hashCode + (filter == null ? 0 : filter.hashCode());
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Container;
+import org.apache.log4j.Logger;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects filter changes of LazyQueryView during the debounce window and
+ * schedules their application. The methods are invoked holding the view lock.
+ */
+final class FilterDebouncer implements Serializable {
+    /**
+     * Java serialization UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /** The logger. */
+    private static final Logger LOGGER = Logger.getLogger(FilterDebouncer.class);
+
+    /**
+     * Time in milliseconds filter changes are collected before the view is refreshed or 0.
+     */
+    private long debounceMillis = 0;
+    /**
+     * Filters waiting for the debounce window to elapse or null if no filter changes are pending.
+     */
+    private List<Container.Filter> pendingFilters;
+    /**
+     * Time after which pending filters are applied.
+     */
+    private long pendingFiltersDeadline;
+    /**
+     * Scheduler applying pending filters through the completion executor or null.
+     */
+    private transient ScheduledExecutorService scheduler;
+    /**
+     * Scheduled application of pending filters or null.
+     */
+    private transient ScheduledFuture<?> pendingFiltersTask;
+
+    /**
+     * @return the debounce window in milliseconds or 0 if filters are applied immediately
+     */
+    long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    /**
+     * @param debounceMillis the debounce window in milliseconds or 0 to apply filters immediately
+     */
+    void setDebounceMillis(final long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * @return the scheduler applying pending filters or null
+     */
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Sets the scheduler cancelling the task scheduled with the previous scheduler.
+     *
+     * @param scheduler the scheduler or null
+     */
+    void setScheduler(final ScheduledExecutorService scheduler) {
+        cancel();
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return the pending filters or null if no filter changes are pending
+     */
+    List<Container.Filter> getPendingFilters() {
+        return pendingFilters;
+    }
+
+    /**
+     * Sets the pending filters starting new debounce window.
+     *
+     * @param filters the filters
+     */
+    void setPendingFilters(final List<Container.Filter> filters) {
+        pendingFilters = filters;
+        pendingFiltersDeadline = System.currentTimeMillis() + debounceMillis;
+    }
+
+    /**
+     * Takes the pending filters if the debounce window has elapsed.
+     *
+     * @param force true if pending filters are taken regardless of the debounce window
+     * @return the pending filters or null if there are none or the window has not elapsed
+     */
+    List<Container.Filter> takePendingFilters(final boolean force) {
+        if (pendingFilters == null || !force && System.currentTimeMillis() < pendingFiltersDeadline) {
+            return null;
+        }
+        final List<Container.Filter> filters = pendingFilters;
+        pendingFilters = null;
+        return filters;
+    }
+
+    /**
+     * Schedules the application of pending filters to be run through the executor
+     * when the debounce window elapses if both scheduler and executor are set.
+     * Failures are logged as there is no caller to report them to.
+     *
+     * @param executor the completion executor or null
+     * @param application the application of pending filters
+     */
+    void schedule(final Executor executor, final Runnable application) {
+        cancel();
+        final ScheduledExecutorService taskScheduler = scheduler;
+        if (executor == null || taskScheduler == null) {
+            return;
+        }
+        pendingFiltersTask = taskScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                application.run();
+                            } catch (final RuntimeException e) {
+                                LOGGER.error("Applying pending filters failed.", e);
+                            }
+                        }
+                    });
+                } catch (final RuntimeException e) {
+                    LOGGER.error("Scheduling pending filters to completion executor failed.", e);
+                }
+            }
+        }, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the scheduled application of pending filters.
+     */
+    void cancel() {
+        if (pendingFiltersTask != null) {
+            pendingFiltersTask.cancel(false);
+            pendingFiltersTask = null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Container;
+
+import java.util.Collection;
+
+/**
+ * Editor for changing the filters of a query view in one transaction. The view is
+ * refreshed once after all edits have been applied.
+ */
+public interface FilterEditor {
+    /**
+     * Adds filter.
+     * @param filter the filter to add
+     */
+    void addFilter(final Container.Filter filter);
+
+    /**
+     * Removes filter.
+     * @param filter the filter to remove
+     */
+    void removeFilter(final Container.Filter filter);
+
+    /**
+     * Clears filters.
+     */
+    void removeFilters();
+
+    /**
+     * Gets filters including the edits done so far.
+     * @return the filters.
+     */
+    Collection<Container.Filter> getFilters();
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.util.filter.And;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.Not;
+import com.vaadin.data.util.filter.Or;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Normalizes filter trees before translation to queries so that the translated
+ * predicates can be evaluated with index range scans. Nested And and Or filters
+ * are flattened, duplicate operands removed, Or of Compare.Equal and In filters of
+ * the same property collapsed to a single In filter, double negations removed and
+ * junctions containing constant false operands, In filters without values, folded.
+ */
+public final class FilterNormalizer {
+
+    /**
+     * Private constructor for utility class.
+     */
+    private FilterNormalizer() {
+    }
+
+    /**
+     * Normalizes the filter tree.
+     *
+     * @param filter the filter
+     * @return the normalized filter, which passes the same items as the given filter
+     */
+    public static Container.Filter normalize(final Container.Filter filter) {
+        if (filter instanceof And) {
+            return normalizeAnd(((And) filter).getFilters());
+        }
+        if (filter instanceof Or) {
+            return normalizeOr(((Or) filter).getFilters());
+        }
+        if (filter instanceof Not) {
+            final Container.Filter negatedFilter = normalize(((Not) filter).getFilter());
+            if (negatedFilter instanceof Not) {
+                return ((Not) negatedFilter).getFilter();
+            }
+            return new Not(negatedFilter);
+        }
+        return filter;
+    }
+
+    /**
+     * Normalizes conjunction of the filters.
+     *
+     * @param filters the operands
+     * @return the normalized filter
+     */
+    private static Container.Filter normalizeAnd(final Collection<Container.Filter> filters) {
+        final Set<Container.Filter> operands = new LinkedHashSet<Container.Filter>();
+        for (final Container.Filter filter : filters) {
+            final Container.Filter operand = normalize(filter);
+            if (isFalse(operand)) {
+                return operand;
+            }
+            if (operand instanceof And) {
+                operands.addAll(((And) operand).getFilters());
+            } else {
+                operands.add(operand);
+            }
+        }
+        return toJunction(operands, true);
+    }
+
+    /**
+     * Normalizes disjunction of the filters.
+     *
+     * @param filters the operands
+     * @return the normalized filter
+     */
+    private static Container.Filter normalizeOr(final Collection<Container.Filter> filters) {
+        final Set<Container.Filter> operands = new LinkedHashSet<Container.Filter>();
+        for (final Container.Filter filter : filters) {
+            final Container.Filter operand = normalize(filter);
+            if (operand instanceof Or) {
+                operands.addAll(((Or) operand).getFilters());
+            } else {
+                operands.add(operand);
+            }
+        }
+
+        final Map<Object, Set<Object>> valuesByPropertyId = new LinkedHashMap<Object, Set<Object>>();
+        final List<Container.Filter> otherOperands = new ArrayList<Container.Filter>();
+        Container.Filter falseOperand = null;
+        for (final Container.Filter operand : operands) {
+            if (isFalse(operand)) {
+                falseOperand = operand;
+            } else if (operand instanceof Compare.Equal && ((Compare) operand).getValue() != null) {
+                getValues(valuesByPropertyId, ((Compare) operand).getPropertyId()).add(((Compare) operand).getValue());
+            } else if (operand instanceof In) {
+                getValues(valuesByPropertyId, ((In) operand).getPropertyId()).addAll(((In) operand).getValues());
+            } else {
+                otherOperands.add(operand);
+            }
+        }
+
+        final Set<Container.Filter> collapsedOperands = new LinkedHashSet<Container.Filter>();
+        for (final Map.Entry<Object, Set<Object>> entry : valuesByPropertyId.entrySet()) {
+            if (entry.getValue().size() == 1) {
+                collapsedOperands.add(new Compare.Equal(entry.getKey(), entry.getValue().iterator().next()));
+            } else {
+                collapsedOperands.add(new In(entry.getKey(), entry.getValue()));
+            }
+        }
+        collapsedOperands.addAll(otherOperands);
+        if (collapsedOperands.isEmpty()) {
+            return falseOperand;
+        }
+        return toJunction(collapsedOperands, false);
+    }
+
+    /**
+     * Gets the value set of the property creating it on demand.
+     *
+     * @param valuesByPropertyId the value sets by property ID
+     * @param propertyId         the property ID
+     * @return the value set
+     */
+    private static Set<Object> getValues(final Map<Object, Set<Object>> valuesByPropertyId,
+                                         final Object propertyId) {
+        Set<Object> values = valuesByPropertyId.get(propertyId);
+        if (values == null) {
+            values = new LinkedHashSet<Object>();
+            valuesByPropertyId.put(propertyId, values);
+        }
+        return values;
+    }
+
+    /**
+     * Checks whether filter is constant false.
+     *
+     * @param filter the filter
+     * @return true if filter does not pass any items
+     */
+    private static boolean isFalse(final Container.Filter filter) {
+        return filter instanceof In && ((In) filter).getValues().isEmpty();
+    }
+
+    /**
+     * Constructs junction of the operands or returns the operand if there is only one.
+     *
+     * @param operands the operands
+     * @param and      true for conjunction and false for disjunction
+     * @return the junction
+     */
+    private static Container.Filter toJunction(final Collection<Container.Filter> operands, final boolean and) {
+        if (operands.size() == 1) {
+            return operands.iterator().next();
+        }
+        final Container.Filter[] filters = operands.toArray(new Container.Filter[operands.size()]);
+        if (and) {
+            return new And(filters);
+        } else {
+            return new Or(filters);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Container;
+
+import javax.persistence.criteria.AbstractQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+/**
+ * Context of a filter translation provided to FilterTranslator by EntityQuery.
+ */
+public interface FilterTranslationContext {
+    /**
+     * @return the criteria builder
+     */
+    CriteriaBuilder getCriteriaBuilder();
+
+    /**
+     * @return the query or subquery the predicate is constructed for
+     */
+    AbstractQuery<?> getQuery();
+
+    /**
+     * @return the root the property IDs are resolved from
+     */
+    Root<?> getRoot();
+
+    /**
+     * Gets path of the property starting from the root. Nested property IDs
+     * are separated with dots.
+     *
+     * @param propertyId the property ID
+     * @return the path to property
+     */
+    Path<Object> getPropertyPath(Object propertyId);
+
+    /**
+     * Translates nested filter in this context.
+     *
+     * @param filter the filter
+     * @return the predicate
+     */
+    Predicate translate(Container.Filter filter);
+
+    /**
+     * Translates nested filter against the given subquery and its root.
+     *
+     * @param filter   the filter
+     * @param subquery the subquery
+     * @param root     the root of the subquery
+     * @return the predicate
+     */
+    Predicate translate(Container.Filter filter, AbstractQuery<?> subquery, Root<?> root);
+}
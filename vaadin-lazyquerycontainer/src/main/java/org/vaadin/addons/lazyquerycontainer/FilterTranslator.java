@@ -0,0 +1,39 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Container;
+
+import javax.persistence.criteria.Predicate;
+import java.io.Serializable;
+
+/**
+ * Translator converting custom Vaadin filters to JPA 2.0 Criteria API predicates.
+ * Translators are registered to EntityQueryDefinition by filter class and take
+ * precedence over the filters supported by EntityQuery out of the box.
+ *
+ * @param <T> the filter class
+ */
+public interface FilterTranslator<T extends Container.Filter> extends Serializable {
+    /**
+     * Translates the filter to predicate.
+     *
+     * @param filter  the filter
+     * @param context the context providing the criteria builder, query, root and translation of nested filters
+     * @return the predicate
+     */
+    Predicate translate(T filter, FilterTranslationContext context);
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Optional extension of Query for implementations which can check in one query
+ * which of the given items have children. LazyHierarchicalContainer uses this method
+ * to resolve the children states of the visible nodes in batches instead of counting
+ * the children of each node separately.
+ */
+public interface HierarchicalQuery extends Query {
+    /**
+     * Gets those of the given item IDs which are parent property values of items
+     * in the query result.
+     *
+     * @param parentPropertyId The ID of the property referring to the parent item ID.
+     * @param itemIds          The item IDs to be checked.
+     * @return The item IDs having children.
+     */
+    Set<Object> getParentIds(Object parentPropertyId, Collection<?> itemIds);
+}
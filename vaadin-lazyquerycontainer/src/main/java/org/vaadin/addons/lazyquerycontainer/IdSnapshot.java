@@ -0,0 +1,354 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact snapshot of the item IDs of a query result. Long and Integer IDs are
+ * stored in a primitive long array and other IDs in an object array. IDs are
+ * resolved by index from the array and indexes by ID from an open addressing
+ * hash table of the array positions. Removed IDs are marked with tombstones
+ * which are compacted away after a number of removals so that the hash table
+ * is not rebuilt on every removal.
+ */
+final class IdSnapshot implements Serializable {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The number of removed IDs after which the arrays are compacted.
+     */
+    private static final int COMPACTION_THRESHOLD = 256;
+    /**
+     * The IDs if they are Long or Integer values or null.
+     */
+    private long[] longIds;
+    /**
+     * The IDs if they are not Long or Integer values or null.
+     */
+    private Object[] objectIds;
+    /**
+     * True if the long IDs are Integer values.
+     */
+    private boolean integerIds;
+    /**
+     * The number of array positions in use including the removed IDs.
+     */
+    private int length;
+    /**
+     * The sorted array positions of the removed IDs.
+     */
+    private int[] removedPositions = new int[0];
+    /**
+     * The number of removed IDs.
+     */
+    private int removedCount;
+    /**
+     * Hash table of positions of the IDs plus one with zero marking empty slot
+     * or null if it has to be rebuilt.
+     */
+    private transient int[] slots;
+
+    /**
+     * Constructor for empty snapshot to which IDs are added.
+     */
+    IdSnapshot() {
+        longIds = new long[16];
+    }
+
+    /**
+     * Constructor which copies the IDs.
+     *
+     * @param ids the unique IDs in query result order
+     */
+    IdSnapshot(final List<?> ids) {
+        this();
+        for (final Object id : ids) {
+            add(id);
+        }
+        complete();
+    }
+
+    /**
+     * Adds ID to the end of the snapshot. Long and Integer IDs are kept in the
+     * primitive array until ID of other type is added.
+     *
+     * @param id the ID
+     */
+    void add(final Object id) {
+        if (longIds != null) {
+            if (length == 0) {
+                integerIds = id instanceof Integer;
+            }
+            if (integerIds ? id instanceof Integer : id instanceof Long) {
+                if (length == longIds.length) {
+                    longIds = Arrays.copyOf(longIds, Math.max(16, length * 2));
+                }
+                longIds[length++] = ((Number) id).longValue();
+                slots = null;
+                return;
+            }
+            final Object[] ids = new Object[Math.max(16, length * 2)];
+            for (int i = 0; i < length; i++) {
+                ids[i] = getAt(i);
+            }
+            objectIds = ids;
+            longIds = null;
+        }
+        if (length == objectIds.length) {
+            objectIds = Arrays.copyOf(objectIds, Math.max(16, length * 2));
+        }
+        objectIds[length++] = id;
+        slots = null;
+    }
+
+    /**
+     * Completes the snapshot after the IDs have been added. Duplicate IDs, which
+     * may be read when the IDs are selected page by page from changing rows, are
+     * removed keeping the first occurrence and the arrays are trimmed.
+     */
+    void complete() {
+        buildSlots(true);
+        compact();
+        if (longIds != null) {
+            longIds = Arrays.copyOf(longIds, length);
+        } else {
+            objectIds = Arrays.copyOf(objectIds, length);
+        }
+    }
+
+    /**
+     * @return the number of IDs
+     */
+    int size() {
+        return length - removedCount;
+    }
+
+    /**
+     * Gets the ID at the given index.
+     *
+     * @param index the index
+     * @return the ID
+     */
+    Object get(final int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return getAt(toPosition(index));
+    }
+
+    /**
+     * Gets the IDs in the given range.
+     *
+     * @param fromIndex the index of the first ID
+     * @param toIndex   the index after the last ID
+     * @return the IDs
+     */
+    List<Object> getRange(final int fromIndex, final int toIndex) {
+        final List<Object> ids = new ArrayList<Object>(Math.max(0, toIndex - fromIndex));
+        for (int i = fromIndex; i < toIndex; i++) {
+            ids.add(get(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Gets index of the ID.
+     *
+     * @param id the ID
+     * @return the index or -1 if snapshot does not contain the ID
+     */
+    int indexOf(final Object id) {
+        if (id == null || longIds != null && !(integerIds ? id instanceof Integer : id instanceof Long)) {
+            return -1;
+        }
+        if (slots == null) {
+            buildSlots(false);
+        }
+        final int mask = slots.length - 1;
+        for (int slot = hash(id) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            final int position = slots[slot] - 1;
+            if (longIds == null ? id.equals(objectIds[position]) : longIds[position] == ((Number) id).longValue()) {
+                if (isRemoved(position)) {
+                    return -1;
+                }
+                return position - countRemovedUpTo(position);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the ID at the given index. The following IDs shift one index down.
+     *
+     * @param index the index
+     */
+    void remove(final int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        markRemoved(toPosition(index));
+        if (removedCount >= COMPACTION_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Gets the ID at the given array position.
+     *
+     * @param position the array position
+     * @return the ID
+     */
+    private Object getAt(final int position) {
+        if (longIds == null) {
+            return objectIds[position];
+        }
+        if (integerIds) {
+            return Integer.valueOf((int) longIds[position]);
+        }
+        return Long.valueOf(longIds[position]);
+    }
+
+    /**
+     * Converts index to array position by skipping the removed positions.
+     *
+     * @param index the index
+     * @return the array position
+     */
+    private int toPosition(final int index) {
+        int position = index;
+        int removedUpTo = countRemovedUpTo(position);
+        while (index + removedUpTo != position) {
+            position = index + removedUpTo;
+            removedUpTo = countRemovedUpTo(position);
+        }
+        return position;
+    }
+
+    /**
+     * Counts the removed positions up to and including the given position.
+     *
+     * @param position the array position
+     * @return the number of removed positions
+     */
+    private int countRemovedUpTo(final int position) {
+        final int result = Arrays.binarySearch(removedPositions, 0, removedCount, position);
+        return result >= 0 ? result + 1 : -result - 1;
+    }
+
+    /**
+     * @param position the array position
+     * @return true if the ID at the position has been removed
+     */
+    private boolean isRemoved(final int position) {
+        return removedCount > 0 && Arrays.binarySearch(removedPositions, 0, removedCount, position) >= 0;
+    }
+
+    /**
+     * Inserts the position to the sorted removed positions.
+     *
+     * @param position the array position
+     */
+    private void markRemoved(final int position) {
+        if (removedCount == removedPositions.length) {
+            removedPositions = Arrays.copyOf(removedPositions, Math.max(16, removedCount * 2));
+        }
+        final int insertionIndex = -Arrays.binarySearch(removedPositions, 0, removedCount, position) - 1;
+        System.arraycopy(removedPositions, insertionIndex, removedPositions, insertionIndex + 1,
+                removedCount - insertionIndex);
+        removedPositions[insertionIndex] = position;
+        removedCount++;
+    }
+
+    /**
+     * Moves the remaining IDs over the removed positions. The hash table is rebuilt
+     * on next lookup.
+     */
+    private void compact() {
+        if (removedCount == 0) {
+            return;
+        }
+        int target = 0;
+        int removedIndex = 0;
+        for (int position = 0; position < length; position++) {
+            if (removedIndex < removedCount && removedPositions[removedIndex] == position) {
+                removedIndex++;
+                continue;
+            }
+            if (longIds == null) {
+                objectIds[target++] = objectIds[position];
+            } else {
+                longIds[target++] = longIds[position];
+            }
+        }
+        if (longIds == null) {
+            Arrays.fill(objectIds, target, length, null);
+        }
+        length = target;
+        removedCount = 0;
+        slots = null;
+    }
+
+    /**
+     * Builds the hash table of the positions which have not been removed with at
+     * most half of the slots in use.
+     *
+     * @param removeDuplicates true if positions of duplicate IDs are marked removed
+     */
+    private void buildSlots(final boolean removeDuplicates) {
+        int capacity = 2;
+        while (capacity < length * 2) {
+            capacity <<= 1;
+        }
+        slots = new int[capacity];
+        final int mask = capacity - 1;
+        for (int position = 0; position < length; position++) {
+            if (isRemoved(position)) {
+                continue;
+            }
+            int slot = hash(getAt(position)) & mask;
+            boolean duplicate = false;
+            while (slots[slot] != 0) {
+                if (removeDuplicates && getAt(slots[slot] - 1).equals(getAt(position))) {
+                    duplicate = true;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (duplicate) {
+                markRemoved(position);
+            } else {
+                slots[slot] = position + 1;
+            }
+        }
+    }
+
+    /**
+     * Spreads the hash code of the ID over the low bits used as slot index.
+     *
+     * @param id the ID
+     * @return the hash
+     */
+    private static int hash(final Object id) {
+        final int hashCode = id.hashCode() * 0x9E3779B9;
+        return hashCode ^ (hashCode >>> 16);
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+/**
+ * Optional extension of Query for implementations which materialize the item IDs
+ * of the whole query result when the size is counted and load batches by the IDs
+ * of the corresponding slice. The result stays consistent while the query is used
+ * even if rows are inserted concurrently, and LazyIdList resolves item IDs and
+ * their indexes from the snapshot without loading the items.
+ */
+public interface IdSnapshotQuery extends Query {
+    /**
+     * @return true if the query result is backed by item ID snapshot
+     */
+    boolean isIdSnapshot();
+
+    /**
+     * Gets the item ID at the given index of the query result.
+     *
+     * @param index the index in the query result
+     * @return the item ID
+     */
+    Object getItemId(int index);
+
+    /**
+     * Gets the index of the item ID in the query result.
+     *
+     * @param itemId the item ID
+     * @return the index or -1 if the query result does not contain the item ID
+     */
+    int indexOfItemId(Object itemId);
+
+    /**
+     * Removes the item ID at the given index from the snapshot, for example when
+     * the row has been deleted in the backend and the view shifts the following items.
+     *
+     * @param index the index in the query result
+     */
+    void removeItemId(int index);
+}
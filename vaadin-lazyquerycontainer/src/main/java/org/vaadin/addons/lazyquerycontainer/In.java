@@ -0,0 +1,97 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Filter passing items whose property value is one of the given values. Translated
+ * to IN predicate by EntityQuery. Filter with no values does not pass any items.
+ */
+public final class In implements Container.Filter {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The ID of the filtered property.
+     */
+    private final Object propertyId;
+    /**
+     * The accepted values.
+     */
+    private final Set<Object> values;
+
+    /**
+     * Constructor which sets the filtered property and the accepted values.
+     *
+     * @param propertyId the ID of the filtered property
+     * @param values     the accepted values
+     */
+    public In(final Object propertyId, final Collection<?> values) {
+        this.propertyId = propertyId;
+        this.values = Collections.unmodifiableSet(new LinkedHashSet<Object>(values));
+    }
+
+    /**
+     * @return the ID of the filtered property
+     */
+    public Object getPropertyId() {
+        return propertyId;
+    }
+
+    /**
+     * @return the accepted values
+     */
+    public Set<Object> getValues() {
+        return values;
+    }
+
+    @Override
+    public boolean passesFilter(final Object itemId, final Item item) {
+        final Property property = item.getItemProperty(propertyId);
+        return property != null && values.contains(property.getValue());
+    }
+
+    @Override
+    public boolean appliesToProperty(final Object propertyId) {
+        return this.propertyId.equals(propertyId);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof In)) {
+            return false;
+        }
+        final In otherIn = (In) other;
+        return propertyId.equals(otherIn.propertyId) && values.equals(otherIn.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * propertyId.hashCode() + values.hashCode();
+    }
+}
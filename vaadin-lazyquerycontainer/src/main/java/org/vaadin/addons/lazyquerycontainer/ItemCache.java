@@ -0,0 +1,234 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Items of LazyQueryView cached by query index. Cached items are indexed by the
+ * value of their ID property and evicted in the order of access. The methods are
+ * invoked holding the view lock.
+ */
+final class ItemCache {
+    /**
+     * The query definition of the view.
+     */
+    private final QueryDefinition queryDefinition;
+    /**
+     * The items by query index.
+     */
+    private final Map<Integer, Item> items = new HashMap<Integer, Item>();
+    /**
+     * The query indexes by item ID.
+     */
+    private final Map<Object, Integer> indexes = new HashMap<Object, Integer>();
+    /**
+     * The query indexes in order of access.
+     */
+    private final LinkedList<Integer> accessLog = new LinkedList<Integer>();
+
+    /**
+     * Constructor which sets the query definition defining the ID property.
+     *
+     * @param queryDefinition the query definition of the view
+     */
+    ItemCache(final QueryDefinition queryDefinition) {
+        this.queryDefinition = queryDefinition;
+    }
+
+    /**
+     * Gets the item at the given query index.
+     *
+     * @param index the query index
+     * @return the item or null if the item is not cached
+     */
+    Item get(final int index) {
+        return items.get(index);
+    }
+
+    /**
+     * Checks whether the item at the given query index is cached.
+     *
+     * @param index the query index
+     * @return true if the item is cached
+     */
+    boolean contains(final int index) {
+        return items.containsKey(index);
+    }
+
+    /**
+     * @return the number of cached items
+     */
+    int size() {
+        return items.size();
+    }
+
+    /**
+     * @return unmodifiable map of the cached items by query index
+     */
+    Map<Integer, Item> getItems() {
+        return Collections.unmodifiableMap(items);
+    }
+
+    /**
+     * Puts the item to the given query index as the most recently accessed item.
+     *
+     * @param index the query index
+     * @param item the item
+     */
+    void put(final int index, final Item item) {
+        removeIdIndex(index, items.put(index, item));
+        final Object itemId = getItemId(item);
+        if (itemId != null) {
+            indexes.put(itemId, index);
+        }
+        touch(index);
+    }
+
+    /**
+     * Marks the item at the given query index as the most recently accessed item.
+     *
+     * @param index the query index
+     */
+    void touch(final int index) {
+        accessLog.remove((Object) index);
+        accessLog.addLast(index);
+    }
+
+    /**
+     * Gets the query index of the cached item with the given ID.
+     *
+     * @param itemId the item ID
+     * @return the query index or -1 if item is not cached or view does not have ID property
+     */
+    int indexOf(final Object itemId) {
+        if (itemId == null) {
+            return -1;
+        }
+        final Integer index = indexes.get(itemId);
+        if (index == null || !itemId.equals(getItemId(items.get(index)))) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Removes the item at the given query index and shifts the following items one
+     * index down.
+     *
+     * @param removedIndex the query index of the removed item
+     */
+    void removeAndShift(final int removedIndex) {
+        final Map<Integer, Item> shiftedItems = new HashMap<Integer, Item>();
+        for (final Map.Entry<Integer, Item> entry : items.entrySet()) {
+            if (entry.getKey() < removedIndex) {
+                shiftedItems.put(entry.getKey(), entry.getValue());
+            } else if (entry.getKey() > removedIndex) {
+                shiftedItems.put(entry.getKey() - 1, entry.getValue());
+            }
+        }
+        final List<Integer> shiftedAccessLog = new ArrayList<Integer>(accessLog.size());
+        for (final Integer index : accessLog) {
+            if (index < removedIndex) {
+                shiftedAccessLog.add(index);
+            } else if (index > removedIndex) {
+                shiftedAccessLog.add(index - 1);
+            }
+        }
+        clear();
+        for (final Map.Entry<Integer, Item> entry : shiftedItems.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+        accessLog.clear();
+        accessLog.addAll(shiftedAccessLog);
+    }
+
+    /**
+     * Evicts least recently accessed items until the cache size does not exceed the
+     * max cache size. Modified and removed items are kept.
+     *
+     * @param maxCacheSize the max cache size
+     * @param modifiedItems the items modified in the view
+     * @param removedItems the items removed in the view
+     * @return the evicted items
+     */
+    List<Item> evict(final int maxCacheSize, final ItemChangeList modifiedItems,
+            final ItemChangeList removedItems) {
+        final List<Item> evictedItems = new ArrayList<Item>();
+        int counter = 0;
+        while (items.size() > maxCacheSize) {
+            final int firstIndex = accessLog.removeFirst();
+            final Item firstItem = items.get(firstIndex);
+            if (!modifiedItems.contains(firstItem) && !removedItems.contains(firstItem)) {
+                removeIdIndex(firstIndex, items.remove(firstIndex));
+                evictedItems.add(firstItem);
+            } else {
+                accessLog.addLast(firstIndex);
+            }
+            // Break from loop if entire cache has been iterated (all items are modified).
+            counter++;
+            if (counter > items.size()) {
+                break;
+            }
+        }
+        return evictedItems;
+    }
+
+    /**
+     * Removes all items.
+     */
+    void clear() {
+        items.clear();
+        indexes.clear();
+        accessLog.clear();
+    }
+
+    /**
+     * Gets the ID property value of the item.
+     *
+     * @param item the item or null
+     * @return the item ID or null if item is null or view does not have ID property
+     */
+    private Object getItemId(final Item item) {
+        final Object idPropertyId = queryDefinition.getIdPropertyId();
+        if (idPropertyId == null || item == null) {
+            return null;
+        }
+        final Property idProperty = item.getItemProperty(idPropertyId);
+        return idProperty == null ? null : idProperty.getValue();
+    }
+
+    /**
+     * Removes the ID mapping of the item if the ID is still mapped to the given index.
+     *
+     * @param index the query index
+     * @param item the item removed from the index or null
+     */
+    private void removeIdIndex(final int index, final Item item) {
+        final Object itemId = getItemId(item);
+        if (itemId != null && Integer.valueOf(index).equals(indexes.get(itemId))) {
+            indexes.remove(itemId);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+
+/**
+ * Applies the state of rows changed in the backend to the items cached by
+ * LazyQueryView.
+ */
+final class ItemChangeApplier {
+
+    /**
+     * Private constructor of utility class.
+     */
+    private ItemChangeApplier() {
+    }
+
+    /**
+     * Copies the property values of the source item to the target item. Status and
+     * debug properties are not changed. Read only properties are written by lifting
+     * the read only state for the duration of the write.
+     *
+     * @param source the source item
+     * @param target the target item
+     */
+    static void copyValues(final Item source, final Item target) {
+        for (final Object propertyId : source.getItemPropertyIds()) {
+            if (LazyQueryView.PROPERTY_ID_ITEM_STATUS.equals(propertyId)
+                    || LazyQueryView.DEBUG_PROPERTY_ID_QUERY_INDEX.equals(propertyId)
+                    || LazyQueryView.DEBUG_PROPERTY_ID_BATCH_INDEX.equals(propertyId)
+                    || LazyQueryView.DEBUG_PROPERTY_ID_BATCH_QUERY_TIME.equals(propertyId)) {
+                continue;
+            }
+            final Property targetProperty = target.getItemProperty(propertyId);
+            if (targetProperty == null) {
+                continue;
+            }
+            final Object value = source.getItemProperty(propertyId).getValue();
+            if (value == null ? targetProperty.getValue() == null : value.equals(targetProperty.getValue())) {
+                continue;
+            }
+            final boolean readOnly = targetProperty.isReadOnly();
+            targetProperty.setReadOnly(false);
+            targetProperty.setValue(value);
+            targetProperty.setReadOnly(readOnly);
+        }
+    }
+
+    /**
+     * Checks whether any of the sort property values of the changed row differ from
+     * the cached item.
+     *
+     * @param changedItem the changed row
+     * @param cachedItem the cached item
+     * @param sortPropertyIds the sort property IDs
+     * @return true if the row may have moved in the sort order
+     */
+    static boolean isSortValueChanged(final Item changedItem, final Item cachedItem, final Object[] sortPropertyIds) {
+        for (final Object propertyId : sortPropertyIds) {
+            final Property changedProperty = changedItem.getItemProperty(propertyId);
+            final Property cachedProperty = cachedItem.getItemProperty(propertyId);
+            if (changedProperty == null || cachedProperty == null) {
+                return true;
+            }
+            final Object value = changedProperty.getValue();
+            if (value == null ? cachedProperty.getValue() != null : !value.equals(cachedProperty.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Ordered list of changed items used by LazyQueryView to track added, modified
+ * and removed items. Items are kept in a circular array so that they can be
+ * prepended and appended in constant time and membership is checked by item
+ * identity in constant time. Each item is contained at most once.
+ */
+public final class ItemChangeList extends AbstractList<Item> implements RandomAccess, Serializable {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Initial capacity of the item array.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * The items in circular array.
+     */
+    private Item[] items = new Item[INITIAL_CAPACITY];
+    /**
+     * Array index of the first item.
+     */
+    private int head = 0;
+    /**
+     * The number of items.
+     */
+    private int size = 0;
+    /**
+     * The items by identity.
+     */
+    private final Map<Item, Boolean> itemIdentities = new IdentityHashMap<Item, Boolean>();
+
+    /**
+     * Adds item to the beginning of the list if it is not already contained.
+     *
+     * @param item the item to add
+     * @return true if item was added
+     */
+    public boolean addFirst(final Item item) {
+        if (itemIdentities.put(item, Boolean.TRUE) != null) {
+            return false;
+        }
+        ensureCapacity();
+        head = (head - 1 + items.length) % items.length;
+        items[head] = item;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Adds item to the end of the list if it is not already contained.
+     *
+     * @param item the item to add
+     * @return true if item was added
+     */
+    @Override
+    public boolean add(final Item item) {
+        if (itemIdentities.put(item, Boolean.TRUE) != null) {
+            return false;
+        }
+        ensureCapacity();
+        items[(head + size) % items.length] = item;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Item get(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("List size: " + size + " and item index requested: " + index);
+        }
+        return items[(head + index) % items.length];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the given item instance is contained in the list.
+     *
+     * @param o the item
+     * @return true if the item instance is contained in the list
+     */
+    @Override
+    public boolean contains(final Object o) {
+        return itemIdentities.containsKey(o);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        items = new Item[INITIAL_CAPACITY];
+        head = 0;
+        size = 0;
+        itemIdentities.clear();
+        modCount++;
+    }
+
+    /**
+     * Doubles the item array if it is full.
+     */
+    private void ensureCapacity() {
+        if (size < items.length) {
+            return;
+        }
+        final Item[] newItems = new Item[items.length * 2];
+        for (int i = 0; i < size; i++) {
+            newItems[i] = items[(head + i) % items.length];
+        }
+        items = newItems;
+        head = 0;
+    }
+}
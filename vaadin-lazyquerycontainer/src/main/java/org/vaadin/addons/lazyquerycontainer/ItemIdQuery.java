@@ -0,0 +1,34 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+
+/**
+ * Optional extension of Query for implementations which can load a single item
+ * by its item ID without knowing the position of the item in the query result.
+ * LazyQueryView uses this method to resolve item IDs which have not been loaded
+ * through the item ID list.
+ */
+public interface ItemIdQuery extends Query {
+    /**
+     * Loads the item with the given item ID if it is part of the query result.
+     *
+     * @param itemId The value of the ID property of the item.
+     * @return The item or null if query result does not contain item with the given ID.
+     */
+    Item loadItem(Object itemId);
+}
@@ -15,9 +15,12 @@
  */
 package org.vaadin.addons.lazyquerycontainer;
 
+import com.vaadin.data.Item;
 import com.vaadin.data.util.BeanItem;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
 /**
  * LazyEntityContainer enables using JPA entities with lazy batch loading, filter, sort
  * and buffered writes.
@@ -52,6 +55,26 @@ public final class LazyEntityContainer<T> extends LazyQueryContainer {
                 new EntityQueryFactory(entityManager));
     }
 
+    /**
+     * Constructor which configures query definition for accessing JPA entities with
+     * entity manager created per query operation. Entities are always detached.
+     *
+     * @param entityManagerFactory           The JPA EntityManagerFactory.
+     * @param entityClass                    The entity class.
+     * @param idPropertyId                   The ID of the ID property or null if item index is used as ID.
+     * @param batchSize                      The batch size.
+     * @param applicationManagedTransactions True if application manages transactions instead of container.
+     * @param compositeItems                 True f items are wrapped to CompositeItems.
+     */
+    public LazyEntityContainer(final EntityManagerFactory entityManagerFactory,
+                               final Class<?> entityClass, final int batchSize, final Object idPropertyId,
+                               final boolean applicationManagedTransactions, final boolean compositeItems) {
+        super(new EntityQueryDefinition(applicationManagedTransactions,
+                true, compositeItems,
+                entityClass, batchSize, idPropertyId),
+                new EntityQueryFactory(entityManagerFactory));
+    }
+
     /**
      * Constructor which configures query definition for accessing JPA entities.
      * @param entityManager The JPA EntityManager.
@@ -109,11 +132,19 @@ public final class LazyEntityContainer<T> extends LazyQueryContainer {
      * Gets entity by ID.
      *
      * @param id The ID of the entity.
-     * @return the entity.
+     * @return the entity or null if container does not contain entity with the given ID.
      */
     @SuppressWarnings("unchecked")
     public T getEntity(final Object id) {
-        return getEntity(indexOfId(id));
+        final Item item = getItem(id);
+        if (item == null) {
+            return null;
+        }
+        if (getQueryView().getQueryDefinition().isCompositeItems()) {
+            return ((BeanItem<T>) ((CompositeItem) item).getItem("bean")).getBean();
+        } else {
+            return ((BeanItem<T>) item).getBean();
+        }
     }
 
     /**
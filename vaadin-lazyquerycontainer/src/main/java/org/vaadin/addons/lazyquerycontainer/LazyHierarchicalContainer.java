@@ -0,0 +1,607 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.IsNull;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LazyHierarchicalContainer provides lazy loading of trees from business services.
+ * The children of each node are loaded in batches by a LazyQueryView of their own
+ * whose query is restricted to the children of the node with a parent filter. Views
+ * of the least recently accessed nodes are evicted when the number of cached nodes
+ * exceeds the maximum. If the queries implement HierarchicalQuery the children states
+ * of the sibling nodes read through the child ID lists are resolved in batches. The
+ * container is read only.
+ */
+public class LazyHierarchicalContainer implements Container.Hierarchical, Container.ItemSetChangeNotifier {
+    /**
+     * Java serialization UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Default maximum number of nodes whose child views are cached.
+     */
+    public static final int DEFAULT_MAX_CACHED_NODE_COUNT = 100;
+    /**
+     * The query definition the child views are defined by.
+     */
+    private final LazyQueryDefinition queryDefinition;
+    /**
+     * The query factory constructing the queries.
+     */
+    private final QueryFactory queryFactory;
+    /**
+     * The ID of the property referring to the parent item ID.
+     */
+    private final Object parentPropertyId;
+    /**
+     * The child views of the nodes in access order. Root nodes are children of null.
+     */
+    private final LinkedHashMap<Object, LazyQueryView> nodeViews =
+            new LinkedHashMap<Object, LazyQueryView>(16, 0.75f, true);
+    /**
+     * The parent IDs of the items read through child ID lists.
+     */
+    private final Map<Object, Object> itemParentIds = new HashMap<Object, Object>();
+    /**
+     * The resolved children states of the items.
+     */
+    private final Map<Object, Boolean> childrenStates = new HashMap<Object, Boolean>();
+    /**
+     * List of registered ItemSetChangeListener.
+     */
+    private final List<ItemSetChangeListener> itemSetChangeListeners = new ArrayList<ItemSetChangeListener>();
+    /**
+     * Listener forwarding item set changes of the child views to container listeners.
+     */
+    private final QueryViewListener nodeViewListener = new QueryViewListener() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void itemSetChanged() {
+            notifyItemSetChanged();
+        }
+    };
+    /**
+     * The view of all items used in resolving items not read through child ID lists.
+     */
+    private LazyQueryView itemView;
+    /**
+     * The query resolving children states or null if not yet constructed.
+     */
+    private transient Query parentQuery;
+    /**
+     * Maximum number of nodes whose child views are cached.
+     */
+    private int maxCachedNodeCount = DEFAULT_MAX_CACHED_NODE_COUNT;
+
+    /**
+     * Constructs LazyHierarchicalContainer with given query definition, query factory
+     * and parent property. The parent property, for example parent.id, has to be
+     * a property of the query definition, within max nested property depth if nested,
+     * and the definition has to have ID property.
+     *
+     * @param queryDefinition  The query definition to be used.
+     * @param queryFactory     The query factory to be used.
+     * @param parentPropertyId The ID of the property referring to the parent item ID.
+     */
+    public LazyHierarchicalContainer(final LazyQueryDefinition queryDefinition, final QueryFactory queryFactory,
+                                     final Object parentPropertyId) {
+        if (queryDefinition.getIdPropertyId() == null) {
+            throw new IllegalArgumentException("Hierarchical container requires ID property.");
+        }
+        this.queryDefinition = queryDefinition;
+        this.queryFactory = queryFactory;
+        this.parentPropertyId = parentPropertyId;
+    }
+
+    /**
+     * @return the query definition the child views are defined by
+     */
+    public final LazyQueryDefinition getQueryDefinition() {
+        return queryDefinition;
+    }
+
+    /**
+     * @return the ID of the property referring to the parent item ID
+     */
+    public final Object getParentPropertyId() {
+        return parentPropertyId;
+    }
+
+    /**
+     * @return the maximum number of nodes whose child views are cached
+     */
+    public final int getMaxCachedNodeCount() {
+        return maxCachedNodeCount;
+    }
+
+    /**
+     * Sets the maximum number of nodes whose child views are cached. Views of the
+     * least recently accessed nodes are evicted first. The view of root nodes is
+     * never evicted.
+     *
+     * @param maxCachedNodeCount the maximum number of nodes
+     */
+    public final void setMaxCachedNodeCount(final int maxCachedNodeCount) {
+        this.maxCachedNodeCount = maxCachedNodeCount;
+        evictNodeViews();
+    }
+
+    /**
+     * Gets the child view of the given node or constructs it on demand.
+     *
+     * @param parentId the item ID of the node or null for root nodes
+     * @return the child view
+     */
+    private LazyQueryView getNodeView(final Object parentId) {
+        LazyQueryView nodeView = nodeViews.get(parentId);
+        if (nodeView == null) {
+            final LazyQueryDefinition nodeDefinition = queryDefinition.copy();
+            if (parentId == null) {
+                nodeDefinition.addDefaultFilter(new IsNull(parentPropertyId));
+            } else {
+                nodeDefinition.addDefaultFilter(new Compare.Equal(parentPropertyId, parentId));
+            }
+            nodeView = new LazyQueryView(nodeDefinition, queryFactory);
+            nodeView.addQueryViewListener(nodeViewListener);
+            nodeViews.put(parentId, nodeView);
+            evictNodeViews();
+        }
+        return nodeView;
+    }
+
+    /**
+     * Evicts child views of least recently accessed nodes if the number of cached
+     * nodes exceeds the maximum. Parent IDs and children states of the children of
+     * the evicted nodes are evicted as well.
+     */
+    private void evictNodeViews() {
+        int excessCount = nodeViews.size() - maxCachedNodeCount;
+        final Iterator<Map.Entry<Object, LazyQueryView>> iterator = nodeViews.entrySet().iterator();
+        while (excessCount > 0 && iterator.hasNext()) {
+            final Map.Entry<Object, LazyQueryView> entry = iterator.next();
+            if (entry.getKey() == null) {
+                continue;
+            }
+            iterator.remove();
+            excessCount--;
+            entry.getValue().removeQueryViewListener(nodeViewListener);
+            final Iterator<Map.Entry<Object, Object>> itemIterator = itemParentIds.entrySet().iterator();
+            while (itemIterator.hasNext()) {
+                final Map.Entry<Object, Object> itemEntry = itemIterator.next();
+                if (entry.getKey().equals(itemEntry.getValue())) {
+                    itemIterator.remove();
+                    childrenStates.remove(itemEntry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the view of all items or constructs it on demand.
+     *
+     * @return the view of all items
+     */
+    private LazyQueryView getItemView() {
+        if (itemView == null) {
+            itemView = new LazyQueryView(queryDefinition, queryFactory);
+        }
+        return itemView;
+    }
+
+    /**
+     * Gets the query resolving children states or constructs it on demand.
+     *
+     * @return the query
+     */
+    private Query getParentQuery() {
+        if (parentQuery == null) {
+            parentQuery = queryFactory.constructQuery(queryDefinition.snapshot());
+        }
+        return parentQuery;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final Collection<?> getChildren(final Object itemId) {
+        if (!hasChildren(itemId)) {
+            return Collections.emptyList();
+        }
+        return new ChildIdList(itemId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final Object getParent(final Object itemId) {
+        if (itemParentIds.containsKey(itemId)) {
+            return itemParentIds.get(itemId);
+        }
+        final Item item = getItem(itemId);
+        if (item == null) {
+            return null;
+        }
+        return item.getItemProperty(parentPropertyId).getValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final Collection<?> rootItemIds() {
+        return new ChildIdList(null);
+    }
+
+    /**
+     * Not supported as the container is read only.
+     *
+     * @param itemId    the item ID
+     * @param newParentId the new parent item ID
+     * @return never returns
+     */
+    @Override
+    public final boolean setParent(final Object itemId, final Object newParentId) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Children are allowed for nodes which have children.
+     *
+     * @param itemId the item ID
+     * @return true if the node has children
+     */
+    @Override
+    public final boolean areChildrenAllowed(final Object itemId) {
+        return hasChildren(itemId);
+    }
+
+    /**
+     * Not supported as the container is read only.
+     *
+     * @param itemId          the item ID
+     * @param childrenAllowed true if children are allowed
+     * @return never returns
+     */
+    @Override
+    public final boolean setChildrenAllowed(final Object itemId, final boolean childrenAllowed) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final boolean isRoot(final Object itemId) {
+        return getParent(itemId) == null;
+    }
+
+    /**
+     * Checks whether the node has children. The children states of the sibling nodes
+     * read through the same child ID list are resolved at the same time if the query
+     * implements HierarchicalQuery. Otherwise the children of the node are counted.
+     *
+     * @param itemId the item ID
+     * @return true if the node has children
+     */
+    @Override
+    public final boolean hasChildren(final Object itemId) {
+        if (!childrenStates.containsKey(itemId)) {
+            resolveChildrenStates(itemId);
+        }
+        return childrenStates.get(itemId);
+    }
+
+    /**
+     * Resolves the children state of the node and its unresolved sibling nodes up to batch size.
+     *
+     * @param itemId the item ID
+     */
+    private void resolveChildrenStates(final Object itemId) {
+        final HierarchicalQuery query = ExecutorAsyncQuery.getQueryInterface(getParentQuery(),
+                HierarchicalQuery.class);
+        if (nodeViews.containsKey(itemId) || query == null) {
+            childrenStates.put(itemId, getNodeView(itemId).size() > 0);
+            return;
+        }
+        final List<Object> candidateIds = new ArrayList<Object>();
+        candidateIds.add(itemId);
+        if (itemParentIds.containsKey(itemId)) {
+            final Object parentId = itemParentIds.get(itemId);
+            for (final Map.Entry<Object, Object> entry : itemParentIds.entrySet()) {
+                if (candidateIds.size() >= queryDefinition.getBatchSize()) {
+                    break;
+                }
+                if ((parentId == null ? entry.getValue() == null : parentId.equals(entry.getValue()))
+                        && !childrenStates.containsKey(entry.getKey()) && !itemId.equals(entry.getKey())) {
+                    candidateIds.add(entry.getKey());
+                }
+            }
+        }
+        final Set<Object> parentIds = query.getParentIds(parentPropertyId, candidateIds);
+        for (final Object candidateId : candidateIds) {
+            childrenStates.put(candidateId, parentIds.contains(candidateId));
+        }
+    }
+
+    /**
+     * Gets item with the given ID. Items read through child ID lists are resolved
+     * from the child view of their parent and other items by the view of all items.
+     *
+     * @param itemId the item ID
+     * @return the item or null if container does not contain item with the given ID
+     */
+    @Override
+    public final Item getItem(final Object itemId) {
+        if (itemId == null) {
+            return null;
+        }
+        if (itemParentIds.containsKey(itemId)) {
+            final Item item = getNodeView(itemParentIds.get(itemId)).getItemById(itemId);
+            if (item != null) {
+                return item;
+            }
+        }
+        return getItemView().getItemById(itemId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final Collection<?> getContainerPropertyIds() {
+        return queryDefinition.getPropertyIds();
+    }
+
+    /**
+     * Gets IDs of all items regardless of hierarchy.
+     *
+     * @return the item IDs
+     */
+    @Override
+    public final Collection<?> getItemIds() {
+        return getItemView().getItemIdList();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final Property getContainerProperty(final Object itemId, final Object propertyId) {
+        final Item item = getItem(itemId);
+        if (item == null) {
+            return null;
+        }
+        return item.getItemProperty(propertyId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final Class<?> getType(final Object propertyId) {
+        return queryDefinition.getPropertyType(propertyId);
+    }
+
+    /**
+     * Gets number of all items regardless of hierarchy.
+     *
+     * @return the number of items
+     */
+    @Override
+    public final int size() {
+        return getItemView().size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final boolean containsId(final Object itemId) {
+        return getItem(itemId) != null;
+    }
+
+    /**
+     * Not supported as the container is read only.
+     *
+     * @param itemId the item ID
+     * @return never returns
+     */
+    @Override
+    public final Item addItem(final Object itemId) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported as the container is read only.
+     *
+     * @return never returns
+     */
+    @Override
+    public final Object addItem() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported as the container is read only.
+     *
+     * @param itemId the item ID
+     * @return never returns
+     */
+    @Override
+    public final boolean removeItem(final Object itemId) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported as the container is read only.
+     *
+     * @param propertyId   the property ID
+     * @param type         the property type
+     * @param defaultValue the default value
+     * @return never returns
+     */
+    @Override
+    public final boolean addContainerProperty(final Object propertyId, final Class<?> type,
+                                              final Object defaultValue) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported as the container is read only.
+     *
+     * @param propertyId the property ID
+     * @return never returns
+     */
+    @Override
+    public final boolean removeContainerProperty(final Object propertyId) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported as the container is read only.
+     *
+     * @return never returns
+     */
+    @Override
+    public final boolean removeAllItems() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Refreshes container by evicting all cached nodes and items.
+     */
+    public final void refresh() {
+        for (final LazyQueryView nodeView : nodeViews.values()) {
+            nodeView.removeQueryViewListener(nodeViewListener);
+        }
+        nodeViews.clear();
+        itemParentIds.clear();
+        childrenStates.clear();
+        parentQuery = null;
+        if (itemView != null) {
+            itemView.refresh();
+        }
+        notifyItemSetChanged();
+    }
+
+    /**
+     * Adds ItemSetChangeListener.
+     *
+     * @param listener ItemSetChangeListener to be added.
+     */
+    @Deprecated
+    public final void addListener(final ItemSetChangeListener listener) {
+        addItemSetChangeListener(listener);
+    }
+
+    /**
+     * Removes ItemSetChangeListener.
+     *
+     * @param listener ItemSetChangeListener to be removed.
+     */
+    @Deprecated
+    public final void removeListener(final ItemSetChangeListener listener) {
+        removeItemSetChangeListener(listener);
+    }
+
+    @Override
+    public final void addItemSetChangeListener(final ItemSetChangeListener listener) {
+        itemSetChangeListeners.add(listener);
+    }
+
+    @Override
+    public final void removeItemSetChangeListener(final ItemSetChangeListener listener) {
+        itemSetChangeListeners.remove(listener);
+    }
+
+    /**
+     * Notifies that item set has been changed.
+     */
+    private void notifyItemSetChanged() {
+        final ItemSetChangeEvent event = new ItemSetChangeEvent() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Container getContainer() {
+                return LazyHierarchicalContainer.this;
+            }
+        };
+        for (final ItemSetChangeListener listener : new ArrayList<ItemSetChangeListener>(itemSetChangeListeners)) {
+            listener.containerItemSetChange(event);
+        }
+    }
+
+    /**
+     * Lazy list of child IDs of a node reading the IDs from the child view of
+     * the node on demand and recording the parent of each ID read.
+     */
+    private final class ChildIdList extends AbstractList<Object> implements Serializable {
+        /**
+         * Java serialization version UID.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The item ID of the node or null for root nodes.
+         */
+        private final Object parentId;
+
+        /**
+         * Constructor which sets the node.
+         *
+         * @param parentId the item ID of the node or null for root nodes
+         */
+        public ChildIdList(final Object parentId) {
+            this.parentId = parentId;
+        }
+
+        @Override
+        public Object get(final int index) {
+            final Object itemId = getNodeView(parentId).getItemIdList().get(index);
+            itemParentIds.put(itemId, parentId);
+            return itemId;
+        }
+
+        @Override
+        public int indexOf(final Object o) {
+            return getNodeView(parentId).getItemIdList().indexOf(o);
+        }
+
+        @Override
+        public int size() {
+            return getNodeView(parentId).size();
+        }
+    }
+}
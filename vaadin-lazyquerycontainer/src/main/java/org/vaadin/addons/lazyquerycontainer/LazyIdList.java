@@ -20,13 +20,15 @@ import com.vaadin.data.Item;
 import java.io.Serializable;
 
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Lazy ID list implementation used in LazyQueryContainer.getItemIds
- * method. Wraps LazyQueryView and gets item ID's from the view on demand.
+ * method. Wraps LazyQueryView and gets item ID's from the view on demand,
+ * or from the item ID snapshot of the query if the query has one.
  * @param <T> the id class
  *
  * @author Tommi Laukkanen
@@ -46,6 +48,7 @@ public final class LazyIdList<T> extends AbstractList<T> implements Serializable
     private final Object idPropertyId;
     /**
      * Map containing index to item ID mapping for IDs already loaded through this list.
+     * Accessed only while holding the lock of the view.
      */
     private final Map<Object, Integer> idIndexMap = new HashMap<Object, Integer>();
 
@@ -86,18 +89,76 @@ public final class LazyIdList<T> extends AbstractList<T> implements Serializable
      * {@inheritDoc}
      */
     public T get(final int index) {
-        if (index < 0 || index >= lazyQueryView.size()) {
-            throw new IndexOutOfBoundsException();
+        synchronized (lazyQueryView) {
+            if (index < 0 || index >= lazyQueryView.size()) {
+                throw new IndexOutOfBoundsException();
+            }
+            final int addedItemSize = lazyQueryView.getAddedItems().size();
+            final IdSnapshotQuery idSnapshotQuery = lazyQueryView.getIdSnapshotQuery();
+            if (idSnapshotQuery != null && index >= addedItemSize) {
+                return (T) idSnapshotQuery.getItemId(index - addedItemSize);
+            }
+            final T itemId = (T) lazyQueryView.getItem(index, true).getItemProperty(idPropertyId).getValue();
+            // Do not put added item ids to id index map and make sure that
+            // existing item indexes start from 0 i.e. ignore added items as they
+            // are compensated for in indexOf method.
+            if (index >= addedItemSize) {
+                idIndexMap.put(itemId, index - addedItemSize);
+            }
+            return itemId;
+        }
+    }
+
+    /**
+     * Gets the IDs in the given range reading the items from the view batch by batch,
+     * or from the item ID snapshot of the query if the query has one.
+     *
+     * @param startIndex The index of the first ID.
+     * @param count      The maximum number of IDs.
+     * @return The IDs in the range.
+     */
+    public List<T> getRange(final int startIndex, final int count) {
+        synchronized (lazyQueryView) {
+            final IdSnapshotQuery idSnapshotQuery = lazyQueryView.getIdSnapshotQuery();
+            if (idSnapshotQuery != null) {
+                return getSnapshotRange(idSnapshotQuery, startIndex, count);
+            }
+            final List<Item> items = lazyQueryView.getItems(startIndex, count);
+            final int addedItemSize = lazyQueryView.getAddedItems().size();
+            final List<T> itemIds = new ArrayList<T>(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                final T itemId = (T) items.get(i).getItemProperty(idPropertyId).getValue();
+                final int index = startIndex + i;
+                if (index >= addedItemSize) {
+                    idIndexMap.put(itemId, index - addedItemSize);
+                }
+                itemIds.add(itemId);
+            }
+            return itemIds;
         }
-        final T itemId = (T) lazyQueryView.getItem(index).getItemProperty(idPropertyId).getValue();
-        // Do not put added item ids to id index map and make sure that
-        // existing item indexes start from 0 i.e. ignore added items as they
-        // are compensated for in indexOf method.
-        final int addedItemSize = lazyQueryView.getAddedItems().size();
-        if (index >= addedItemSize) {
-            idIndexMap.put(itemId, index - addedItemSize);
+    }
+
+    /**
+     * Gets the IDs in the given range from the item ID snapshot without loading the items.
+     * Added items are read from the view.
+     *
+     * @param idSnapshotQuery The query with the item ID snapshot.
+     * @param startIndex      The index of the first ID.
+     * @param count           The maximum number of IDs.
+     * @return The IDs in the range.
+     */
+    private List<T> getSnapshotRange(final IdSnapshotQuery idSnapshotQuery, final int startIndex, final int count) {
+        final List<Item> addedItems = lazyQueryView.getAddedItems();
+        final int endIndex = Math.min(lazyQueryView.size(), startIndex + count);
+        final List<T> itemIds = new ArrayList<T>(Math.max(0, endIndex - startIndex));
+        for (int index = startIndex; index < endIndex; index++) {
+            if (index < addedItems.size()) {
+                itemIds.add((T) addedItems.get(index).getItemProperty(idPropertyId).getValue());
+            } else {
+                itemIds.add((T) idSnapshotQuery.getItemId(index - addedItems.size()));
+            }
         }
-        return itemId;
+        return itemIds;
     }
 
     /**
@@ -111,28 +172,107 @@ public final class LazyIdList<T> extends AbstractList<T> implements Serializable
      * {@inheritDoc}
      */
     public int indexOf(final Object o) {
-        if (o == null) {
+        synchronized (lazyQueryView) {
+            if (o == null) {
+                return -1;
+            }
+            // Brute force added items first. There should only be a few.
+            final List<Item> addedItems = lazyQueryView.getAddedItems();
+            for (int i = 0; i < addedItems.size(); i++) {
+                if (o.equals(addedItems.get(i).getItemProperty(idPropertyId).getValue())) {
+                    return i;
+                }
+            }
+            // Check from ID snapshot.
+            final IdSnapshotQuery idSnapshotQuery = lazyQueryView.getIdSnapshotQuery();
+            if (idSnapshotQuery != null) {
+                return toViewIndex(idSnapshotQuery.indexOfItemId(o), addedItems.size());
+            }
+            // Check from mapping cache.
+            if (idIndexMap.containsKey(o)) {
+                return addedItems.size() + idIndexMap.get(o);
+            }
+            // Check by ID that the item is part of the query result before brute forcing.
+            if (lazyQueryView.getItemIdQuery() != null && lazyQueryView.getItemById(o) == null) {
+                return -1;
+            }
+            // Switching to brute forcing.
+            for (int i = addedItems.size(); i < lazyQueryView.size(); i++) {
+                if (o.equals(lazyQueryView.getItem(i, true).getItemProperty(idPropertyId).getValue())) {
+                    return i;
+                }
+            }
+            // Not found.
             return -1;
         }
-        // Brute force added items first. There should only be a few.
-        final List<Item> addedItems = lazyQueryView.getAddedItems();
-        for (int i = 0; i < addedItems.size(); i++) {
-            if (o.equals(addedItems.get(i).getItemProperty(idPropertyId).getValue())) {
-                return i;
+    }
+
+    /**
+     * Checks whether the given item ID is the last item ID of the view. The index of
+     * the item ID is resolved without loading items if it has already been read through
+     * this list or the query has item ID snapshot. Item IDs which are not part of the
+     * query result are detected by loading the item by ID if the query implements
+     * ItemIdQuery. Only otherwise the batch of the last item is loaded.
+     *
+     * @param o the item ID
+     * @return true if the item ID is the last item ID of the view
+     */
+    boolean isLast(final Object o) {
+        synchronized (lazyQueryView) {
+            final int size = lazyQueryView.size();
+            if (o == null || size == 0) {
+                return false;
             }
+            final int index = indexOfLoaded(o);
+            if (index != -1 || lazyQueryView.getIdSnapshotQuery() != null) {
+                return index == size - 1;
+            }
+            if (lazyQueryView.getItemIdQuery() != null && lazyQueryView.getItemById(o) == null) {
+                return false;
+            }
+            return o.equals(get(size - 1));
         }
-        // Check from mapping cache.
-        if (idIndexMap.containsKey(o)) {
-            return addedItems.size() + idIndexMap.get(o);
-        }
-        // Switching to brute forcing.
-        for (int i = addedItems.size(); i < lazyQueryView.size(); i++) {
-            if (o.equals(lazyQueryView.getItem(i).getItemProperty(idPropertyId).getValue())) {
-                return i;
+    }
+
+    /**
+     * Gets index of the given item ID if it has already been read through this list
+     * or belongs to an added item. The index is not validated against the view.
+     *
+     * @param o the item ID
+     * @return the index or -1 if the item ID has not been read through this list
+     */
+    int indexOfLoaded(final Object o) {
+        synchronized (lazyQueryView) {
+            final List<Item> addedItems = lazyQueryView.getAddedItems();
+            for (int i = 0; i < addedItems.size(); i++) {
+                if (o.equals(addedItems.get(i).getItemProperty(idPropertyId).getValue())) {
+                    return i;
+                }
+            }
+            final IdSnapshotQuery idSnapshotQuery = lazyQueryView.getIdSnapshotQuery();
+            if (idSnapshotQuery != null) {
+                return toViewIndex(idSnapshotQuery.indexOfItemId(o), addedItems.size());
             }
+            final Integer index = idIndexMap.get(o);
+            if (index == null) {
+                return -1;
+            }
+            return addedItems.size() + index;
+        }
+    }
+
+    /**
+     * Converts index in the ID snapshot to index in the view.
+     *
+     * @param snapshotIndex  the index in the ID snapshot or -1
+     * @param addedItemCount the number of added items preceding the query items
+     * @return the index in the view or -1 if the ID is not part of the view
+     */
+    private int toViewIndex(final int snapshotIndex, final int addedItemCount) {
+        if (snapshotIndex == -1 || addedItemCount + snapshotIndex >= lazyQueryView.size()) {
+            return -1;
         }
-        // Not found.
-        return -1;
+        return addedItemCount + snapshotIndex;
     }
 
     /**
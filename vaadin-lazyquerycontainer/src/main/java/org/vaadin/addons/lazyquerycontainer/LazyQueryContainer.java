@@ -21,13 +21,15 @@ import com.vaadin.data.Container.Indexed;
 import com.vaadin.data.Container.ItemSetChangeNotifier;
 import com.vaadin.data.Container.PropertySetChangeNotifier;
 import com.vaadin.data.Container.Sortable;
-import com.vaadin.data.ContainerHelpers;
 import com.vaadin.data.Item;
 import com.vaadin.data.Property;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * LazyQueryContainer provides lazy loading of items from business services. See
@@ -55,6 +57,14 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
      * List of registered PropertySetChangeListeners.
      */
     private List<PropertySetChangeListener> propertySetChangeListeners = new ArrayList<PropertySetChangeListener>();
+    /**
+     * Item ID list the navigation cursor position was resolved from.
+     */
+    private transient List<?> cursorItemIdList;
+    /**
+     * Index of the navigation cursor.
+     */
+    private transient int cursorIndex = -1;
 
     /**
      * Constructs LazyQueryContainer with LazyQueryView and given queryFactory.
@@ -70,6 +80,7 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
                               final boolean compositeItems) {
         this.queryView = new LazyQueryView(new LazyQueryDefinition(compositeItems, batchSize, idPropertyId),
                 queryFactory);
+        addQueryViewListener();
     }
 
     /**
@@ -81,6 +92,7 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
      */
     public LazyQueryContainer(final QueryDefinition queryDefinition, final QueryFactory queryFactory) {
         this.queryView = new LazyQueryView(queryDefinition, queryFactory);
+        addQueryViewListener();
     }
 
     /**
@@ -91,6 +103,24 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
      */
     public LazyQueryContainer(final QueryView queryView) {
         this.queryView = queryView;
+        addQueryViewListener();
+    }
+
+    /**
+     * Registers listener forwarding item set changes initiated by LazyQueryView,
+     * such as background loaded items replacing placeholders, to container listeners.
+     */
+    private void addQueryViewListener() {
+        if (queryView instanceof LazyQueryView) {
+            ((LazyQueryView) queryView).addQueryViewListener(new QueryViewListener() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public void itemSetChanged() {
+                    notifyItemSetChanged();
+                }
+            });
+        }
     }
 
     /**
@@ -202,7 +232,7 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
         if (itemId == null) {
             return null;
         } else {
-            return queryView.getItem(queryView.getItemIdList().indexOf(itemId));
+            return queryView.getItemById(itemId);
         }
     }
 
@@ -236,7 +266,7 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
      * @return the index.
      */
     public final int indexOfId(final Object itemId) {
-        return queryView.getItemIdList().indexOf(itemId);
+        return resolveCursor(queryView.getItemIdList(), itemId);
     }
 
     /**
@@ -256,17 +286,23 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
      * @return true if index is 0.
      */
     public final boolean isFirstId(final Object itemId) {
-        return queryView.getItemIdList().indexOf(itemId) == 0;
+        final List<?> itemIdList = queryView.getItemIdList();
+        return itemId != null && !itemIdList.isEmpty() && itemId.equals(itemIdList.get(0));
     }
 
     /**
-     * Check if given index is first i.e. size() - 1.
+     * Check if given index is last i.e. size() - 1. Lazy item ID lists resolve the
+     * index without loading the last batch where possible.
      *
      * @param itemId the object index.
      * @return true if index is size() - 1.
      */
     public final boolean isLastId(final Object itemId) {
-        return queryView.getItemIdList().indexOf(itemId) == size() - 1;
+        final List<?> itemIdList = queryView.getItemIdList();
+        if (itemIdList instanceof LazyIdList) {
+            return ((LazyIdList<?>) itemIdList).isLast(itemId);
+        }
+        return itemId != null && !itemIdList.isEmpty() && itemId.equals(lastItemId());
     }
 
     /**
@@ -288,14 +324,13 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
      * @return itemId + 1, or <code>null</code> if no such item
      */
     public final Object nextItemId(final Object itemId) {
-    	List<?> itemIdList = queryView.getItemIdList();
-    	int currentIndex = itemIdList.indexOf(itemId);
-    	if (currentIndex == -1 || currentIndex == itemIdList.size() - 1) {
-    		return null;
-    	}
-    	else {
-    		return itemIdList.get(currentIndex + 1);
-    	}
+        final List<?> itemIdList = queryView.getItemIdList();
+        final int currentIndex = resolveCursor(itemIdList, itemId);
+        if (currentIndex == -1 || currentIndex == itemIdList.size() - 1) {
+            return null;
+        }
+        cursorIndex = currentIndex + 1;
+        return itemIdList.get(cursorIndex);
     }
 
     /**
@@ -303,14 +338,36 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
      * @return itemId - 1, or <code>null</code> if no such item
      */
     public final Object prevItemId(final Object itemId) {
-    	List<?> itemIdList = queryView.getItemIdList();
-    	int currentIndex = itemIdList.indexOf(itemId);
-    	if (currentIndex == -1 || currentIndex == 0) {
-    		return null;
-    	}
-    	else {
-    		return itemIdList.get(currentIndex - 1);
-    	}
+        final List<?> itemIdList = queryView.getItemIdList();
+        final int currentIndex = resolveCursor(itemIdList, itemId);
+        if (currentIndex == -1 || currentIndex == 0) {
+            return null;
+        }
+        cursorIndex = currentIndex - 1;
+        return itemIdList.get(cursorIndex);
+    }
+
+    /**
+     * Resolves index of the given item ID and moves the navigation cursor to it. The
+     * cursor is checked first so that sequential navigation does not search the
+     * item ID list. The cursor is valid only if the item ID list has not been
+     * replaced and still contains the item ID at the cursor index.
+     *
+     * @param itemIdList The current item ID list.
+     * @param itemId     The item ID.
+     * @return the index of the item ID or -1 if not found.
+     */
+    private int resolveCursor(final List<?> itemIdList, final Object itemId) {
+        if (itemId == null) {
+            return -1;
+        }
+        if (itemIdList == cursorItemIdList && cursorIndex >= 0 && cursorIndex < itemIdList.size()
+                && itemId.equals(itemIdList.get(cursorIndex))) {
+            return cursorIndex;
+        }
+        cursorItemIdList = itemIdList;
+        cursorIndex = itemIdList.indexOf(itemId);
+        return cursorIndex;
     }
 
     /**
@@ -377,6 +434,21 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
         return itemId;
     }
 
+    /**
+     * Imports rows directly to the query in chunks of batch size without buffering
+     * them as added items. Listeners are notified of changed item set once after the
+     * import. Container must not contain uncommitted changes.
+     *
+     * @param rows     The rows to be imported. Rows can be items, maps from property IDs to values or beans.
+     * @param listener The listener notified of import progress or null.
+     * @return The number of imported items.
+     */
+    public final int importItems(final Iterator<?> rows, final ItemImportListener listener) {
+        final int importedCount = queryView.importItems(rows, listener);
+        notifyItemSetChanged();
+        return importedCount;
+    }
+
     /**
      * Removes Item at given index.
      *
@@ -434,6 +506,61 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
         notifyItemSetChanged();
     }
 
+    /**
+     * Computes aggregate of the property over all items matching the current filters
+     * in the backend without loading the items. Buffered changes are not included.
+     *
+     * @param propertyId The ID of the aggregated property.
+     * @param function   The aggregate function.
+     * @return The aggregate value or null if no items match the filters.
+     */
+    public final Object aggregate(final Object propertyId, final AggregateFunction function) {
+        final Aggregate aggregate = new Aggregate(propertyId, function);
+        return queryView.aggregate(Collections.singletonList(aggregate)).get(aggregate);
+    }
+
+    /**
+     * Computes several aggregates over all items matching the current filters in a
+     * single backend operation. The values are cached until the container is refreshed.
+     *
+     * @param aggregates The aggregates to be computed.
+     * @return Map from the aggregates to their values.
+     */
+    public final Map<Aggregate, Object> aggregate(final Collection<Aggregate> aggregates) {
+        return queryView.aggregate(aggregates);
+    }
+
+    /**
+     * Gets the distinct values of the property with the number of rows having each value,
+     * for example to fill filter selection of a column, with a single grouped query per
+     * batch. The values are loaded lazily in batches by a container of their own. The value
+     * items contain the value as property propertyId and the row count as property
+     * Aggregate(propertyId, COUNT_ROWS). Requires EntityQueryDefinition.
+     *
+     * @param propertyId The ID of the property.
+     * @param filtered   True if the current filters not applying to the property restrict the values.
+     * @return The container of the distinct values.
+     */
+    public final LazyQueryContainer getDistinctValues(final Object propertyId, final boolean filtered) {
+        if (!(queryView instanceof LazyQueryView)
+                || !(queryView.getQueryDefinition() instanceof EntityQueryDefinition)) {
+            throw new UnsupportedOperationException("Distinct values require EntityQueryDefinition.");
+        }
+        final EntityQueryDefinition queryDefinition = (EntityQueryDefinition) queryView.getQueryDefinition();
+        return new LazyQueryContainer(queryDefinition.createDistinctValueDefinition(propertyId, filtered),
+                ((LazyQueryView) queryView).getQueryFactory());
+    }
+
+    /**
+     * Polls the rows changed in the backend instead of refreshing the container on every
+     * tick. Changed rows are updated in place and the container is refreshed only if the
+     * row count or the sort order may have changed. Requires a query implementing
+     * PollingQuery, for example EntityQuery with version property defined.
+     */
+    public final void pollChanges() {
+        queryView.pollChanges();
+    }
+
     /**
      * Notifies that item set has been changed.
      */
@@ -509,6 +636,19 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
         return getQueryView().getFilters();
     }
 
+    /**
+     * Applies several filter edits with a single refresh. LazyQueryView notifies
+     * listeners of changed item set when the changed filters are applied, other
+     * views are assumed to have changed the item set.
+     * @param filterUpdate the filter edits
+     */
+    public final void updateFilters(final FilterUpdate filterUpdate) {
+        getQueryView().updateFilters(filterUpdate);
+        if (!(queryView instanceof LazyQueryView)) {
+            notifyItemSetChanged();
+        }
+    }
+
     /**
      * Adds default filter to underlying QueryDefinition.
      * @param filter the default filter
@@ -642,9 +782,37 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
         return true;
     }
 
+    /**
+     * Gets the item IDs in the given range. Item IDs read from the ID property are
+     * resolved batch by batch instead of resolving each ID separately. Item indexes
+     * used as IDs are returned without loading the items.
+     *
+     * @param startIndex    The index of the first item ID.
+     * @param numberOfItems The maximum number of item IDs.
+     * @return The item IDs in the range.
+     */
     @Override
     public final List<?> getItemIds(final int startIndex, final int numberOfItems) {
-        return ContainerHelpers.getItemIdsUsingGetIdByIndex(startIndex, numberOfItems, this);
+        if (startIndex < 0) {
+            throw new IndexOutOfBoundsException("Start index cannot be negative! startIndex=" + startIndex);
+        }
+        if (startIndex > size()) {
+            throw new IndexOutOfBoundsException("Start index exceeds container size! startIndex="
+                    + startIndex + " containerLastItemIndex=" + (size() - 1));
+        }
+        if (numberOfItems < 0) {
+            throw new IllegalArgumentException("Cannot get negative amount of items! numberOfItems="
+                    + numberOfItems);
+        }
+        if (numberOfItems == 0) {
+            return Collections.emptyList();
+        }
+        final List<?> itemIds = queryView.getItemIdList();
+        if (itemIds instanceof LazyIdList) {
+            return Collections.unmodifiableList(((LazyIdList<?>) itemIds).getRange(startIndex, numberOfItems));
+        }
+        final int endIndex = Math.min(startIndex + numberOfItems, size());
+        return Collections.unmodifiableList(new ArrayList<Object>(itemIds.subList(startIndex, endIndex)));
     }
 
 }
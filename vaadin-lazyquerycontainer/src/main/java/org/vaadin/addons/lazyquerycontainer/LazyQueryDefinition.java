@@ -17,14 +17,20 @@ package org.vaadin.addons.lazyquerycontainer;
 
 import com.vaadin.data.Container;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Default implementation of Query Definition. Contains the property, filtering and sorting information
@@ -101,6 +107,27 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * The max depth of nested properties.
      */
     private int maxNestedPropertyDepth = 0;
+    /**
+     * Holder of the template populating new beans with default values shared with the
+     * copies of this definition or null if not yet created.
+     */
+    private transient AtomicReference<DefaultValueTemplate> defaultValueTemplate;
+    /**
+     * True if items can not be added, modified or removed.
+     */
+    private boolean readOnly;
+    /**
+     * Sortable property IDs or null if not yet resolved.
+     */
+    private transient Collection<Object> sortablePropertyIds;
+    /**
+     * True if this definition is an immutable snapshot.
+     */
+    private transient boolean snapshot;
+    /**
+     * The hash code of the snapshot or 0 if not yet computed.
+     */
+    private transient int snapshotHashCode;
 
     /**
      * Constructor which sets the batch size.
@@ -116,6 +143,34 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
         this.idPropertyId = idPropertyId;
     }
 
+    /**
+     * Copy constructor used in taking copies and snapshots. Property types, default
+     * values and filters are shared with the copied definition.
+     *
+     * @param definition the definition to be copied
+     */
+    protected LazyQueryDefinition(final LazyQueryDefinition definition) {
+        propertyIds.addAll(definition.propertyIds);
+        propertyTypes.putAll(definition.propertyTypes);
+        defaultValues.putAll(definition.defaultValues);
+        readOnlyStates.putAll(definition.readOnlyStates);
+        sortableStates.putAll(definition.sortableStates);
+        defaultFilters.addAll(definition.defaultFilters);
+        filters.addAll(definition.filters);
+        defaultSortPropertyIds = definition.defaultSortPropertyIds.clone();
+        defaultSortPropertyAscendingStates = definition.defaultSortPropertyAscendingStates.clone();
+        sortPropertyIds = definition.sortPropertyIds.clone();
+        sortPropertyAscendingStates = definition.sortPropertyAscendingStates.clone();
+        batchSize = definition.batchSize;
+        compositeItems = definition.compositeItems;
+        idPropertyId = definition.idPropertyId;
+        maxQuerySize = definition.maxQuerySize;
+        maxNestedPropertyDepth = definition.maxNestedPropertyDepth;
+        readOnly = definition.readOnly;
+        defaultValueTemplate = definition.getDefaultValueTemplateHolder();
+        sortablePropertyIds = definition.sortablePropertyIds;
+    }
+
     /**
      * @return the propertyIds
      */
@@ -131,13 +186,18 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      */
     @Override
     public final Collection<Object> getSortablePropertyIds() {
-        final List<Object> sortablePropertyIds = new ArrayList<Object>();
-        for (final Object propertyId : propertyIds) {
-            if (isPropertySortable(propertyId)) {
-                sortablePropertyIds.add(propertyId);
+        Collection<Object> sortableIds = sortablePropertyIds;
+        if (sortableIds == null) {
+            final List<Object> ids = new ArrayList<Object>();
+            for (final Object propertyId : propertyIds) {
+                if (isPropertySortable(propertyId)) {
+                    ids.add(propertyId);
+                }
             }
+            sortableIds = Collections.unmodifiableCollection(ids);
+            sortablePropertyIds = sortableIds;
         }
-        return sortablePropertyIds;
+        return sortableIds;
     }
 
     /**
@@ -196,11 +256,14 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
     @Override
     public final void addProperty(final Object propertyId, final Class<?> type, final Object defaultValue,
                                   final boolean readOnly, final boolean sortable) {
+        checkNotFrozen();
         propertyIds.add(propertyId);
         propertyTypes.put(propertyId, type);
         defaultValues.put(propertyId, defaultValue);
         readOnlyStates.put(propertyId, readOnly);
         sortableStates.put(propertyId, sortable);
+        defaultValueTemplate = null;
+        sortablePropertyIds = null;
     }
 
     /**
@@ -210,11 +273,44 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      */
     @Override
     public final void removeProperty(final Object propertyId) {
+        checkNotFrozen();
         propertyIds.remove(propertyId);
         propertyTypes.remove(propertyId);
         defaultValues.remove(propertyId);
         readOnlyStates.remove(propertyId);
         sortableStates.remove(propertyId);
+        defaultValueTemplate = null;
+        sortablePropertyIds = null;
+    }
+
+    /**
+     * Gets template populating new beans of the given class with the default values
+     * of the properties. The template is resolved once and reused, also by the copies
+     * and snapshots of this definition, until properties are added or removed.
+     *
+     * @param beanClass The bean class.
+     * @return the default value template
+     */
+    public final DefaultValueTemplate getDefaultValueTemplate(final Class<?> beanClass) {
+        final AtomicReference<DefaultValueTemplate> holder = getDefaultValueTemplateHolder();
+        DefaultValueTemplate template = holder.get();
+        if (template == null || template.getBeanClass() != beanClass) {
+            template = new DefaultValueTemplate(beanClass, this);
+            holder.set(template);
+        }
+        return template;
+    }
+
+    /**
+     * @return the holder of the default value template created on demand
+     */
+    private AtomicReference<DefaultValueTemplate> getDefaultValueTemplateHolder() {
+        AtomicReference<DefaultValueTemplate> holder = defaultValueTemplate;
+        if (holder == null) {
+            holder = new AtomicReference<DefaultValueTemplate>();
+            defaultValueTemplate = holder;
+        }
+        return holder;
     }
 
     /**
@@ -230,6 +326,7 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      */
     @Override
     public final void setCompositeItems(final boolean compositeItems) {
+        checkNotFrozen();
         this.compositeItems = compositeItems;
     }
 
@@ -249,6 +346,7 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      */
     @Override
     public final void setBatchSize(final int batchSize) {
+        checkNotFrozen();
         this.batchSize = batchSize;
     }
 
@@ -267,6 +365,7 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      */
     @Override
     public final void setIdPropertyId(final Object idPropertyId) {
+        checkNotFrozen();
         this.idPropertyId = idPropertyId;
     }
 
@@ -275,6 +374,7 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * @param filter the default filter to add
      */
     public final void addDefaultFilter(final Container.Filter filter) {
+        checkNotFrozen();
         defaultFilters.add(filter);
     }
 
@@ -283,6 +383,7 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * @param filter the default filter to add
      */
     public final void removeDefaultFilter(final Container.Filter filter) {
+        checkNotFrozen();
         defaultFilters.remove(filter);
     }
 
@@ -290,6 +391,7 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * Clears default filters from container.
      */
     public final void removeDefaultFilters() {
+        checkNotFrozen();
         defaultFilters.clear();
     }
 
@@ -298,6 +400,9 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * @return the default filters.
      */
     public final List<Container.Filter> getDefaultFilters() {
+        if (snapshot) {
+            return Collections.unmodifiableList(defaultFilters);
+        }
         return defaultFilters;
     }
 
@@ -306,6 +411,7 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * @param filter the default filter to add
      */
     public final void addFilter(final Container.Filter filter) {
+        checkNotFrozen();
         filters.add(filter);
     }
 
@@ -314,6 +420,7 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * @param filter the default filter to add
      */
     public final void removeFilter(final Container.Filter filter) {
+        checkNotFrozen();
         filters.remove(filter);
     }
 
@@ -321,6 +428,7 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * Clears filters from container.
      */
     public final void removeFilters() {
+        checkNotFrozen();
         filters.clear();
     }
 
@@ -329,14 +437,20 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * @return the filters.
      */
     public final List<Container.Filter> getFilters() {
+        if (snapshot) {
+            return Collections.unmodifiableList(filters);
+        }
         return filters;
     }
 
     /**
-     * Gets the default sort property IDs.
+     * Gets the default sort property IDs. Snapshots return a copy.
      * @return the default sort property IDs
      */
     public final Object[] getDefaultSortPropertyIds() {
+        if (snapshot) {
+            return defaultSortPropertyIds.clone();
+        }
         return defaultSortPropertyIds;
     }
 
@@ -345,14 +459,18 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * @param defaultSortPropertyIds the default sort property IDs
      */
     public final void setDefaultSortPropertyIds(final Object[] defaultSortPropertyIds) {
+        checkNotFrozen();
         this.defaultSortPropertyIds = defaultSortPropertyIds;
     }
 
     /**
-     * Gets default sort property ascending states.
+     * Gets default sort property ascending states. Snapshots return a copy.
      * @return the default sort property ascending states
      */
     public final boolean[] getDefaultSortPropertyAscendingStates() {
+        if (snapshot) {
+            return defaultSortPropertyAscendingStates.clone();
+        }
         return defaultSortPropertyAscendingStates;
     }
 
@@ -361,14 +479,18 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * @param defaultSortPropertyAscendingStates the default sort property ascending states.
      */
     public final void setDefaultSortPropertyAscendingStates(final boolean[] defaultSortPropertyAscendingStates) {
+        checkNotFrozen();
         this.defaultSortPropertyAscendingStates = defaultSortPropertyAscendingStates;
     }
 
     /**
-     * Gets sort property IDs.
+     * Gets sort property IDs. Snapshots return a copy.
      * @return the sort property IDs
      */
     public final Object[] getSortPropertyIds() {
+        if (snapshot) {
+            return sortPropertyIds.clone();
+        }
         return sortPropertyIds;
     }
 
@@ -377,14 +499,18 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * @param sortPropertyIds the sort property IDs
      */
     public final void setSortPropertyIds(final Object[] sortPropertyIds) {
+        checkNotFrozen();
         this.sortPropertyIds = sortPropertyIds;
     }
 
     /**
-     * Gets sort property ascending states.
+     * Gets sort property ascending states. Snapshots return a copy.
      * @return the sort property ascending states
      */
     public final boolean[] getSortPropertyAscendingStates() {
+        if (snapshot) {
+            return sortPropertyAscendingStates.clone();
+        }
         return sortPropertyAscendingStates;
     }
 
@@ -393,6 +519,7 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * @param sortPropertyAscendingStates the sort property ascending states.
      */
     public final void setSortPropertyAscendingStates(final boolean[] sortPropertyAscendingStates) {
+        checkNotFrozen();
         this.sortPropertyAscendingStates = sortPropertyAscendingStates;
     }
 
@@ -403,6 +530,7 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * @param sortPropertyAscendingStates List of sort direction for the properties.
      */
     public final void setDefaultSortState(final Object[] sortPropertyIds, final boolean[] sortPropertyAscendingStates) {
+        checkNotFrozen();
         setDefaultSortPropertyIds(sortPropertyIds);
         setDefaultSortPropertyAscendingStates(sortPropertyAscendingStates);
         if (sortPropertyIds.length != sortPropertyAscendingStates.length) {
@@ -417,6 +545,7 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * @param sortPropertyAscendingStates List of sort direction for the properties.
      */
     public final void setSortState(final Object[] sortPropertyIds, final boolean[] sortPropertyAscendingStates) {
+        checkNotFrozen();
         setSortPropertyIds(sortPropertyIds);
         setSortPropertyAscendingStates(sortPropertyAscendingStates);
         if (sortPropertyIds.length != sortPropertyAscendingStates.length) {
@@ -439,9 +568,28 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      */
     @Override
     public final void setMaxQuerySize(final int maxQuerySize) {
+        checkNotFrozen();
         this.maxQuerySize = maxQuerySize;
     }
 
+    /**
+     * @return true if items can not be added, modified or removed
+     */
+    public final boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Sets whether the query result is read only. Views refuse to add and remove
+     * items of read only queries and queries may load the items without change tracking.
+     *
+     * @param readOnly true if items can not be added, modified or removed
+     */
+    public final void setReadOnly(final boolean readOnly) {
+        checkNotFrozen();
+        this.readOnly = readOnly;
+    }
+
     /**
      * Sets the maxNestedPropertyDepth
      *
@@ -459,6 +607,157 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      */
     @Override
     public final void setMaxNestedPropertyDepth(final int maxNestedPropertyDepth) {
+        checkNotFrozen();
         this.maxNestedPropertyDepth = maxNestedPropertyDepth;
     }
+
+    /**
+     * Takes immutable snapshot of this definition. Snapshots throw
+     * UnsupportedOperationException from modifying methods and are equal to other
+     * snapshots of the same class with the same state so that they can be shared
+     * between threads and used as cache keys.
+     *
+     * @return the snapshot or this definition if it is a snapshot already
+     */
+    public final LazyQueryDefinition snapshot() {
+        if (snapshot) {
+            return this;
+        }
+        final LazyQueryDefinition definition = createCopy();
+        definition.snapshot = true;
+        return definition;
+    }
+
+    /**
+     * Takes immutable snapshot of this definition with the given sort state. This
+     * definition is not changed.
+     *
+     * @param sortPropertyIds             Properties participating in the sorting.
+     * @param sortPropertyAscendingStates List of sort direction for the properties.
+     * @return the snapshot
+     */
+    public final LazyQueryDefinition snapshot(final Object[] sortPropertyIds,
+                                              final boolean[] sortPropertyAscendingStates) {
+        final LazyQueryDefinition definition = createCopy();
+        definition.setSortState(sortPropertyIds.clone(), sortPropertyAscendingStates.clone());
+        definition.snapshot = true;
+        return definition;
+    }
+
+    /**
+     * Copies this definition. The copy is modifiable even if this definition is a snapshot.
+     *
+     * @return the copy
+     */
+    public final LazyQueryDefinition copy() {
+        return createCopy();
+    }
+
+    /**
+     * Creates modifiable copy of this definition. Subclasses adding state should override
+     * this method to invoke their copy constructor. Subclasses which do not are copied
+     * through serialization.
+     *
+     * @return the copy
+     */
+    protected LazyQueryDefinition createCopy() {
+        if (getClass() == LazyQueryDefinition.class) {
+            return new LazyQueryDefinition(this);
+        }
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(this);
+            out.close();
+            final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            final LazyQueryDefinition definition = (LazyQueryDefinition) in.readObject();
+            in.close();
+            return definition;
+        } catch (final Exception e) {
+            throw new IllegalStateException("Error in copying query definition.", e);
+        }
+    }
+
+    /**
+     * @return true if this definition is an immutable snapshot
+     */
+    public final boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Checks that this definition is not an immutable snapshot.
+     *
+     * @throws UnsupportedOperationException if this definition is a snapshot.
+     */
+    protected final void checkNotFrozen() {
+        if (snapshot) {
+            throw new UnsupportedOperationException("Query definition snapshot is immutable.");
+        }
+    }
+
+    /**
+     * Snapshots are equal to snapshots of the same class with the same state.
+     * Modifiable definitions are only equal to themselves. Subclasses adding state
+     * should extend the comparison.
+     *
+     * @param other the other object
+     * @return true if objects are equal
+     */
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!snapshot || other == null || other.getClass() != getClass()) {
+            return false;
+        }
+        final LazyQueryDefinition otherDefinition = (LazyQueryDefinition) other;
+        return otherDefinition.snapshot && hashCode() == otherDefinition.hashCode()
+                && propertyIds.equals(otherDefinition.propertyIds)
+                && propertyTypes.equals(otherDefinition.propertyTypes)
+                && defaultValues.equals(otherDefinition.defaultValues)
+                && readOnlyStates.equals(otherDefinition.readOnlyStates)
+                && sortableStates.equals(otherDefinition.sortableStates)
+                && defaultFilters.equals(otherDefinition.defaultFilters)
+                && filters.equals(otherDefinition.filters)
+                && Arrays.equals(defaultSortPropertyIds, otherDefinition.defaultSortPropertyIds)
+                && Arrays.equals(defaultSortPropertyAscendingStates,
+                otherDefinition.defaultSortPropertyAscendingStates)
+                && Arrays.equals(sortPropertyIds, otherDefinition.sortPropertyIds)
+                && Arrays.equals(sortPropertyAscendingStates, otherDefinition.sortPropertyAscendingStates)
+                && batchSize == otherDefinition.batchSize
+                && compositeItems == otherDefinition.compositeItems
+                && (idPropertyId == null ? otherDefinition.idPropertyId == null
+                : idPropertyId.equals(otherDefinition.idPropertyId))
+                && maxQuerySize == otherDefinition.maxQuerySize
+                && maxNestedPropertyDepth == otherDefinition.maxNestedPropertyDepth
+                && readOnly == otherDefinition.readOnly;
+    }
+
+    /**
+     * @return the hash code of the snapshot state computed once or identity hash code
+     */
+    @Override
+    public int hashCode() {
+        if (!snapshot) {
+            return super.hashCode();
+        }
+        int hashCode = snapshotHashCode;
+        if (hashCode == 0) {
+            hashCode = Arrays.hashCode(new Object[]{propertyIds, propertyTypes, defaultValues, readOnlyStates,
+                    sortableStates, defaultFilters, filters, idPropertyId});
+            hashCode = 31 * hashCode + Arrays.hashCode(defaultSortPropertyIds);
+            hashCode = 31 * hashCode + Arrays.hashCode(defaultSortPropertyAscendingStates);
+            hashCode = 31 * hashCode + Arrays.hashCode(sortPropertyIds);
+            hashCode = 31 * hashCode + Arrays.hashCode(sortPropertyAscendingStates);
+            hashCode = 31 * hashCode + batchSize;
+            hashCode = 31 * hashCode + maxQuerySize;
+            hashCode = 31 * hashCode + maxNestedPropertyDepth;
+            hashCode = 31 * hashCode + (compositeItems ? 1 : 0) + (readOnly ? 2 : 0);
+            snapshotHashCode = hashCode;
+        }
+        return hashCode;
+    }
+
 }
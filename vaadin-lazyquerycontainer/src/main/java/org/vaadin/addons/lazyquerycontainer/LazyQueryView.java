@@ -21,8 +21,18 @@ import com.vaadin.data.Property;
 import com.vaadin.data.Property.ValueChangeEvent;
 import com.vaadin.data.Property.ValueChangeListener;
 import com.vaadin.data.Property.ValueChangeNotifier;
+import com.vaadin.data.util.BeanItem;
+import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OptionalDataException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Lazy loading implementation of QueryView. This implementation supports lazy
@@ -34,14 +44,27 @@ import java.util.*;
  * LazyQueryView implements mainly batch loading, caching and debug
  * functionalities. When data is sorted old query is discarded and new
  * constructed with QueryFactory and new sort state.
+ * <p/>
+ * LazyQueryView is thread safe. The state of the view is guarded by the view
+ * instance itself so that background threads, for example data feeds or
+ * scheduled refreshers, can update the view while the UI thread reads it.
+ * If the query implements AsyncQuery the lock is released while waiting for
+ * counts and batch loads and concurrent requests of the same batch wait for
+ * the same load. QueryViewListeners are notified without holding the lock.
+ * <p/>
+ * LazyQueryView applies row level backend changes published through the
+ * QueryChangeListener interface to the cached items without refreshing. The view
+ * registers itself to query factories implementing QueryChangeNotifier.
  *
  * @author Tommi S.E. Laukkanen
  */
-public final class LazyQueryView implements QueryView, ValueChangeListener {
+public final class LazyQueryView implements QueryView, ValueChangeListener, QueryChangeListener {
     /**
      * Java serialization UID.
      */
     private static final long serialVersionUID = 1L;
+    /** The logger. */
+    private static final Logger LOGGER = Logger.getLogger(LazyQueryView.class);
 
     /**
      * Query count debug property ID.
@@ -63,6 +86,16 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      * Initial maximum cache size.
      */
     private static final int DEFAULT_MAX_CACHE_SIZE = 1000;
+    /**
+     * Interval for rechecking pending asynchronous operations which do not
+     * notify completion.
+     */
+    private static final long AWAIT_RECHECK_INTERVAL = 100;
+    /**
+     * Maximum number of backend changes queued without completion executor after
+     * which the view is refreshed on the next poll instead of applying them.
+     */
+    private static final int MAX_QUEUED_CHANGE_COUNT = 1000;
 
     /**
      * Maximum items in cache before old ones are evicted.
@@ -87,11 +120,68 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
     /**
      * Currenct query used by view.
      */
-    private Query query;
+    private transient Query query;
     /**
      * Size of the query.
      */
     private int querySize = -1;
+    /**
+     * Pending size of the query if query is loaded asynchronously.
+     */
+    private transient Future<Integer> querySizeFuture;
+    /**
+     * Aggregate values computed over the current query result.
+     */
+    private transient Map<Aggregate, Object> aggregateValues = new HashMap<Aggregate, Object>();
+    /**
+     * Pending asynchronous batch loads by batch start index.
+     */
+    private transient PendingBatches pendingBatches = new PendingBatches();
+    /**
+     * Number of batches loaded ahead asynchronously after a batch has been loaded.
+     */
+    private int prefetchBatchCount = 0;
+    /**
+     * True if cache misses return placeholder items while the batch is loaded in background.
+     */
+    private boolean nonBlocking = false;
+    /**
+     * Time in milliseconds after which pending background loads are cancelled or 0 for no timeout.
+     */
+    private long loadTimeout = 0;
+    /**
+     * Executor running the completion of background loads in the UI thread or null.
+     */
+    private transient Executor completionExecutor;
+    /**
+     * Backend changes waiting for the next poll as no completion executor has been set.
+     */
+    private transient List<Runnable> queuedChanges = new ArrayList<Runnable>();
+    /**
+     * True if more than the maximum number of backend changes have been queued.
+     */
+    private transient boolean queuedChangesOverflowed;
+    /**
+     * Placeholder items returned for items which are being loaded in background.
+     */
+    private transient PlaceholderItems placeholderItems = new PlaceholderItems();
+    /**
+     * Items loaded by item ID whose position in the query result is not known.
+     */
+    private transient LinkedHashMap<Object, Item> idItemCache = new LinkedHashMap<Object, Item>(16, 0.75f, true);
+    /**
+     * List of registered QueryViewListeners.
+     */
+    private final List<QueryViewListener> queryViewListeners = new ArrayList<QueryViewListener>();
+    /**
+     * Debouncer collecting filter changes before the view is refreshed.
+     */
+    private FilterDebouncer filterDebouncer = new FilterDebouncer();
+    /**
+     * True if filters have been applied while holding the lock and QueryViewListeners
+     * have not yet been notified.
+     */
+    private transient boolean itemSetChangePending;
     /**
      * Property IDs participating in sort.
      */
@@ -104,32 +194,33 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
     /**
      * List of item IDs.
      */
-    private List<?> itemIdList;
+    private transient List<?> itemIdList;
     /**
-     * List of item indexes in cache in order of access.
+     * Items in cache by query index.
      */
-    private final LinkedList<Integer> itemCacheAccessLog = new LinkedList<Integer>();
-    /**
-     * Map of items in cache.
-     */
-    private final Map<Integer, Item> itemCache = new HashMap<Integer, Item>();
+    private transient ItemCache itemCache;
     /**
      * Map from properties to items for items which are in cache.
      */
-    private Map<Property, Item> propertyItemMapCache = new HashMap<Property, Item>();
+    private transient Map<Property, Item> propertyItemMapCache = new HashMap<Property, Item>();
 
     /**
      * List of added items since last commit/rollback.
      */
-    private final List<Item> addedItems = new ArrayList<Item>();
+    private final ItemChangeList addedItems = new ItemChangeList();
     /**
      * List of modified items since last commit/rollback.
      */
-    private final List<Item> modifiedItems = new ArrayList<Item>();
+    private final ItemChangeList modifiedItems = new ItemChangeList();
     /**
      * List of deleted items since last commit/rollback.
      */
-    private final List<Item> removedItems = new ArrayList<Item>();
+    private final ItemChangeList removedItems = new ItemChangeList();
+    /**
+     * True while item statuses are reset after commit or discard or backend changes
+     * are applied to cached items.
+     */
+    private transient boolean ignoringValueChanges;
 
     /**
      * Constructs LazyQueryView with given QueryDefinition and QueryFactory. The
@@ -154,6 +245,100 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
         this.queryFactory = queryFactory;
         this.sortPropertyIds = new Object[0];
         this.ascendingStates = new boolean[0];
+        this.itemCache = new ItemCache(queryDefinition);
+        if (queryFactory instanceof QueryChangeNotifier) {
+            ((QueryChangeNotifier) queryFactory).addQueryChangeListener(this);
+        }
+    }
+
+    /**
+     * Special serialization writing only the compact logical state of the view. The
+     * query, item ID list and item caches are not written except for the modified
+     * and removed items which are kept until commit or discard.
+     *
+     * @param out the output stream
+     * @throws IOException if IO exception occurs in write
+     */
+    private synchronized void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(getChangedItems(itemCache.getItems()));
+        out.writeObject(getChangedItems(idItemCache));
+    }
+
+    /**
+     * Special serialization to restore transient fields. Caches are rebuilt lazily.
+     * Views serialized by earlier versions do not contain the changed items, in
+     * which case the view is restored without pending item changes.
+     *
+     * @param in the input stream
+     * @throws IOException if IO exception occurs in read
+     * @throws ClassNotFoundException if class not found exception occur in read
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        pendingBatches = new PendingBatches();
+        placeholderItems = new PlaceholderItems();
+        queuedChanges = new ArrayList<Runnable>();
+        if (filterDebouncer == null) {
+            filterDebouncer = new FilterDebouncer();
+        }
+        idItemCache = new LinkedHashMap<Object, Item>(16, 0.75f, true);
+        itemCache = new ItemCache(queryDefinition);
+        propertyItemMapCache = new HashMap<Property, Item>();
+        querySize = -1;
+        aggregateValues = new HashMap<Aggregate, Object>();
+        try {
+            for (final Map.Entry<Integer, Item> entry : ((Map<Integer, Item>) in.readObject()).entrySet()) {
+                itemCache.put(entry.getKey(), entry.getValue());
+            }
+            idItemCache.putAll((Map<Object, Item>) in.readObject());
+        } catch (final OptionalDataException e) {
+            if (!e.eof) {
+                throw e;
+            }
+        }
+        for (final Item item : itemCache.getItems().values()) {
+            mapItemProperties(item);
+        }
+        for (final Item item : idItemCache.values()) {
+            mapItemProperties(item);
+        }
+        if (queryFactory instanceof QueryChangeNotifier) {
+            ((QueryChangeNotifier) queryFactory).addQueryChangeListener(this);
+        }
+    }
+
+    /**
+     * Gets the modified and removed items of the given cache.
+     *
+     * @param cache the item cache
+     * @param <K> the cache key type
+     * @return map containing the modified and removed items of the cache
+     */
+    private <K> Map<K, Item> getChangedItems(final Map<K, Item> cache) {
+        final Map<K, Item> changedItems = new HashMap<K, Item>();
+        for (final Map.Entry<K, Item> entry : cache.entrySet()) {
+            if (modifiedItems.contains(entry.getValue()) || removedItems.contains(entry.getValue())) {
+                changedItems.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return changedItems;
+    }
+
+    /**
+     * Maps the value change notifying properties of the deserialized item to the item.
+     * The view is already registered as listener of the properties.
+     *
+     * @param item the item
+     */
+    private void mapItemProperties(final Item item) {
+        for (final Object propertyId : item.getItemPropertyIds()) {
+            final Property property = item.getItemProperty(propertyId);
+            if (property instanceof ValueChangeNotifier) {
+                propertyItemMapCache.put(property, item);
+            }
+        }
     }
 
     /**
@@ -166,6 +351,15 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
         return queryDefinition;
     }
 
+    /**
+     * Gets the QueryFactory.
+     *
+     * @return the QueryFactory
+     */
+    public QueryFactory getQueryFactory() {
+        return queryFactory;
+    }
+
     /**
      * Sets new sort state and refreshes view.
      *
@@ -174,7 +368,7 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      *                        sort. True means ascending.
      */
     @Override
-    public void sort(final Object[] sortPropertyIds, final boolean[] ascendingStates) {
+    public synchronized void sort(final Object[] sortPropertyIds, final boolean[] ascendingStates) {
         this.sortPropertyIds = sortPropertyIds;
         this.ascendingStates = ascendingStates;
         refresh();
@@ -185,7 +379,7 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      * current query instance. New query is created on demand.
      */
     @Override
-    public void refresh() {
+    public synchronized void refresh() {
 
         for (final Property property : propertyItemMapCache.keySet()) {
             if (property instanceof ValueChangeNotifier) {
@@ -194,12 +388,17 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
             }
         }
 
+        cancelPendingLoads();
+        filterDebouncer.cancel();
+
         query = null;
         batchCount = 0;
         itemIdList = null;
         itemCache.clear();
-        itemCacheAccessLog.clear();
         propertyItemMapCache.clear();
+        placeholderItems.clear();
+        idItemCache.clear();
+        aggregateValues.clear();
 
         discard();
     }
@@ -211,7 +410,58 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      */
     @Override
     public int size() {
-        return getQuerySize() + addedItems.size();
+        final int size;
+        synchronized (this) {
+            applyPendingFilters(false);
+            size = getQuerySize() + addedItems.size();
+        }
+        notifyPendingItemSetChange();
+        return size;
+    }
+
+    /**
+     * Computes the given aggregates over the query result if the query implements
+     * AggregateQuery. Aggregates which have not been cached are computed in a single
+     * operation and cached together with the query size until the view is refreshed.
+     * Buffered changes are not included.
+     *
+     * @param aggregates The aggregates to be computed.
+     * @return Map from the aggregates to their values.
+     */
+    @Override
+    public Map<Aggregate, Object> aggregate(final Collection<Aggregate> aggregates) {
+        final Map<Aggregate, Object> values = new HashMap<Aggregate, Object>();
+        final List<Aggregate> missingAggregates = new ArrayList<Aggregate>();
+        final Query aggregateQuery;
+        synchronized (this) {
+            applyPendingFilters(false);
+            aggregateQuery = getQuery();
+            for (final Aggregate aggregate : aggregates) {
+                if (aggregateValues.containsKey(aggregate)) {
+                    values.put(aggregate, aggregateValues.get(aggregate));
+                } else {
+                    missingAggregates.add(aggregate);
+                }
+            }
+        }
+        notifyPendingItemSetChange();
+        if (missingAggregates.isEmpty()) {
+            return values;
+        }
+        final AggregateQuery supportingQuery = ExecutorAsyncQuery.getQueryInterface(aggregateQuery,
+                AggregateQuery.class);
+        if (supportingQuery == null) {
+            throw new UnsupportedOperationException("Query does not support aggregates: "
+                    + aggregateQuery.getClass().getName());
+        }
+        final Map<Aggregate, Object> missingValues = supportingQuery.aggregate(missingAggregates);
+        synchronized (this) {
+            if (query == aggregateQuery) {
+                aggregateValues.putAll(missingValues);
+            }
+        }
+        values.putAll(missingValues);
+        return values;
     }
 
     /**
@@ -225,19 +475,654 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
     }
 
     /**
-     * @return the maxCacheSize
+     * @return the maxCacheSize
+     */
+    @Override
+    public synchronized int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * @param maxCacheSize the maxCacheSize to set
+     */
+    @Override
+    public synchronized void setMaxCacheSize(final int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * Gets the number of batches loaded ahead asynchronously after a batch has been
+     * loaded. Prefetching is done only if the query implements AsyncQuery.
+     *
+     * @return the number of batches to prefetch
+     */
+    public synchronized int getPrefetchBatchCount() {
+        return prefetchBatchCount;
+    }
+
+    /**
+     * Sets the number of batches loaded ahead asynchronously after a batch has been
+     * loaded. Prefetching is done only if the query implements AsyncQuery.
+     *
+     * @param prefetchBatchCount the number of batches to prefetch
+     */
+    public synchronized void setPrefetchBatchCount(final int prefetchBatchCount) {
+        this.prefetchBatchCount = prefetchBatchCount;
+    }
+
+    /**
+     * Checks whether cache misses return placeholder items while the batch is loaded
+     * in background.
+     *
+     * @return true if view does not block on cache misses
+     */
+    public synchronized boolean isNonBlocking() {
+        return nonBlocking;
+    }
+
+    /**
+     * Sets whether cache misses return placeholder items with QueryItemStatus.Loading
+     * status while the batch is loaded in background. Takes effect only if the query
+     * implements AsyncQuery. Placeholders are replaced when accessed after the load
+     * has completed or immediately if completion executor has been set.
+     *
+     * @param nonBlocking true if view should not block on cache misses
+     */
+    public synchronized void setNonBlocking(final boolean nonBlocking) {
+        this.nonBlocking = nonBlocking;
+    }
+
+    /**
+     * Gets the time in milliseconds after which pending background loads are cancelled.
+     *
+     * @return the load timeout or 0 for no timeout
+     */
+    public synchronized long getLoadTimeout() {
+        return loadTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds after which pending background loads are cancelled.
+     * Timeouts are checked when items are accessed without blocking, when background
+     * loads complete and when new background loads are started. Cancelled loads are
+     * started again when the items are accessed.
+     *
+     * @param loadTimeout the load timeout or 0 for no timeout
+     */
+    public synchronized void setLoadTimeout(final long loadTimeout) {
+        this.loadTimeout = loadTimeout;
+    }
+
+    /**
+     * Gets the executor running the completion of background loads.
+     *
+     * @return the completion executor or null
+     */
+    public synchronized Executor getCompletionExecutor() {
+        return completionExecutor;
+    }
+
+    /**
+     * Sets the executor running the completion of background loads. When a load
+     * completes the placeholder items are replaced and QueryViewListeners notified
+     * in a task passed to this executor. With push enabled UIs the executor should
+     * run the task with UI.access so that the table is repainted. Backend changes
+     * queued while no completion executor was set are passed to the new executor.
+     *
+     * @param completionExecutor the completion executor or null
+     */
+    public void setCompletionExecutor(final Executor completionExecutor) {
+        synchronized (this) {
+            this.completionExecutor = completionExecutor;
+        }
+        if (completionExecutor != null) {
+            completionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    applyQueuedChanges();
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds QueryViewListener.
+     *
+     * @param listener QueryViewListener to be added.
+     */
+    public synchronized void addQueryViewListener(final QueryViewListener listener) {
+        queryViewListeners.add(listener);
+    }
+
+    /**
+     * Removes QueryViewListener.
+     *
+     * @param listener QueryViewListener to be removed.
+     */
+    public synchronized void removeQueryViewListener(final QueryViewListener listener) {
+        queryViewListeners.remove(listener);
+    }
+
+    /**
+     * Notifies QueryViewListeners that item set has been changed by the view.
+     */
+    private void notifyItemSetChanged() {
+        final List<QueryViewListener> listeners;
+        synchronized (this) {
+            listeners = new ArrayList<QueryViewListener>(queryViewListeners);
+        }
+        for (final QueryViewListener listener : listeners) {
+            listener.itemSetChanged();
+        }
+    }
+
+    /**
+     * Notifies QueryViewListeners if filters have been applied since the last
+     * notification. Does nothing while the calling thread holds the view lock, in
+     * which case the notification is delivered by the next call made without it.
+     */
+    private void notifyPendingItemSetChange() {
+        if (Thread.holdsLock(this)) {
+            return;
+        }
+        synchronized (this) {
+            if (!itemSetChangePending) {
+                return;
+            }
+            itemSetChangePending = false;
+        }
+        notifyItemSetChanged();
+    }
+
+    /**
+     * Wakes up threads waiting for asynchronous operations to complete.
+     */
+    private synchronized void notifyOperationCompleted() {
+        notifyAll();
+    }
+
+    /**
+     * Starts loading the batches covering the given index range in the background
+     * if the query implements AsyncQuery. Batches already cached or being loaded are
+     * skipped. Pending loads are cancelled on refresh.
+     *
+     * @param startIndex The index of the first item.
+     * @param count      The number of items.
+     */
+    public synchronized void prefetch(final int startIndex, final int count) {
+        final int addedItemCount = addedItems.size();
+        final int queryStartIndex = Math.max(0, startIndex - addedItemCount);
+        final int queryEndIndex = startIndex + count - addedItemCount;
+        if (queryEndIndex > queryStartIndex) {
+            prefetchBatches(queryStartIndex, queryEndIndex - queryStartIndex);
+        }
+    }
+
+    /**
+     * Starts loading the batches covering the given query result range in the background
+     * if the query implements AsyncQuery.
+     *
+     * @param queryStartIndex The index of the first item in query result.
+     * @param count           The number of items.
+     */
+    private void prefetchBatches(final int queryStartIndex, final int count) {
+        if (!(getQuery() instanceof AsyncQuery)) {
+            return;
+        }
+        final AsyncQuery asyncQuery = (AsyncQuery) query;
+        final int batchSize = getBatchSize();
+        if (batchSize <= 0) {
+            return;
+        }
+        pendingBatches.cancelTimedOut(loadTimeout);
+        final boolean querySizeKnown = querySizeFuture == null || querySizeFuture.isDone();
+        final int queryEndIndex;
+        if (querySizeKnown) {
+            queryEndIndex = Math.min(queryStartIndex + count, getQuerySize());
+        } else {
+            queryEndIndex = queryStartIndex + count;
+        }
+        for (int batchStartIndex = queryStartIndex - queryStartIndex % batchSize; batchStartIndex < queryEndIndex;
+             batchStartIndex += batchSize) {
+            if (itemCache.contains(batchStartIndex) || pendingBatches.contains(batchStartIndex)) {
+                continue;
+            }
+            final int batchCount;
+            if (querySizeKnown) {
+                batchCount = Math.min(batchSize, getQuerySize() - batchStartIndex);
+            } else {
+                batchCount = batchSize;
+            }
+            pendingBatches.add(batchStartIndex,
+                    asyncQuery.loadItemsAsync(batchStartIndex, batchCount, batchLoadCallback()));
+        }
+    }
+
+    /**
+     * Constructs callback which wakes up threads waiting for the batch and completes
+     * background loads through the completion executor if one has been set.
+     *
+     * @return the callback
+     */
+    private AsyncQueryCallback<List<Item>> batchLoadCallback() {
+        final Executor executor = completionExecutor;
+        return new AsyncQueryCallback<List<Item>>() {
+            @Override
+            public void completed(final List<Item> result) {
+                notifyOperationCompleted();
+                if (executor == null) {
+                    return;
+                }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            final boolean applied;
+                            synchronized (LazyQueryView.this) {
+                                applied = applyCompletedBatches();
+                            }
+                            if (applied) {
+                                notifyItemSetChanged();
+                            }
+                        } catch (final RuntimeException e) {
+                            LOGGER.error("Applying batches loaded in background failed.", e);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void failed(final Throwable cause) {
+                // the failure is rethrown to threads accessing the items of the batch
+                LOGGER.error("Loading batch in background failed.", cause);
+                completed(null);
+            }
+        };
+    }
+
+    /**
+     * Replaces placeholder items of the batches which have been loaded in background
+     * and cancels pending loads which have exceeded the load timeout. Placeholders of
+     * cancelled loads are loaded again when accessed.
+     *
+     * @return true if placeholder items were replaced.
+     */
+    private boolean applyCompletedBatches() {
+        pendingBatches.cancelTimedOut(loadTimeout);
+        if (placeholderItems.isEmpty()) {
+            return false;
+        }
+        final int batchSize = getBatchSize();
+        boolean applied = false;
+        for (final Integer batchStartIndex : pendingBatches.getCompletedStartIndexes()) {
+            if (placeholderItems.remove(batchStartIndex, batchSize)) {
+                queryItem(batchStartIndex);
+                applied = true;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Gets placeholder item for item which is being loaded in background and starts
+     * loading the batch of the item if it is not already being loaded.
+     *
+     * @param index The index of the item in query result.
+     * @return the placeholder item.
+     */
+    private Item getPlaceholderItem(final int index) {
+        final Item placeholderItem = placeholderItems.get(queryDefinition, index);
+        prefetchBatches(index, 1);
+        return placeholderItem;
+    }
+
+    /**
+     * Applies inserted or updated backend row to the cached items with the same ID
+     * by copying the property values of the new state of the row to them. If the new
+     * state is not given it is loaded with ItemIdQuery outside of the view lock. Rows
+     * which are not cached are ignored as they are read from the backend when loaded,
+     * which means inserted rows appear on the next refresh. Items modified or removed
+     * in the view are not changed so that pending changes are not lost. Changes are
+     * applied through the completion executor if one has been set and otherwise
+     * queued until the next {@link #pollChanges()}.
+     *
+     * @param itemId The value of the ID property of the row.
+     * @param item   The new state of the row or null if it has to be loaded by the query.
+     */
+    @Override
+    public void itemUpserted(final Object itemId, final Item item) {
+        final Query changeQuery;
+        synchronized (this) {
+            if (!isCached(itemId)) {
+                return;
+            }
+            changeQuery = query;
+        }
+        final ItemIdQuery itemIdQuery = ExecutorAsyncQuery.getQueryInterface(changeQuery, ItemIdQuery.class);
+        final Item newItem;
+        if (item != null) {
+            newItem = item;
+        } else if (itemIdQuery != null) {
+            newItem = itemIdQuery.loadItem(itemId);
+            if (newItem == null) {
+                // row does not match the query anymore
+                itemDeleted(itemId);
+                return;
+            }
+        } else {
+            return;
+        }
+        applyChange(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (LazyQueryView.this) {
+                    aggregateValues.clear();
+                    final Item indexedItem = itemCache.get(itemCache.indexOf(itemId));
+                    if (indexedItem != null) {
+                        copyItemValues(newItem, indexedItem);
+                    }
+                    final Item idItem = idItemCache.get(itemId);
+                    if (idItem != null && idItem != indexedItem) {
+                        copyItemValues(newItem, idItem);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes deleted backend row from the cached items, shifts the indexes of the
+     * following cached items and decreases the size of the view. Rows which are not
+     * cached are ignored. Items modified or removed in the view are not changed so
+     * that pending changes are not lost. Changes are applied through the completion
+     * executor if one has been set and otherwise queued until the next
+     * {@link #pollChanges()}, after which QueryViewListeners are notified.
+     *
+     * @param itemId The value of the ID property of the row.
+     */
+    @Override
+    public void itemDeleted(final Object itemId) {
+        applyChange(new Runnable() {
+            @Override
+            public void run() {
+                final boolean removed;
+                synchronized (LazyQueryView.this) {
+                    removed = removeCachedItem(itemId);
+                }
+                if (removed) {
+                    notifyItemSetChanged();
+                }
+            }
+        });
+    }
+
+    /**
+     * Polls the rows changed in the backend if the query implements PollingQuery and
+     * patches the cached items of the changed rows. The view is refreshed if the row
+     * count changed or a changed row may have moved in the sort order, which is the case
+     * if a sort property value of a cached row changed or a row which is not cached
+     * changed while the view is sorted. Views of other queries are refreshed on every
+     * poll. Views containing changes are not refreshed so that the changes are not lost.
+     * Changes are applied through the completion executor if one has been set and
+     * otherwise in the calling thread together with the backend changes queued since
+     * the previous poll, so the method should be called holding the UI session lock.
+     */
+    @Override
+    public void pollChanges() {
+        pollQueryChanges();
+        applyQueuedChanges();
+    }
+
+    /**
+     * Polls the rows changed in the backend and applies the changes as described in
+     * {@link #pollChanges()}.
+     */
+    private void pollQueryChanges() {
+        final Query pollQuery;
+        synchronized (this) {
+            pollQuery = getQuery();
+        }
+        final PollingQuery pollingQuery = ExecutorAsyncQuery.getQueryInterface(pollQuery, PollingQuery.class);
+        final List<Item> changedItems;
+        if (pollingQuery != null) {
+            changedItems = pollingQuery.pollChanges();
+        } else {
+            changedItems = null;
+        }
+        synchronized (this) {
+            if (query != pollQuery) {
+                // view was refreshed while polling
+                return;
+            }
+            if (changedItems != null && !isOrderChanged(changedItems)) {
+                final Object idPropertyId = queryDefinition.getIdPropertyId();
+                for (final Item changedItem : changedItems) {
+                    final Object itemId = changedItem.getItemProperty(idPropertyId).getValue();
+                    if (isCached(itemId)) {
+                        itemUpserted(itemId, changedItem);
+                    }
+                }
+                return;
+            }
+        }
+        applyChange(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (LazyQueryView.this) {
+                    if (query != pollQuery || isModified()) {
+                        return;
+                    }
+                    refresh();
+                }
+                notifyItemSetChanged();
+            }
+        });
+    }
+
+    /**
+     * Checks whether the changed rows may have moved in the sort order of the view.
+     *
+     * @param changedItems the changed rows
+     * @return true if the view has to be refreshed
+     */
+    private boolean isOrderChanged(final List<Item> changedItems) {
+        if (changedItems.isEmpty()) {
+            return false;
+        }
+        final Object idPropertyId = queryDefinition.getIdPropertyId();
+        if (idPropertyId == null) {
+            return true;
+        }
+        Object[] orderPropertyIds = sortPropertyIds;
+        if (orderPropertyIds.length == 0 && queryDefinition instanceof LazyQueryDefinition) {
+            orderPropertyIds = ((LazyQueryDefinition) queryDefinition).getDefaultSortPropertyIds();
+        }
+        if (orderPropertyIds.length == 0) {
+            return false;
+        }
+        for (final Item changedItem : changedItems) {
+            final int queryIndex = itemCache.indexOf(changedItem.getItemProperty(idPropertyId).getValue());
+            if (queryIndex == -1) {
+                return true;
+            }
+            if (ItemChangeApplier.isSortValueChanged(changedItem, itemCache.get(queryIndex), orderPropertyIds)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the change through the completion executor if one has been set. Otherwise
+     * the change is queued until the next poll, as the calling thread may not hold
+     * the UI session lock required for changing the items. If too many changes have
+     * been queued they are discarded and the view is refreshed on the next poll.
+     *
+     * @param change the change
+     */
+    private void applyChange(final Runnable change) {
+        final Executor executor;
+        synchronized (this) {
+            executor = completionExecutor;
+            if (executor == null) {
+                if (queuedChangesOverflowed) {
+                    return;
+                }
+                if (queuedChanges.size() >= MAX_QUEUED_CHANGE_COUNT) {
+                    queuedChanges.clear();
+                    queuedChangesOverflowed = true;
+                    return;
+                }
+                queuedChanges.add(change);
+                return;
+            }
+        }
+        executor.execute(change);
+    }
+
+    /**
+     * Applies the backend changes queued without completion executor in the calling
+     * thread or refreshes the view if too many changes were queued.
+     */
+    private void applyQueuedChanges() {
+        final List<Runnable> changes;
+        synchronized (this) {
+            if (queuedChangesOverflowed) {
+                queuedChanges.clear();
+                queuedChangesOverflowed = false;
+                if (isModified()) {
+                    return;
+                }
+                refresh();
+                changes = null;
+            } else {
+                changes = new ArrayList<Runnable>(queuedChanges);
+                queuedChanges.clear();
+            }
+        }
+        if (changes == null) {
+            notifyItemSetChanged();
+            return;
+        }
+        for (final Runnable change : changes) {
+            change.run();
+        }
+    }
+
+    /**
+     * Checks whether item with the given ID is cached.
+     *
+     * @param itemId the item ID
+     * @return true if item is cached
+     */
+    private boolean isCached(final Object itemId) {
+        return idItemCache.containsKey(itemId) || itemCache.indexOf(itemId) != -1;
+    }
+
+    /**
+     * Copies the property values of the source item to the cached target item
+     * without tracking them as modifications. Status and debug properties and items
+     * modified or removed in the view are not changed.
+     *
+     * @param source the source item
+     * @param target the target item
+     */
+    private void copyItemValues(final Item source, final Item target) {
+        if (modifiedItems.contains(target) || removedItems.contains(target)) {
+            return;
+        }
+        ignoringValueChanges = true;
+        try {
+            ItemChangeApplier.copyValues(source, target);
+        } finally {
+            ignoringValueChanges = false;
+        }
+    }
+
+    /**
+     * Removes the cached item with the given ID and shifts the following cached items
+     * one index down. Pending batch loads are cancelled as their indexes are not valid
+     * anymore.
+     *
+     * @param itemId the item ID
+     * @return true if the item set of the view changed
+     */
+    private boolean removeCachedItem(final Object itemId) {
+        final Item idItem = idItemCache.get(itemId);
+        if (idItem != null && !modifiedItems.contains(idItem) && !removedItems.contains(idItem)) {
+            idItemCache.remove(itemId);
+            removeValueChangeListeners(idItem);
+        }
+        final int queryIndex = itemCache.indexOf(itemId);
+        if (queryIndex == -1) {
+            return false;
+        }
+        final Item item = itemCache.get(queryIndex);
+        if (modifiedItems.contains(item) || removedItems.contains(item)) {
+            return false;
+        }
+        removeValueChangeListeners(item);
+        final IdSnapshotQuery idSnapshotQuery = getIdSnapshotQuery();
+        if (idSnapshotQuery != null) {
+            // keep the snapshot aligned with the shifted items
+            idSnapshotQuery.removeItemId(queryIndex);
+        }
+
+        itemCache.removeAndShift(queryIndex);
+        placeholderItems.clear();
+        cancelPendingBatches();
+
+        if (querySizeFuture == null && querySize > 0) {
+            querySize--;
+        }
+        aggregateValues.clear();
+        itemIdList = null;
+        return true;
+    }
+
+    /**
+     * Cancels the pending asynchronous count and batch loads.
+     */
+    private void cancelPendingLoads() {
+        if (querySizeFuture != null) {
+            querySizeFuture.cancel(true);
+            querySizeFuture = null;
+        }
+        cancelPendingBatches();
+    }
+
+    /**
+     * Cancels the pending asynchronous batch loads.
      */
-    @Override
-    public int getMaxCacheSize() {
-        return maxCacheSize;
+    private void cancelPendingBatches() {
+        pendingBatches.cancelAll();
+        // Wake up threads waiting for the cancelled operations.
+        notifyAll();
     }
 
     /**
-     * @param maxCacheSize the maxCacheSize to set
+     * Waits for the result of asynchronous query operation releasing the view lock
+     * while waiting. The view may have been refreshed when this method returns.
+     *
+     * @param future the future of the operation
+     * @param <T> the result type
+     * @return the result or null if the operation was cancelled
      */
-    @Override
-    public void setMaxCacheSize(final int maxCacheSize) {
-        this.maxCacheSize = maxCacheSize;
+    private <T> T await(final Future<T> future) {
+        try {
+            while (!future.isDone()) {
+                wait(AWAIT_RECHECK_INTERVAL);
+            }
+            if (future.isCancelled()) {
+                return null;
+            }
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (final ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
     }
 
     /**
@@ -249,25 +1134,85 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      */
     @Override
     public Item getItem(final int index) {
-        if (index < 0 || index >= size()) {
-            throw new IndexOutOfBoundsException("Container size: " + size() + " and item index  requested: " + index);
-        }
-        final int addedItemCount = addedItems.size();
-        if (index < addedItemCount) {
-            // an item from the addedItems was requested
-            return addedItems.get(index);
+        final Item item;
+        synchronized (this) {
+            item = getItem(index, !nonBlocking);
         }
-        if (!itemCache.containsKey(index - addedItemCount)) {
-            // item is not in our cache, ask the query for more items
+        notifyPendingItemSetChange();
+        return item;
+    }
+
+    /**
+     * Gets item at given index from addedItems, cache and loads new batch on
+     * demand if required. If blocking is false and the query implements AsyncQuery
+     * a placeholder item is returned for items not in cache.
+     *
+     * @param index    The item index.
+     * @param blocking True if caller waits for the item to be loaded.
+     * @return the item at given index.
+     */
+    synchronized Item getItem(final int index, final boolean blocking) {
+        while (true) {
+            applyPendingFilters(false);
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Container size: " + size() + " and item index  requested: "
+                        + index);
+            }
+            final int addedItemCount = addedItems.size();
+            if (index < addedItemCount) {
+                // an item from the addedItems was requested
+                return addedItems.get(index);
+            }
+            if (!blocking) {
+                applyCompletedBatches();
+            }
+            if (itemCache.contains(index - addedItemCount)) {
+                // item is already in our cache
+                // refresh cache access log.
+                itemCache.touch(index - addedItemCount);
+                return itemCache.get(index - addedItemCount);
+            }
+            if (!blocking && getQuery() instanceof AsyncQuery) {
+                // item is not in our cache, return placeholder while the batch is loaded
+                return getPlaceholderItem(index - addedItemCount);
+            }
+            // item is not in our cache, ask the query for more items and look the item
+            // up again as items may have been added or the view refreshed while waiting
             queryItem(index - addedItemCount);
-        } else {
-            // item is already in our cache
-            // refresh cache access log.
-            itemCacheAccessLog.remove(new Integer(index));
-            itemCacheAccessLog.addLast(new Integer(index));
         }
+    }
 
-        return itemCache.get(index - addedItemCount);
+    /**
+     * Gets the items in the given range. The batches covering the range are loaded
+     * once each and in parallel if the query implements AsyncQuery.
+     *
+     * @param startIndex The index of the first item.
+     * @param count      The maximum number of items.
+     * @return The items in the range.
+     */
+    @Override
+    public synchronized List<Item> getItems(final int startIndex, final int count) {
+        final int endIndex = Math.min(startIndex + count, size());
+        if (startIndex < 0 || startIndex > endIndex) {
+            throw new IndexOutOfBoundsException("Container size: " + size() + " and item index  requested: "
+                    + startIndex);
+        }
+        prefetch(startIndex, endIndex - startIndex);
+        final List<Item> items = new ArrayList<Item>(endIndex - startIndex);
+        for (int index = startIndex; index < endIndex && index < size(); index++) {
+            // waiting for a batch releases the lock so the added items are counted again
+            final int addedItemCount = addedItems.size();
+            if (index < addedItemCount) {
+                items.add(addedItems.get(index));
+                continue;
+            }
+            Item item = itemCache.get(index - addedItemCount);
+            if (item == null) {
+                item = getItem(index, true);
+            }
+            items.add(item);
+        }
+        return items;
     }
 
     /**
@@ -278,11 +1223,40 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
     private void queryItem(final int index) {
         final int batchSize = getBatchSize();
         final int startIndex = index - index % batchSize;
-        final int count = Math.min(batchSize, getQuerySize() - startIndex);
+        final Query batchQuery = getQuery();
+        int count = Math.min(batchSize, getQuerySize() - startIndex);
+        if (query != batchQuery) {
+            // view was refreshed while waiting for the query size
+            return;
+        }
 
         final long queryStartTime = System.currentTimeMillis();
-        // load more items
-        final List<Item> items = getQuery().loadItems(startIndex, count);
+        // load more items or wait for the pending asynchronous load of the batch
+        List<Item> items = null;
+        if (batchQuery instanceof AsyncQuery && !pendingBatches.contains(startIndex)) {
+            // load asynchronously so that the view lock is released while loading
+            prefetchBatches(startIndex, count);
+        }
+        final Future<List<Item>> pendingBatch = pendingBatches.get(startIndex);
+        if (pendingBatch != null) {
+            try {
+                items = await(pendingBatch);
+            } finally {
+                pendingBatches.remove(startIndex, pendingBatch);
+            }
+            if (query != batchQuery || itemCache.contains(startIndex)) {
+                // view was refreshed or batch was cached by another thread while waiting
+                return;
+            }
+        }
+        if (items == null) {
+            // rows may have been removed while waiting for the cancelled batch
+            count = Math.min(batchSize, getQuerySize() - startIndex);
+            if (count <= 0 || query != batchQuery) {
+                return;
+            }
+            items = batchQuery.loadItems(startIndex, count);
+        }
         final long queryEndTime = System.currentTimeMillis();
 
         for (int i = 0; i < count; i++) {
@@ -291,7 +1265,7 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
             final Item item;
 
             if (i >= items.size()) {
-                item = getQuery().constructItem();
+                item = batchQuery.constructItem();
             } else {
                 item = items.get(i);
             }
@@ -299,13 +1273,9 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
             itemCache.put(itemIndex, item);
 
             if (i >= items.size()) {
-                removeItem(itemIndex);
-            }
-
-            if (itemCacheAccessLog.contains(itemIndex)) {
-                itemCacheAccessLog.remove((Object) itemIndex);
+                // Mark padding item removed as the query returned less items than expected.
+                markItemRemoved(item);
             }
-            itemCacheAccessLog.addLast(itemIndex);
         }
 
         for (int i = 0; i < count; i++) {
@@ -329,51 +1299,117 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
                 item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_QUERY_TIME).setReadOnly(true);
             }
 
-            for (final Object propertyId : item.getItemPropertyIds()) {
-                final Property property = item.getItemProperty(propertyId);
-                if (property instanceof ValueChangeNotifier) {
-                    final ValueChangeNotifier notifier = (ValueChangeNotifier) property;
-                    notifier.addListener(this);
-                    propertyItemMapCache.put(property, item);
-                }
-            }
-
+            addValueChangeListeners(item);
         }
 
         // Increase batch count.
         batchCount++;
 
+        if (prefetchBatchCount > 0) {
+            prefetchBatches(startIndex + batchSize, prefetchBatchCount * batchSize);
+        }
+
         // Evict items from cache if cache size exceeds max cache size
-        int counter = 0;
-        while (itemCache.size() > maxCacheSize) {
-            final int firstIndex = itemCacheAccessLog.getFirst();
-            final Item firstItem = itemCache.get(firstIndex);
-
-            // Remove oldest item in cache access log if it is not modified or
-            // removed.
-            if (!modifiedItems.contains(firstItem) && !removedItems.contains(firstItem)) {
-                itemCacheAccessLog.removeFirst();
-                itemCache.remove(firstIndex);
-
-                for (final Object propertyId : firstItem.getItemPropertyIds()) {
-                    final Property property = firstItem.getItemProperty(propertyId);
-                    if (property instanceof ValueChangeNotifier) {
-                        final ValueChangeNotifier notifier = (ValueChangeNotifier) property;
-                        notifier.removeListener(this);
-                        propertyItemMapCache.remove(property);
-                    }
-                }
+        for (final Item evictedItem : itemCache.evict(maxCacheSize, modifiedItems, removedItems)) {
+            removeValueChangeListeners(evictedItem);
+        }
+    }
 
-            } else {
-                itemCacheAccessLog.removeFirst();
-                itemCacheAccessLog.addLast(firstIndex);
+    /**
+     * Registers this view as value change listener of the item properties so that
+     * modifications are tracked.
+     *
+     * @param item the item
+     */
+    private void addValueChangeListeners(final Item item) {
+        for (final Object propertyId : item.getItemPropertyIds()) {
+            final Property property = item.getItemProperty(propertyId);
+            if (property instanceof ValueChangeNotifier) {
+                final ValueChangeNotifier notifier = (ValueChangeNotifier) property;
+                notifier.addListener(this);
+                propertyItemMapCache.put(property, item);
+            }
+        }
+    }
+
+    /**
+     * Unregisters this view as value change listener of the item properties.
+     *
+     * @param item the item
+     */
+    private void removeValueChangeListeners(final Item item) {
+        for (final Object propertyId : item.getItemPropertyIds()) {
+            final Property property = item.getItemProperty(propertyId);
+            if (property instanceof ValueChangeNotifier) {
+                final ValueChangeNotifier notifier = (ValueChangeNotifier) property;
+                notifier.removeListener(this);
+                propertyItemMapCache.remove(property);
+            }
+        }
+    }
+
+    /**
+     * Gets item with the given item ID. Item IDs already read through the item ID
+     * list are resolved by their index. Other item IDs are loaded directly if the
+     * query implements ItemIdQuery and kept in a bounded cache of their own. Only
+     * if neither is possible the index of the item ID is searched.
+     *
+     * @param itemId The item ID.
+     * @return The item or null if view does not contain item with the given ID.
+     */
+    @Override
+    public synchronized Item getItemById(final Object itemId) {
+        final Object idPropertyId = queryDefinition.getIdPropertyId();
+        if (idPropertyId == null) {
+            if (!(itemId instanceof Integer) || (Integer) itemId < 0 || (Integer) itemId >= size()) {
+                return null;
+            }
+            return getItem((Integer) itemId, true);
+        }
+        final List<?> itemIds = getItemIdList();
+        if (itemIds instanceof LazyIdList) {
+            final int index = ((LazyIdList<?>) itemIds).indexOfLoaded(itemId);
+            if (index >= 0 && index < size()) {
+                final Item item = getItem(index, true);
+                if (itemId.equals(item.getItemProperty(idPropertyId).getValue())) {
+                    return item;
+                }
             }
+        }
+        Item item = idItemCache.get(itemId);
+        if (item != null) {
+            return item;
+        }
+        final ItemIdQuery itemIdQuery = getItemIdQuery();
+        if (itemIdQuery != null) {
+            item = itemIdQuery.loadItem(itemId);
+            if (item != null) {
+                addValueChangeListeners(item);
+                idItemCache.put(itemId, item);
+                evictIdItemCache();
+            }
+            return item;
+        }
+        final int index = itemIds.indexOf(itemId);
+        if (index == -1) {
+            return null;
+        }
+        return getItem(index, true);
+    }
 
-            // Break from loop if entire cache has been iterated (all items are
-            // modified).
-            counter++;
-            if (counter > itemCache.size()) {
-                break;
+    /**
+     * Evicts least recently accessed items from the item ID cache if the cache
+     * size exceeds max cache size. Modified and removed items are kept.
+     */
+    private void evictIdItemCache() {
+        final Iterator<Item> iterator = idItemCache.values().iterator();
+        int excessCount = idItemCache.size() - maxCacheSize;
+        while (excessCount > 0 && iterator.hasNext()) {
+            final Item item = iterator.next();
+            if (!modifiedItems.contains(item) && !removedItems.contains(item)) {
+                iterator.remove();
+                removeValueChangeListeners(item);
+                excessCount--;
             }
         }
     }
@@ -383,10 +1419,59 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      * @return the query size
      */
     private int getQuerySize() {
-        if (query == null) {
-            getQuery();
+        while (true) {
+            if (query == null) {
+                getQuery();
+            }
+            final Future<Integer> pendingQuerySize = querySizeFuture;
+            if (pendingQuerySize == null) {
+                return querySize;
+            }
+            try {
+                final Integer size = await(pendingQuerySize);
+                if (querySizeFuture == pendingQuerySize) {
+                    setQuerySize(size);
+                }
+            } finally {
+                if (querySizeFuture == pendingQuerySize) {
+                    querySizeFuture = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the query size limited by the max query size of the query definition.
+     * @param size the size reported by the query
+     */
+    private void setQuerySize(final int size) {
+        querySize = size;
+        if (queryDefinition.getMaxQuerySize() > -1 && queryDefinition.getMaxQuerySize() < querySize) {
+            querySize = queryDefinition.getMaxQuerySize();
+        }
+    }
+
+    /**
+     * Gets current query if it is backed by item ID snapshot.
+     *
+     * @return the query or null if the query result is not backed by item ID snapshot
+     */
+    synchronized IdSnapshotQuery getIdSnapshotQuery() {
+        final IdSnapshotQuery idSnapshotQuery = ExecutorAsyncQuery.getQueryInterface(getQuery(),
+                IdSnapshotQuery.class);
+        if (idSnapshotQuery != null && idSnapshotQuery.isIdSnapshot()) {
+            return idSnapshotQuery;
         }
-        return querySize;
+        return null;
+    }
+
+    /**
+     * Gets current query if it can load items by item ID.
+     *
+     * @return the query or null if the query does not implement ItemIdQuery
+     */
+    synchronized ItemIdQuery getItemIdQuery() {
+        return ExecutorAsyncQuery.getQueryInterface(getQuery(), ItemIdQuery.class);
     }
 
     /**
@@ -396,18 +1481,48 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      */
     private Query getQuery() {
         if (query == null) {
-            queryDefinition.setSortPropertyIds(sortPropertyIds);
-            queryDefinition.setSortPropertyAscendingStates(ascendingStates);
-            query = queryFactory.constructQuery(queryDefinition);
-            querySize = query.size();
-            if (queryDefinition.getMaxQuerySize() > -1 && queryDefinition.getMaxQuerySize() < querySize) {
-                querySize = queryDefinition.getMaxQuerySize();
-            }
+            query = queryFactory.constructQuery(getQueryDefinitionSnapshot());
             queryCount++;
+            if (query instanceof AsyncQuery) {
+                // Pipeline the count and the first batches.
+                querySize = -1;
+                querySizeFuture = ((AsyncQuery) query).sizeAsync(new AsyncQueryCallback<Integer>() {
+                    @Override
+                    public void completed(final Integer result) {
+                        notifyOperationCompleted();
+                    }
+
+                    @Override
+                    public void failed(final Throwable cause) {
+                        notifyOperationCompleted();
+                    }
+                });
+                if (prefetchBatchCount > 0) {
+                    prefetchBatches(0, prefetchBatchCount * getBatchSize());
+                }
+            } else {
+                setQuerySize(query.size());
+            }
         }
         return query;
     }
 
+    /**
+     * Takes immutable snapshot of the query definition with the sort state of the view
+     * for a new query if the query definition supports snapshots. Otherwise the sort
+     * state is set to the query definition itself, which is used.
+     *
+     * @return the query definition for a new query
+     */
+    private QueryDefinition getQueryDefinitionSnapshot() {
+        if (queryDefinition instanceof LazyQueryDefinition) {
+            return ((LazyQueryDefinition) queryDefinition).snapshot(sortPropertyIds, ascendingStates);
+        }
+        queryDefinition.setSortPropertyIds(sortPropertyIds);
+        queryDefinition.setSortPropertyAscendingStates(ascendingStates);
+        return queryDefinition;
+    }
+
     /**
      * Constructs and adds item to added items and returns index. Change can be
      * committed or discarded with respective methods.
@@ -415,20 +1530,123 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      * @return index of the new item.
      */
     @Override
-    public int addItem() {
+    public synchronized int addItem() {
+        checkNotReadOnly();
         final Item item = getQuery().constructItem();
         if (item.getItemProperty(PROPERTY_ID_ITEM_STATUS) != null) {
             item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(false);
             item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setValue(QueryItemStatus.Added);
             item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(true);
         }
-        addedItems.add(0, item);
+        addedItems.addFirst(item);
         if (itemIdList instanceof NaturalNumberIdsList) {
             itemIdList = null;
         }
         return 0;
     }
 
+    /**
+     * Imports rows directly to the query in chunks of batch size and refreshes the
+     * view. Imported items are not buffered as added items. Rows can be items, maps
+     * from property IDs to values or beans whose properties are copied to items
+     * constructed by the query.
+     *
+     * @param rows     The rows to be imported.
+     * @param listener The listener notified of import progress or null.
+     * @return The number of imported items.
+     */
+    @Override
+    public synchronized int importItems(final Iterator<?> rows, final ItemImportListener listener) {
+        checkNotReadOnly();
+        if (isModified()) {
+            throw new IllegalStateException("Uncommitted changes have to be committed or discarded before import.");
+        }
+        final Query importQuery = getQuery();
+        final int chunkSize = Math.max(getBatchSize(), 1);
+        final List<Item> noItems = Collections.emptyList();
+        final List<Item> chunk = new ArrayList<Item>(chunkSize);
+        int importedCount = 0;
+        try {
+            while (rows.hasNext()) {
+                chunk.add(toImportedItem(importQuery, rows.next()));
+                if (chunk.size() == chunkSize) {
+                    importQuery.saveItems(chunk, noItems, noItems);
+                    importedCount += chunk.size();
+                    chunk.clear();
+                    if (listener != null) {
+                        listener.itemsImported(importedCount);
+                    }
+                }
+            }
+            if (!chunk.isEmpty()) {
+                importQuery.saveItems(chunk, noItems, noItems);
+                importedCount += chunk.size();
+                if (listener != null) {
+                    listener.itemsImported(importedCount);
+                }
+            }
+        } finally {
+            refresh();
+        }
+        return importedCount;
+    }
+
+    /**
+     * Constructs item with the query and copies the values of the imported row to it.
+     *
+     * @param importQuery The query constructing the item.
+     * @param row         The item, map from property IDs to values or bean.
+     * @return The constructed item.
+     */
+    private Item toImportedItem(final Query importQuery, final Object row) {
+        final Item item = importQuery.constructItem();
+        if (row instanceof Map) {
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) row).entrySet()) {
+                setImportedValue(item, entry.getKey(), entry.getValue());
+            }
+        } else {
+            final Item rowItem;
+            if (row instanceof Item) {
+                rowItem = (Item) row;
+            } else {
+                rowItem = new BeanItem<Object>(row);
+            }
+            for (final Object propertyId : rowItem.getItemPropertyIds()) {
+                setImportedValue(item, propertyId, rowItem.getItemProperty(propertyId).getValue());
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Sets imported value to the item property if the item has writable property
+     * with the given ID.
+     *
+     * @param item       The item.
+     * @param propertyId The property ID.
+     * @param value      The value.
+     */
+    private static void setImportedValue(final Item item, final Object propertyId, final Object value) {
+        if (PROPERTY_ID_ITEM_STATUS.equals(propertyId)) {
+            return;
+        }
+        final Property property = item.getItemProperty(propertyId);
+        if (property != null && !property.isReadOnly()) {
+            property.setValue(value);
+        }
+    }
+
+    /**
+     * Checks that the query definition allows editing.
+     *
+     * @throws UnsupportedOperationException if the query definition is read only.
+     */
+    private void checkNotReadOnly() {
+        if (queryDefinition instanceof LazyQueryDefinition && ((LazyQueryDefinition) queryDefinition).isReadOnly()) {
+            throw new UnsupportedOperationException("Query definition is read only.");
+        }
+    }
+
     /**
      * Event handler for value change events. Adds the item to modified list if
      * value was actually changed. Change can be committed or discarded with
@@ -437,7 +1655,10 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      * @param event the ValueChangeEvent
      */
     @Override
-    public void valueChange(final ValueChangeEvent event) {
+    public synchronized void valueChange(final ValueChangeEvent event) {
+        if (ignoringValueChanges) {
+            return;
+        }
         final Property property = event.getProperty();
         final Item item = propertyItemMapCache.get(property);
         if (property == item.getItemProperty(PROPERTY_ID_ITEM_STATUS)) {
@@ -450,7 +1671,7 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
             item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setValue(QueryItemStatus.Modified);
             item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(true);
         }
-        if (!addedItems.contains(item) && !modifiedItems.contains(item)) {
+        if (!addedItems.contains(item)) {
             modifiedItems.add(item);
         }
     }
@@ -462,9 +1683,17 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      * @param index of the item to be removed.
      */
     @Override
-    public void removeItem(final int index) {
-        final Item item = getItem(index);
+    public synchronized void removeItem(final int index) {
+        checkNotReadOnly();
+        markItemRemoved(getItem(index, true));
+    }
 
+    /**
+     * Marks item removed by adding it to the removed list.
+     *
+     * @param item the item to be removed.
+     */
+    private void markItemRemoved(final Item item) {
         if (item.getItemProperty(PROPERTY_ID_ITEM_STATUS) != null) {
             item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(false);
             item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setValue(QueryItemStatus.Removed);
@@ -484,7 +1713,8 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      * storage.
      */
     @Override
-    public void removeAllItems() {
+    public synchronized void removeAllItems() {
+        checkNotReadOnly();
         getQuery().deleteAllItems();
     }
 
@@ -494,7 +1724,7 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      * @return True if view has been modified.
      */
     @Override
-    public boolean isModified() {
+    public synchronized boolean isModified() {
         return addedItems.size() != 0 || modifiedItems.size() != 0 || removedItems.size() != 0;
     }
 
@@ -502,28 +1732,8 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      * Commits changes in the view.
      */
     @Override
-    public void commit() {
-        for (final Item item : addedItems) {
-            if (item.getItemProperty(PROPERTY_ID_ITEM_STATUS) != null) {
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(false);
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setValue(QueryItemStatus.None);
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(true);
-            }
-        }
-        for (final Item item : modifiedItems) {
-            if (item.getItemProperty(PROPERTY_ID_ITEM_STATUS) != null) {
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(false);
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setValue(QueryItemStatus.None);
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(true);
-            }
-        }
-        for (final Item item : removedItems) {
-            if (item.getItemProperty(PROPERTY_ID_ITEM_STATUS) != null) {
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(false);
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setValue(QueryItemStatus.None);
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(true);
-            }
-        }
+    public synchronized void commit() {
+        resetItemStatuses();
 
         // Reverse added items so that they are saved in order of addition.
         final List<Item> addedItemReversed = new ArrayList<Item>(addedItems);
@@ -538,38 +1748,49 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      * Discards changes in the view.
      */
     @Override
-    public void discard() {
-        for (final Item item : addedItems) {
-            if (item.getItemProperty(PROPERTY_ID_ITEM_STATUS) != null) {
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(false);
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setValue(QueryItemStatus.None);
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(true);
-            }
-        }
-        for (final Item item : modifiedItems) {
-            if (item.getItemProperty(PROPERTY_ID_ITEM_STATUS) != null) {
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(false);
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setValue(QueryItemStatus.None);
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(true);
-            }
-        }
-        for (final Item item : removedItems) {
-            if (item.getItemProperty(PROPERTY_ID_ITEM_STATUS) != null) {
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(false);
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setValue(QueryItemStatus.None);
-                item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(true);
-            }
-        }
+    public synchronized void discard() {
+        resetItemStatuses();
         addedItems.clear();
         modifiedItems.clear();
         removedItems.clear();
     }
 
+    /**
+     * Resets the status of added, modified and removed items to None in a single
+     * pass. Status changes are not tracked as modifications while resetting.
+     */
+    private void resetItemStatuses() {
+        ignoringValueChanges = true;
+        try {
+            resetItemStatuses(addedItems);
+            resetItemStatuses(modifiedItems);
+            resetItemStatuses(removedItems);
+        } finally {
+            ignoringValueChanges = false;
+        }
+    }
+
+    /**
+     * Resets the status of the given items to None.
+     *
+     * @param items the items
+     */
+    private static void resetItemStatuses(final List<Item> items) {
+        for (int i = 0; i < items.size(); i++) {
+            final Property statusProperty = items.get(i).getItemProperty(PROPERTY_ID_ITEM_STATUS);
+            if (statusProperty != null && statusProperty.getValue() != QueryItemStatus.None) {
+                statusProperty.setReadOnly(false);
+                statusProperty.setValue(QueryItemStatus.None);
+                statusProperty.setReadOnly(true);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
-    public List<Item> getAddedItems() {
+    public synchronized List<Item> getAddedItems() {
         return Collections.<Item>unmodifiableList(addedItems);
     }
 
@@ -577,7 +1798,7 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      * {@inheritDoc}
      */
     @Override
-    public List<Item> getModifiedItems() {
+    public synchronized List<Item> getModifiedItems() {
         return Collections.<Item>unmodifiableList(modifiedItems);
     }
 
@@ -585,7 +1806,7 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      * {@inheritDoc}
      */
     @Override
-    public List<Item> getRemovedItems() {
+    public synchronized List<Item> getRemovedItems() {
         return Collections.<Item>unmodifiableList(removedItems);
     }
 
@@ -594,7 +1815,7 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      *
      * @param propertyItemCacheMap the propertyItemMapCache to set
      */
-    public void setPropertyItemCacheMap(final Map<Property, Item> propertyItemCacheMap) {
+    public synchronized void setPropertyItemCacheMap(final Map<Property, Item> propertyItemCacheMap) {
         this.propertyItemMapCache = propertyItemCacheMap;
     }
 
@@ -602,7 +1823,7 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
      * Gets list of item IDs present in this view.
      * @return list of item IDs present in this view.
      */
-    public List<?> getItemIdList() {
+    public synchronized List<?> getItemIdList() {
         if (itemIdList == null) {
             if (queryDefinition.getIdPropertyId() != null) {
                 itemIdList = new LazyIdList<Object>(this, queryDefinition.getIdPropertyId());
@@ -616,24 +1837,163 @@ public final class LazyQueryView implements QueryView, ValueChangeListener {
 
     @Override
     public void addFilter(final Container.Filter filter) {
-        queryDefinition.addFilter(filter);
-        refresh();
+        updateFilters(new FilterUpdate() {
+            @Override
+            public void update(final FilterEditor editor) {
+                editor.addFilter(filter);
+            }
+        });
     }
 
     @Override
     public void removeFilter(final Container.Filter filter) {
-        queryDefinition.removeFilter(filter);
-        refresh();
+        updateFilters(new FilterUpdate() {
+            @Override
+            public void update(final FilterEditor editor) {
+                editor.removeFilter(filter);
+            }
+        });
     }
 
     @Override
     public void removeFilters() {
-        queryDefinition.removeFilters();
-        refresh();
+        updateFilters(new FilterUpdate() {
+            @Override
+            public void update(final FilterEditor editor) {
+                editor.removeFilters();
+            }
+        });
     }
 
     @Override
-    public Collection<Container.Filter> getFilters() {
+    public synchronized Collection<Container.Filter> getFilters() {
+        final List<Container.Filter> pendingFilters = filterDebouncer.getPendingFilters();
+        if (pendingFilters != null) {
+            return Collections.unmodifiableList(pendingFilters);
+        }
         return queryDefinition.getFilters();
     }
+
+    /**
+     * Applies the filter edits and refreshes the view once if the filters changed.
+     * If filter debounce is set the refresh is postponed until no filter changes
+     * have been done during the debounce window and the batch loads of the superseded
+     * filters are cancelled right away. Until then the view serves the results of
+     * the previous filters, including the row count. QueryViewListeners are notified
+     * when the changed filters are applied, whether immediately, through the filter
+     * debounce scheduler or on the first access after the debounce window.
+     *
+     * @param filterUpdate the filter edits
+     */
+    @Override
+    public void updateFilters(final FilterUpdate filterUpdate) {
+        synchronized (this) {
+            final ListFilterEditor editor = new ListFilterEditor(getFilters());
+            filterUpdate.update(editor);
+            if (!editor.isChanged()) {
+                return;
+            }
+            if (filterDebouncer.getDebounceMillis() <= 0) {
+                filterDebouncer.takePendingFilters(true);
+                setFilters(editor.getFilterList());
+            } else {
+                cancelPendingBatches();
+                filterDebouncer.setPendingFilters(editor.getFilterList());
+                scheduleApplyPendingFilters();
+            }
+        }
+        notifyPendingItemSetChange();
+    }
+
+    /**
+     * Gets the debounce window of filter changes.
+     *
+     * @return the filter debounce window in milliseconds or 0 if filters are applied immediately
+     */
+    public long getFilterDebounceMillis() {
+        return filterDebouncer.getDebounceMillis();
+    }
+
+    /**
+     * Sets the time filter changes are collected before the view is refreshed. The
+     * pending filters are applied on the first access after the window has elapsed
+     * or, if filter debounce scheduler and completion executor have been set, through
+     * the completion executor in which case QueryViewListeners are notified.
+     *
+     * @param filterDebounceMillis the filter debounce window in milliseconds or 0 to apply filters immediately
+     */
+    public void setFilterDebounceMillis(final long filterDebounceMillis) {
+        synchronized (this) {
+            filterDebouncer.setDebounceMillis(filterDebounceMillis);
+            if (filterDebounceMillis <= 0) {
+                applyPendingFilters(true);
+            }
+        }
+        notifyPendingItemSetChange();
+    }
+
+    /**
+     * @return the scheduler applying pending filters when the debounce window elapses or null
+     */
+    public ScheduledExecutorService getFilterDebounceScheduler() {
+        return filterDebouncer.getScheduler();
+    }
+
+    /**
+     * Sets the scheduler applying pending filters through the completion executor when
+     * the debounce window elapses. The scheduler is owned by the caller, which can share
+     * it between the views of a session or application and shuts it down on undeploy.
+     * Without scheduler pending filters are applied on the first access after the window.
+     *
+     * @param filterDebounceScheduler the scheduler or null
+     */
+    public synchronized void setFilterDebounceScheduler(final ScheduledExecutorService filterDebounceScheduler) {
+        filterDebouncer.setScheduler(filterDebounceScheduler);
+        if (filterDebouncer.getPendingFilters() != null) {
+            scheduleApplyPendingFilters();
+        }
+    }
+
+    /**
+     * Sets filters to query definition, refreshes the view and marks QueryViewListeners
+     * to be notified once the lock is released.
+     *
+     * @param filters the filters
+     */
+    private void setFilters(final List<Container.Filter> filters) {
+        queryDefinition.removeFilters();
+        for (final Container.Filter filter : filters) {
+            queryDefinition.addFilter(filter);
+        }
+        refresh();
+        itemSetChangePending = true;
+    }
+
+    /**
+     * Applies pending filters if the debounce window has elapsed.
+     *
+     * @param force true if pending filters are applied regardless of the debounce window
+     */
+    private void applyPendingFilters(final boolean force) {
+        final List<Container.Filter> filters = filterDebouncer.takePendingFilters(force);
+        if (filters != null) {
+            setFilters(filters);
+        }
+    }
+
+    /**
+     * Schedules pending filters to be applied through the completion executor
+     * when the debounce window elapses.
+     */
+    private void scheduleApplyPendingFilters() {
+        filterDebouncer.schedule(completionExecutor, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (LazyQueryView.this) {
+                    applyPendingFilters(false);
+                }
+                notifyPendingItemSetChange();
+            }
+        });
+    }
 }
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Container;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * FilterEditor editing a copy of the filter list of LazyQueryView.
+ */
+final class ListFilterEditor implements FilterEditor {
+    /**
+     * The edited filters.
+     */
+    private final List<Container.Filter> filters;
+    /**
+     * True if filters have been changed.
+     */
+    private boolean changed;
+
+    /**
+     * Constructor which copies the filters to be edited.
+     *
+     * @param filters the current filters
+     */
+    ListFilterEditor(final Collection<Container.Filter> filters) {
+        this.filters = new ArrayList<Container.Filter>(filters);
+    }
+
+    @Override
+    public void addFilter(final Container.Filter filter) {
+        filters.add(filter);
+        changed = true;
+    }
+
+    @Override
+    public void removeFilter(final Container.Filter filter) {
+        changed |= filters.remove(filter);
+    }
+
+    @Override
+    public void removeFilters() {
+        changed |= !filters.isEmpty();
+        filters.clear();
+    }
+
+    @Override
+    public Collection<Container.Filter> getFilters() {
+        return Collections.unmodifiableList(filters);
+    }
+
+    /**
+     * @return true if filters have been changed
+     */
+    boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * @return the edited filter list
+     */
+    List<Container.Filter> getFilterList() {
+        return filters;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous batch loads of LazyQueryView in progress by batch start index.
+ * The methods are invoked holding the view lock.
+ */
+final class PendingBatches {
+    /**
+     * The pending loads by batch start index.
+     */
+    private final Map<Integer, PendingBatch> batches = new HashMap<Integer, PendingBatch>();
+
+    /**
+     * Checks whether the batch starting at the given index is being loaded.
+     *
+     * @param batchStartIndex the batch start index
+     * @return true if the batch is being loaded
+     */
+    boolean contains(final int batchStartIndex) {
+        return batches.containsKey(batchStartIndex);
+    }
+
+    /**
+     * Adds load of the batch starting at the given index.
+     *
+     * @param batchStartIndex the batch start index
+     * @param future the future of the loaded items
+     */
+    void add(final int batchStartIndex, final Future<List<Item>> future) {
+        batches.put(batchStartIndex, new PendingBatch(future));
+    }
+
+    /**
+     * Gets the load of the batch starting at the given index.
+     *
+     * @param batchStartIndex the batch start index
+     * @return the future of the loaded items or null if the batch is not being loaded
+     */
+    Future<List<Item>> get(final int batchStartIndex) {
+        final PendingBatch pendingBatch = batches.get(batchStartIndex);
+        return pendingBatch == null ? null : pendingBatch.getFuture();
+    }
+
+    /**
+     * Removes the load of the batch starting at the given index if it has not been
+     * replaced by another load meanwhile.
+     *
+     * @param batchStartIndex the batch start index
+     * @param future the future of the loaded items
+     */
+    void remove(final int batchStartIndex, final Future<List<Item>> future) {
+        if (get(batchStartIndex) == future) {
+            batches.remove(batchStartIndex);
+        }
+    }
+
+    /**
+     * Gets the start indexes of the batches which have been loaded.
+     *
+     * @return the batch start indexes
+     */
+    List<Integer> getCompletedStartIndexes() {
+        final List<Integer> startIndexes = new ArrayList<Integer>();
+        for (final Map.Entry<Integer, PendingBatch> entry : batches.entrySet()) {
+            if (entry.getValue().getFuture().isDone()) {
+                startIndexes.add(entry.getKey());
+            }
+        }
+        return startIndexes;
+    }
+
+    /**
+     * Cancels the loads which have exceeded the load timeout.
+     *
+     * @param loadTimeout the load timeout in milliseconds or 0 for no timeout
+     */
+    void cancelTimedOut(final long loadTimeout) {
+        if (loadTimeout <= 0 || batches.isEmpty()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final Iterator<PendingBatch> pendingBatchIterator = batches.values().iterator();
+        while (pendingBatchIterator.hasNext()) {
+            final PendingBatch pendingBatch = pendingBatchIterator.next();
+            if (!pendingBatch.getFuture().isDone() && now - pendingBatch.getStartTime() > loadTimeout) {
+                pendingBatch.getFuture().cancel(true);
+                pendingBatchIterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Cancels all loads.
+     */
+    void cancelAll() {
+        for (final PendingBatch pendingBatch : batches.values()) {
+            pendingBatch.getFuture().cancel(true);
+        }
+        batches.clear();
+    }
+
+    /**
+     * Asynchronous batch load in progress.
+     */
+    private static final class PendingBatch {
+        /**
+         * The future of the loaded items.
+         */
+        private final Future<List<Item>> future;
+        /**
+         * The time when the load was started.
+         */
+        private final long startTime;
+
+        /**
+         * Constructor which sets the future of the loaded items.
+         *
+         * @param future the future of the loaded items
+         */
+        public PendingBatch(final Future<List<Item>> future) {
+            this.future = future;
+            this.startTime = System.currentTimeMillis();
+        }
+
+        /**
+         * @return the future of the loaded items
+         */
+        public Future<List<Item>> getFuture() {
+            return future;
+        }
+
+        /**
+         * @return the time when the load was started
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Placeholder items returned by LazyQueryView for items which are being loaded
+ * in background. Placeholders have the default property values and Loading item
+ * status. The methods are invoked holding the view lock.
+ */
+final class PlaceholderItems {
+    /**
+     * The placeholder items by query index.
+     */
+    private final Map<Integer, Item> items = new HashMap<Integer, Item>();
+
+    /**
+     * Gets the placeholder item at the given query index creating it on first call.
+     *
+     * @param queryDefinition the query definition of the view
+     * @param index the query index
+     * @return the placeholder item
+     */
+    @SuppressWarnings("unchecked")
+    Item get(final QueryDefinition queryDefinition, final int index) {
+        Item placeholderItem = items.get(index);
+        if (placeholderItem == null) {
+            final PropertysetItem item = new PropertysetItem();
+            for (final Object propertyId : queryDefinition.getPropertyIds()) {
+                Object value = queryDefinition.getPropertyDefaultValue(propertyId);
+                if (LazyQueryView.PROPERTY_ID_ITEM_STATUS.equals(propertyId)) {
+                    value = QueryItemStatus.Loading;
+                }
+                item.addItemProperty(propertyId, new ObjectProperty<Object>(value,
+                        (Class<Object>) queryDefinition.getPropertyType(propertyId), true));
+            }
+            placeholderItem = item;
+            items.put(index, placeholderItem);
+        }
+        return placeholderItem;
+    }
+
+    /**
+     * Removes the placeholders of the given query index range.
+     *
+     * @param startIndex the first query index
+     * @param count the number of indexes
+     * @return true if placeholders were removed
+     */
+    boolean remove(final int startIndex, final int count) {
+        boolean removed = false;
+        for (int i = startIndex; i < startIndex + count; i++) {
+            if (items.remove(i) != null) {
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return true if there are no placeholder items
+     */
+    boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * Removes all placeholder items.
+     */
+    void clear() {
+        items.clear();
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+
+import java.util.List;
+
+/**
+ * Optional extension of Query for implementations which can detect the rows changed
+ * in the backend since the query size was counted, for example by comparing a version
+ * or last modified property. LazyQueryView uses this method to patch the cached items
+ * of the changed rows instead of refreshing the whole view.
+ */
+public interface PollingQuery extends Query {
+    /**
+     * Polls the rows inserted or updated since the query size was counted or changes
+     * were last polled. Deleted rows are detected through changed row count.
+     *
+     * @return The changed rows or null if the query result has to be refreshed,
+     *         for example as the row count has changed.
+     */
+    List<Item> pollChanges();
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * In-process event bus publishing row level changes to the registered listeners,
+ * for example all the views showing the same entity type. Changes are published
+ * by invoking the QueryChangeListener methods of the bus. Listeners are referenced
+ * weakly so that views of discarded containers do not need to be removed and are
+ * not serialized with the bus.
+ */
+public final class QueryChangeBus implements QueryChangeNotifier, QueryChangeListener, Serializable {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The weakly referenced listeners.
+     */
+    private transient List<WeakReference<QueryChangeListener>> listeners =
+            new ArrayList<WeakReference<QueryChangeListener>>();
+
+    /**
+     * Special serialization to restore transient fields.
+     *
+     * @param in the input stream
+     * @throws IOException if IO exception occurs in read
+     * @throws ClassNotFoundException if class not found exception occur in read
+     */
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        listeners = new ArrayList<WeakReference<QueryChangeListener>>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void addQueryChangeListener(final QueryChangeListener listener) {
+        listeners.add(new WeakReference<QueryChangeListener>(listener));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void removeQueryChangeListener(final QueryChangeListener listener) {
+        final Iterator<WeakReference<QueryChangeListener>> iterator = listeners.iterator();
+        while (iterator.hasNext()) {
+            final QueryChangeListener registeredListener = iterator.next().get();
+            if (registeredListener == null || registeredListener == listener) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Publishes inserted or updated row to the listeners.
+     *
+     * @param itemId The value of the ID property of the row.
+     * @param item   The new state of the row or null if it has to be loaded by the queries.
+     */
+    @Override
+    public void itemUpserted(final Object itemId, final Item item) {
+        for (final QueryChangeListener listener : getListeners()) {
+            listener.itemUpserted(itemId, item);
+        }
+    }
+
+    /**
+     * Publishes deleted row to the listeners.
+     *
+     * @param itemId The value of the ID property of the row.
+     */
+    @Override
+    public void itemDeleted(final Object itemId) {
+        for (final QueryChangeListener listener : getListeners()) {
+            listener.itemDeleted(itemId);
+        }
+    }
+
+    /**
+     * Gets the listeners which have not been garbage collected and removes the
+     * references of the collected ones.
+     *
+     * @return the listeners
+     */
+    private synchronized List<QueryChangeListener> getListeners() {
+        final List<QueryChangeListener> liveListeners = new ArrayList<QueryChangeListener>(listeners.size());
+        final Iterator<WeakReference<QueryChangeListener>> iterator = listeners.iterator();
+        while (iterator.hasNext()) {
+            final QueryChangeListener listener = iterator.next().get();
+            if (listener == null) {
+                iterator.remove();
+            } else {
+                liveListeners.add(listener);
+            }
+        }
+        return liveListeners;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+
+/**
+ * Listener notified of row level changes in the backend data of a query, for
+ * example by a change data feed or an in-process event bus. Rows are identified
+ * by the value of the ID property of the query definition. Implementations
+ * may be invoked from any thread.
+ */
+public interface QueryChangeListener {
+    /**
+     * Invoked when a row has been inserted or updated.
+     *
+     * @param itemId The value of the ID property of the row.
+     * @param item   The new state of the row or null if it has to be loaded by the query.
+     */
+    void itemUpserted(Object itemId, Item item);
+
+    /**
+     * Invoked when a row has been deleted.
+     *
+     * @param itemId The value of the ID property of the row.
+     */
+    void itemDeleted(Object itemId);
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+/**
+ * Optional extension of QueryFactory, or any other source of change events,
+ * which publishes row level changes of the query results. LazyQueryView registers
+ * itself to query factories implementing this interface.
+ */
+public interface QueryChangeNotifier {
+    /**
+     * Adds listener to be notified of row level changes.
+     *
+     * @param listener the listener
+     */
+    void addQueryChangeListener(QueryChangeListener listener);
+
+    /**
+     * Removes listener.
+     *
+     * @param listener the listener
+     */
+    void removeQueryChangeListener(QueryChangeListener listener);
+}
@@ -36,5 +36,9 @@ public enum QueryItemStatus {
     /**
      * Item has been removed and needs to be deleted from storage.
      */
-    Removed
+    Removed,
+    /**
+     * Item is a placeholder for an item which is being loaded in background.
+     */
+    Loading
 }
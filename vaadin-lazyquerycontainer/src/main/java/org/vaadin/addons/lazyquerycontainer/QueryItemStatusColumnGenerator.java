@@ -52,6 +52,10 @@ public final class QueryItemStatusColumnGenerator implements ColumnGenerator, Va
      * Icon resource for removed state.
      */
     private Resource removedIconResource;
+    /**
+     * Icon resource for loading state.
+     */
+    private Resource loadingIconResource;
     /**
      * The status icon Vaadin component.
      */
@@ -78,6 +82,7 @@ public final class QueryItemStatusColumnGenerator implements ColumnGenerator, Va
         addedIconResource = new ClassResource(QueryItemStatusColumnGenerator.class, "images/textfield_add.png");
         modifiedIconResource = new ClassResource(QueryItemStatusColumnGenerator.class, "images/textfield_rename.png");
         removedIconResource = new ClassResource(QueryItemStatusColumnGenerator.class, "images/textfield_delete.png");
+        loadingIconResource = new ClassResource(QueryItemStatusColumnGenerator.class, "images/table_refresh.png");
 
         statusIcon = new Image(null, noneIconResource);
         statusIcon.setHeight("16px");
@@ -125,6 +130,9 @@ public final class QueryItemStatusColumnGenerator implements ColumnGenerator, Va
         if (status == QueryItemStatus.Removed) {
             statusIcon.setSource(removedIconResource);
         }
+        if (status == QueryItemStatus.Loading) {
+            statusIcon.setSource(loadingIconResource);
+        }
     }
 
 }
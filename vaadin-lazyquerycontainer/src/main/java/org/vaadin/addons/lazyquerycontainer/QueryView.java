@@ -19,7 +19,9 @@ import com.vaadin.data.Container;
 import com.vaadin.data.Item;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interface for sorting and browsing data from a business service.
@@ -79,6 +81,23 @@ public interface QueryView {
      */
     Item getItem(int index);
 
+    /**
+     * Gets item with the given item ID.
+     *
+     * @param itemId The item ID.
+     * @return The item or null if view does not contain item with the given ID.
+     */
+    Item getItemById(Object itemId);
+
+    /**
+     * Gets the items in the given range. Range is limited to the size of the view.
+     *
+     * @param startIndex The index of the first item.
+     * @param count      The maximum number of items.
+     * @return The items in the range.
+     */
+    List<Item> getItems(int startIndex, int count);
+
     /**
      * Adds a new item to the end of the query result set.
      *
@@ -86,6 +105,30 @@ public interface QueryView {
      */
     int addItem();
 
+    /**
+     * Imports rows directly to the query in chunks of batch size and refreshes the view.
+     * Rows can be items, maps from property IDs to values or beans.
+     *
+     * @param rows     The rows to be imported.
+     * @param listener The listener notified of import progress or null.
+     * @return The number of imported items.
+     */
+    int importItems(Iterator<?> rows, ItemImportListener listener);
+
+    /**
+     * Computes the given aggregates over the query result.
+     *
+     * @param aggregates The aggregates to be computed.
+     * @return Map from the aggregates to their values.
+     */
+    Map<Aggregate, Object> aggregate(Collection<Aggregate> aggregates);
+
+    /**
+     * Polls the rows changed in the backend and updates the changed items or
+     * refreshes the view if the changes can not be applied to the cached items.
+     */
+    void pollChanges();
+
     /**
      * Removes item at given index.
      *
@@ -157,4 +200,11 @@ public interface QueryView {
      * Gets filters.
      */
     Collection<Container.Filter> getFilters();
+
+    /**
+     * Applies the filter edits of the given update and refreshes the view once
+     * if the filters were changed.
+     * @param filterUpdate the filter edits
+     */
+    void updateFilters(final FilterUpdate filterUpdate);
 }
@@ -0,0 +1,29 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.io.Serializable;
+
+/**
+ * Listener notified when LazyQueryView changes its item set on its own, for
+ * example when placeholder items are replaced by items loaded in background.
+ */
+public interface QueryViewListener extends Serializable {
+    /**
+     * Invoked when the item set of the view has been changed.
+     */
+    void itemSetChanged();
+}
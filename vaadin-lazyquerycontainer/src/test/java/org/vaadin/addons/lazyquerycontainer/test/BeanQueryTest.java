@@ -6,6 +6,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.vaadin.addons.lazyquerycontainer.AbstractBeanQuery;
 import org.vaadin.addons.lazyquerycontainer.BeanQueryFactory;
+import org.vaadin.addons.lazyquerycontainer.DefaultValueTemplate;
 import org.vaadin.addons.lazyquerycontainer.LazyQueryDefinition;
 import org.vaadin.addons.lazyquerycontainer.LazyQueryView;
 import org.vaadin.addons.lazyquerycontainer.QueryItemStatus;
@@ -157,4 +158,23 @@ public class BeanQueryTest {
     public void testAbstractBeanQueryDefaultConstructor() {
         new MockBeanQuery();
     }
+
+    @Test
+    public void testDefaultValueTemplate() throws Exception {
+        LazyQueryDefinition queryDefinition = new LazyQueryDefinition(true, 50, null);
+        queryDefinition.addProperty("name", String.class, "default-name", true, false);
+
+        DefaultValueTemplate template = queryDefinition.getDefaultValueTemplate(MockBean.class);
+        Assert.assertSame(template, queryDefinition.getDefaultValueTemplate(MockBean.class));
+        MockBean bean = new MockBean();
+        template.apply(bean);
+        Assert.assertEquals("default-name", bean.getName());
+        Assert.assertNull(bean.getDescription());
+
+        queryDefinition.addProperty("description", String.class, "default-description", true, false);
+        template = queryDefinition.getDefaultValueTemplate(MockBean.class);
+        bean = new MockBean();
+        template.apply(bean);
+        Assert.assertEquals("default-description", bean.getDescription());
+    }
 }
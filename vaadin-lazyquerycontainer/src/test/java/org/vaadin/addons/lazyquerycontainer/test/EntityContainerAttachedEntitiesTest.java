@@ -15,16 +15,33 @@
  */
 package org.vaadin.addons.lazyquerycontainer.test;
 
+import com.vaadin.data.Container;
 import com.vaadin.data.Item;
 import com.vaadin.data.util.BeanItem;
 import com.vaadin.data.util.filter.And;
 import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.Or;
+import com.vaadin.data.util.filter.SimpleStringFilter;
 import junit.framework.Assert;
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+import org.eclipse.persistence.sessions.server.Server;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.vaadin.addons.lazyquerycontainer.Aggregate;
+import org.vaadin.addons.lazyquerycontainer.AggregateFunction;
 import org.vaadin.addons.lazyquerycontainer.CompositeItem;
+import org.vaadin.addons.lazyquerycontainer.EntityQuery;
+import org.vaadin.addons.lazyquerycontainer.EntityQueryDefinition;
+import org.vaadin.addons.lazyquerycontainer.EntityQueryFactory;
+import org.vaadin.addons.lazyquerycontainer.Exists;
+import org.vaadin.addons.lazyquerycontainer.FilterTranslationContext;
+import org.vaadin.addons.lazyquerycontainer.FilterTranslator;
+import org.vaadin.addons.lazyquerycontainer.In;
 import org.vaadin.addons.lazyquerycontainer.LazyEntityContainer;
+import org.vaadin.addons.lazyquerycontainer.LazyQueryContainer;
 import org.vaadin.addons.lazyquerycontainer.LazyQueryView;
 import org.vaadin.addons.lazyquerycontainer.NestingBeanItem;
 import org.vaadin.addons.lazyquerycontainer.QueryItemStatus;
@@ -32,6 +49,13 @@ import org.vaadin.addons.lazyquerycontainer.QueryItemStatus;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Unit test for LazyEntityContainer.
@@ -292,4 +316,298 @@ public class EntityContainerAttachedEntitiesTest {
 
         Assert.assertEquals("Verify container size", 1, entityContainer.size());
     }
+
+    /**
+     * Test for reusing the select query between batch loads.
+     */
+    @Test
+    public final void testSelectQueryReuse() {
+        entityManager.getTransaction().begin();
+        for (final String name : new String[]{"gamma", "alpha", "beta"}) {
+            final Task task = new Task();
+            task.setName(name);
+            entityManager.persist(task);
+        }
+        entityManager.getTransaction().commit();
+
+        final EntityQueryDefinition definition = new EntityQueryDefinition(true, false, false, Task.class, 2, "taskId");
+        definition.addProperty("name", String.class, "", false, true);
+        definition.setDefaultSortState(new Object[]{"name"}, new boolean[]{true});
+        final EntityQuery<Task> query = new EntityQuery<Task>(definition, entityManager);
+
+        Assert.assertEquals("Verify query size", 3, query.size());
+        Assert.assertEquals("Verify first batch", "alpha",
+                query.loadItems(0, 2).get(0).getItemProperty("name").getValue());
+        final long queryBuildTime = query.getQueryBuildTime();
+        Assert.assertTrue("Verify query build time is recorded", queryBuildTime > 0);
+        Assert.assertEquals("Verify second batch", "gamma",
+                query.loadItems(2, 2).get(0).getItemProperty("name").getValue());
+        Assert.assertEquals("Verify select query was reused", queryBuildTime, query.getQueryBuildTime());
+    }
+
+    /**
+     * Test for aggregates computed over filtered container.
+     */
+    @Test
+    public final void testAggregate() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class, ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, false, true);
+        long taskIdSum = 0;
+        entityManager.getTransaction().begin();
+        for (final String name : new String[]{"gamma", "alpha", "beta"}) {
+            final Task task = new Task();
+            task.setName(name);
+            task.setAssignee("gamma".equals(name) ? "assignee-y" : "assignee-x");
+            entityManager.persist(task);
+            entityManager.flush();
+            taskIdSum += task.getTaskId();
+        }
+        entityManager.getTransaction().commit();
+
+        final Aggregate minName = new Aggregate("name", AggregateFunction.MIN);
+        final Aggregate maxName = new Aggregate("name", AggregateFunction.MAX);
+        final Aggregate assigneeCount = new Aggregate("assignee", AggregateFunction.COUNT_DISTINCT);
+        final Aggregate taskIdTotal = new Aggregate("taskId", AggregateFunction.SUM);
+        final Map<Aggregate, Object> values = entityContainer.aggregate(
+                Arrays.asList(minName, maxName, assigneeCount, taskIdTotal));
+        Assert.assertEquals("Verify minimum", "alpha", values.get(minName));
+        Assert.assertEquals("Verify maximum", "gamma", values.get(maxName));
+        Assert.assertEquals("Verify distinct count", 2, ((Number) values.get(assigneeCount)).intValue());
+        Assert.assertEquals("Verify sum", taskIdSum, ((Number) values.get(taskIdTotal)).longValue());
+
+        entityContainer.addContainerFilter(new Compare.Equal("assignee", "assignee-x"));
+        Assert.assertEquals("Verify maximum follows filters", "beta",
+                entityContainer.aggregate("name", AggregateFunction.MAX));
+        Assert.assertEquals("Verify container size", 2, entityContainer.size());
+    }
+
+    /**
+     * Test for grouped query paging over group rows.
+     */
+    @Test
+    public final void testGrouping() {
+        entityManager.getTransaction().begin();
+        for (final String name : new String[]{"alpha", "beta", "gamma", "delta", "epsilon"}) {
+            final Task task = new Task();
+            task.setName(name);
+            task.setAssignee(name.length() == 5 ? "assignee-x" : "assignee-" + name);
+            entityManager.persist(task);
+        }
+        entityManager.getTransaction().commit();
+
+        final Aggregate taskCount = new Aggregate("taskId", AggregateFunction.COUNT);
+        final Aggregate maxName = new Aggregate("name", AggregateFunction.MAX);
+        final EntityQueryDefinition definition = new EntityQueryDefinition(true, false, false, Task.class, 2, null);
+        definition.addProperty("assignee", String.class, null, true, true);
+        definition.addProperty(taskCount, Long.class, null, true, true);
+        definition.addProperty(maxName, String.class, null, true, true);
+        definition.setGrouping(new Object[]{"assignee"}, taskCount, maxName);
+        definition.setDefaultSortState(new Object[]{taskCount, "assignee"}, new boolean[]{false, true});
+        final LazyQueryContainer container = new LazyQueryContainer(definition, new EntityQueryFactory(entityManager));
+
+        Assert.assertEquals("Verify group count", 3, container.size());
+        final Item largestGroup = container.getItem(container.getIdByIndex(0));
+        Assert.assertEquals("Verify largest group", "assignee-x", largestGroup.getItemProperty("assignee").getValue());
+        Assert.assertEquals("Verify count of largest group", 3L, largestGroup.getItemProperty(taskCount).getValue());
+        Assert.assertEquals("Verify max of largest group", "gamma", largestGroup.getItemProperty(maxName).getValue());
+        Assert.assertEquals("Verify group of second batch", "assignee-epsilon",
+                container.getItem(container.getIdByIndex(2)).getItemProperty("assignee").getValue());
+
+        container.sort(new Object[]{maxName}, new boolean[]{true});
+        Assert.assertEquals("Verify sorting by aggregate", "assignee-beta",
+                container.getItem(container.getIdByIndex(0)).getItemProperty("assignee").getValue());
+
+        entityManager.getTransaction().begin();
+        final Task unassignedTask = new Task();
+        unassignedTask.setName("zeta");
+        entityManager.persist(unassignedTask);
+        entityManager.getTransaction().commit();
+        container.refresh();
+        Assert.assertEquals("Verify group of unassigned tasks counted", 4, container.size());
+        entityManager.getTransaction().begin();
+        entityManager.remove(unassignedTask);
+        entityManager.getTransaction().commit();
+    }
+
+
+    /**
+     * Test for subquery, chunked IN and custom filter translation.
+     */
+    @Test
+    public final void testFilterTranslation() {
+        entityManager.getTransaction().begin();
+        final List<Long> taskIds = new ArrayList<Long>();
+        final String[][] authorTaskNames = new String[][]{{"open"}, {"open", "done"}, {"closed"}, {}};
+        for (int i = 0; i < authorTaskNames.length; i++) {
+            final Author author = new Author();
+            author.setName("exists-" + i);
+            entityManager.persist(author);
+            for (final String taskName : authorTaskNames[i]) {
+                final Task task = new Task();
+                task.setName(taskName);
+                task.setAuthor(author);
+                entityManager.persist(task);
+                entityManager.flush();
+                taskIds.add(task.getTaskId());
+            }
+        }
+        entityManager.getTransaction().commit();
+
+        final LazyEntityContainer<Author> authorContainer = new LazyEntityContainer<Author>(
+                entityManager, Author.class, ENTITY_CONTAINER_BATCH_SIZE, "authorId", true, false, true);
+        authorContainer.addContainerFilter(new SimpleStringFilter("name", "exists-", false, true));
+        Assert.assertEquals("Verify author count", 4, authorContainer.size());
+        authorContainer.addContainerFilter(new Exists(Task.class, "author", null));
+        Assert.assertEquals("Verify authors having tasks", 3, authorContainer.size());
+        authorContainer.addContainerFilter(new Exists(Task.class, "author", new Compare.Equal("name", "done")));
+        Assert.assertEquals("Verify authors having done tasks", 1, authorContainer.size());
+
+        final LazyEntityContainer<Task> taskContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class, ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, false, true);
+        final EntityQueryDefinition definition = (EntityQueryDefinition) taskContainer.getQueryView()
+                .getQueryDefinition();
+        definition.setMaxInValueCount(2);
+        taskContainer.addContainerFilter(new In("taskId", taskIds));
+        Assert.assertEquals("Verify IN split to chunks", taskIds.size(), taskContainer.size());
+
+        final List<Long> paddedTaskIds = new ArrayList<Long>(taskIds);
+        for (long i = 1; paddedTaskIds.size() < EntityQueryDefinition.DEFAULT_MAX_IN_PARAMETER_COUNT; i++) {
+            paddedTaskIds.add(-i);
+        }
+        final LazyEntityContainer<Task> paddedTaskContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class, ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, false, true);
+        paddedTaskContainer.addContainerFilter(new In("taskId", paddedTaskIds));
+        Assert.assertEquals("Verify IN over value limit", taskIds.size(), paddedTaskContainer.size());
+        for (int i = 0; i < paddedTaskContainer.size(); i++) {
+            Assert.assertTrue(taskIds.contains(paddedTaskContainer.getIdByIndex(i)));
+        }
+
+        final LazyEntityContainer<Task> excessTaskContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class, ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, false, true);
+        excessTaskContainer.addContainerFilter(new Or(new In("taskId", paddedTaskIds),
+                new In("taskId", Arrays.asList(-1L - paddedTaskIds.size()))));
+        try {
+            excessTaskContainer.size();
+            Assert.fail("Verify IN values over parameter limit are rejected");
+        } catch (final IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains(
+                    Integer.toString(EntityQueryDefinition.DEFAULT_MAX_IN_PARAMETER_COUNT + 1)));
+        }
+        ((EntityQueryDefinition) excessTaskContainer.getQueryView().getQueryDefinition())
+                .setMaxInParameterCount(2 * EntityQueryDefinition.DEFAULT_MAX_IN_PARAMETER_COUNT);
+        excessTaskContainer.refresh();
+        Assert.assertEquals("Verify raised parameter limit", taskIds.size(), excessTaskContainer.size());
+
+        definition.setFilterTranslator(NameLengthFilter.class, new NameLengthFilterTranslator());
+        taskContainer.addContainerFilter(new NameLengthFilter(4));
+        Assert.assertEquals("Verify custom filter translation", 3, taskContainer.size());
+    }
+
+    /**
+     * Test for fetch joining the associations of nested properties in batch query.
+     */
+    @Test
+    public final void testFetchJoins() {
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < 3; i++) {
+            final Company company = new Company();
+            company.setName("fetch-company-" + i);
+            final Author author = new Author();
+            author.setName("fetch-author-" + i);
+            author.setCompany(company);
+            final Task task = new Task();
+            task.setName("fetch-task-" + i);
+            task.setAuthor(author);
+            entityManager.persist(task);
+        }
+        entityManager.getTransaction().commit();
+
+        final QueryCounter queryCounter = new QueryCounter();
+        final Server serverSession = JpaHelper.getServerSession(entityManagerFactory);
+        serverSession.getEventManager().addListener(queryCounter);
+        try {
+            Assert.assertEquals("Verify associations fetched in batch query", 1,
+                    countBatchLoadQueries(true, queryCounter));
+            Assert.assertEquals("Verify associations loaded separately without fetch joins", 7,
+                    countBatchLoadQueries(false, queryCounter));
+        } finally {
+            serverSession.getEventManager().removeListener(queryCounter);
+        }
+    }
+
+    /**
+     * Loads the first batch of tasks with nested author and company properties with
+     * new entity manager and counts the queries executed.
+     *
+     * @param fetchJoins true if associations are fetch joined
+     * @param queryCounter the query counter
+     * @return the number of queries executed in loading the batch
+     */
+    private int countBatchLoadQueries(final boolean fetchJoins, final QueryCounter queryCounter) {
+        final EntityManager batchEntityManager = entityManagerFactory.createEntityManager();
+        try {
+            final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                    batchEntityManager, Task.class, ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, false, true);
+            final EntityQueryDefinition definition = (EntityQueryDefinition) entityContainer.getQueryView()
+                    .getQueryDefinition();
+            definition.setMaxNestedPropertyDepth(3);
+            definition.setFetchJoins(fetchJoins);
+            definition.setDefaultSortState(new Object[]{"name"}, new boolean[]{true});
+            entityContainer.addContainerProperty("author.name", String.class, "");
+            entityContainer.addContainerProperty("author.company.name", String.class, "");
+            Assert.assertEquals(3, entityContainer.size());
+
+            queryCounter.count = 0;
+            final Item item = entityContainer.getItem(entityContainer.getIdByIndex(2));
+            Assert.assertEquals("fetch-author-2", item.getItemProperty("author.name").getValue());
+            Assert.assertEquals("fetch-company-2", item.getItemProperty("author.company.name").getValue());
+            return queryCounter.count;
+        } finally {
+            batchEntityManager.close();
+        }
+    }
+
+    /**
+     * Session event listener counting the executed queries.
+     */
+    private static final class QueryCounter extends SessionEventAdapter {
+        private int count;
+
+        @Override
+        public void postExecuteQuery(final SessionEvent event) {
+            count++;
+        }
+    }
+
+    /**
+     * Custom filter passing tasks with name of the given length.
+     */
+    private static final class NameLengthFilter implements Container.Filter {
+        private final int length;
+
+        private NameLengthFilter(final int length) {
+            this.length = length;
+        }
+
+        @Override
+        public boolean passesFilter(final Object itemId, final Item item) {
+            return ((String) item.getItemProperty("name").getValue()).length() == length;
+        }
+
+        @Override
+        public boolean appliesToProperty(final Object propertyId) {
+            return "name".equals(propertyId);
+        }
+    }
+
+    /**
+     * Translator of the custom filter.
+     */
+    private static final class NameLengthFilterTranslator implements FilterTranslator<NameLengthFilter> {
+        @Override
+        public Predicate translate(final NameLengthFilter filter, final FilterTranslationContext context) {
+            final CriteriaBuilder cb = context.getCriteriaBuilder();
+            return cb.equal(cb.length((Expression) context.getPropertyPath("name")), filter.length);
+        }
+    }
 }
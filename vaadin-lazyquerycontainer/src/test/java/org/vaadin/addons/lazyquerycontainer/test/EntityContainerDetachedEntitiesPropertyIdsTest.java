@@ -22,13 +22,17 @@ import junit.framework.Assert;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import com.vaadin.data.Container;
+import org.vaadin.addons.lazyquerycontainer.EntityQueryDefinition;
 import org.vaadin.addons.lazyquerycontainer.LazyEntityContainer;
+import org.vaadin.addons.lazyquerycontainer.LazyQueryDefinition;
 import org.vaadin.addons.lazyquerycontainer.LazyQueryView;
 import org.vaadin.addons.lazyquerycontainer.QueryItemStatus;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Unit test for LazyEntityContainer.
@@ -286,4 +290,190 @@ public class EntityContainerDetachedEntitiesPropertyIdsTest {
 
         Assert.assertEquals("Verify container size", 1, entityContainer.size());
     }
+
+    /**
+     * Test for getting entities by ID without reading the item ID list.
+     */
+    @Test
+    public final void testGetEntityById() {
+        final Task taskAlpha = new Task();
+        taskAlpha.setName("alpha");
+        final Task taskBeta = new Task();
+        taskBeta.setName("beta");
+        entityManager.getTransaction().begin();
+        entityManager.persist(taskAlpha);
+        entityManager.persist(taskBeta);
+        entityManager.getTransaction().commit();
+
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, true, true);
+
+        Assert.assertEquals("Verify entity beta is found", "beta",
+                entityContainer.getEntity(taskBeta.getTaskId()).getName());
+        Assert.assertNull("Verify missing entity is not found", entityContainer.getEntity(-1L));
+
+        entityContainer.addContainerFilter(new Compare.Equal("name", "alpha"));
+
+        Assert.assertEquals("Verify entity alpha is found", "alpha",
+                entityContainer.getEntity(taskAlpha.getTaskId()).getName());
+        Assert.assertNull("Verify filtered entity is not found", entityContainer.getEntity(taskBeta.getTaskId()));
+
+        Assert.assertEquals("Verify entity alpha is found by index", taskAlpha.getTaskId(),
+                entityContainer.getIdByIndex(0));
+        Assert.assertSame("Verify indexed entity is returned", entityContainer.getEntity(0),
+                entityContainer.getEntity(taskAlpha.getTaskId()));
+    }
+
+    /**
+     * Test for read only entity container.
+     */
+    @Test
+    public final void testReadOnly() {
+        final Task taskAlpha = new Task();
+        taskAlpha.setName("alpha");
+        final Folder folder = new Folder();
+        folder.setName("folder");
+        entityManager.getTransaction().begin();
+        entityManager.persist(taskAlpha);
+        entityManager.persist(folder);
+        entityManager.getTransaction().commit();
+
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, true, true);
+        ((LazyQueryDefinition) entityContainer.getQueryView().getQueryDefinition()).setReadOnly(true);
+
+        Assert.assertEquals("Verify container size", 1, entityContainer.size());
+        final Item item = entityContainer.getItem(entityContainer.getIdByIndex(0));
+        Assert.assertEquals("Verify entity alpha is loaded", "alpha", item.getItemProperty("name").getValue());
+        Assert.assertTrue("Verify property is read only", item.getItemProperty("name").isReadOnly());
+        Assert.assertFalse("Verify entity is not managed", entityManager.contains(entityContainer.getEntity(0)));
+        Assert.assertTrue("Verify other entities stay managed", entityManager.contains(folder));
+
+        try {
+            entityContainer.addEntity();
+            Assert.fail("Verify read only container refuses new entities");
+        } catch (final UnsupportedOperationException e) {
+            Assert.assertFalse("Verify container is not modified", entityContainer.isModified());
+        }
+    }
+
+    /**
+     * Test for entity container with entity manager per operation.
+     */
+    @Test
+    public final void testEntityManagerPerOperation() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManagerFactory, Task.class, ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"name"}, new boolean[]{true});
+
+        final Task taskAlpha = entityContainer.addEntity();
+        taskAlpha.setName("alpha");
+        final Task taskBeta = entityContainer.addEntity();
+        taskBeta.setName("beta");
+        entityContainer.commit();
+
+        Assert.assertEquals("Verify entities alpha and beta are in container", 2, entityContainer.size());
+        Assert.assertEquals("Verify entity alpha is same", taskAlpha.getTaskId(),
+                entityContainer.getEntity(0).getTaskId());
+        Assert.assertFalse("Verify entity is not managed by shared entity manager",
+                entityManager.contains(entityContainer.getEntity(0)));
+
+        entityContainer.getItem(entityContainer.getIdByIndex(0)).getItemProperty("name").setValue("gamma");
+        entityContainer.removeEntity(1);
+        entityContainer.commit();
+
+        Assert.assertEquals("Verify entity gamma is in container", 1, entityContainer.size());
+        Assert.assertEquals("Verify entity alpha was renamed", "gamma", entityContainer.getEntity(0).getName());
+        Assert.assertEquals("Verify entity beta was removed", 1, ((Number) entityManager.createQuery(
+                "select count(t) from Task t").getSingleResult()).intValue());
+    }
+
+    /**
+     * Test for entity manager per operation without application managed transactions
+     * on resource local persistence unit.
+     */
+    @Test
+    public final void testEntityManagerPerOperationResourceLocal() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManagerFactory, Task.class, ENTITY_CONTAINER_BATCH_SIZE, "taskId", false, true);
+
+        final Task taskAlpha = entityContainer.addEntity();
+        taskAlpha.setName("alpha");
+        entityContainer.commit();
+
+        Assert.assertEquals("Verify entity alpha is in container", 1, entityContainer.size());
+        Assert.assertEquals("Verify entity alpha was committed", 1, ((Number) entityManager.createQuery(
+                "select count(t) from Task t").getSingleResult()).intValue());
+
+        entityContainer.removeAllItems();
+        Assert.assertEquals("Verify all entities were deleted", 0, ((Number) entityManager.createQuery(
+                "select count(t) from Task t").getSingleResult()).intValue());
+    }
+
+    /**
+     * Test for polling changed rows with version property.
+     */
+    @Test
+    public final void testPollChanges() {
+        final Task taskAlpha = new Task();
+        taskAlpha.setName("alpha");
+        final Task taskBeta = new Task();
+        taskBeta.setName("beta");
+        entityManager.getTransaction().begin();
+        entityManager.persist(taskAlpha);
+        entityManager.persist(taskBeta);
+        entityManager.getTransaction().commit();
+
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, true, true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"name"}, new boolean[]{true});
+        ((EntityQueryDefinition) entityContainer.getQueryView().getQueryDefinition()).setVersionPropertyId("version");
+        final AtomicInteger itemSetChanges = new AtomicInteger();
+        entityContainer.addItemSetChangeListener(new Container.ItemSetChangeListener() {
+            @Override
+            public void containerItemSetChange(final Container.ItemSetChangeEvent event) {
+                itemSetChanges.incrementAndGet();
+            }
+        });
+
+        Assert.assertEquals("Verify container size", 2, entityContainer.size());
+        final Item itemBeta = entityContainer.getItem(entityContainer.getIdByIndex(1));
+        entityContainer.pollChanges();
+        Assert.assertEquals("Verify unchanged rows do not refresh container", 0, itemSetChanges.get());
+
+        final EntityManager otherEntityManager = entityManagerFactory.createEntityManager();
+        otherEntityManager.getTransaction().begin();
+        otherEntityManager.find(Task.class, taskBeta.getTaskId()).setAssignee("assignee-beta");
+        otherEntityManager.getTransaction().commit();
+
+        entityContainer.pollChanges();
+        Assert.assertEquals("Verify changed row is patched", "assignee-beta",
+                itemBeta.getItemProperty("assignee").getValue());
+        Assert.assertEquals("Verify changed row does not refresh container", 0, itemSetChanges.get());
+
+        otherEntityManager.getTransaction().begin();
+        otherEntityManager.find(Task.class, taskBeta.getTaskId()).setName("aardvark");
+        otherEntityManager.getTransaction().commit();
+
+        entityContainer.pollChanges();
+        Assert.assertEquals("Verify changed sort order refreshes container", 1, itemSetChanges.get());
+        Assert.assertEquals("Verify renamed row is first", "aardvark",
+                entityContainer.getItem(entityContainer.getIdByIndex(0)).getItemProperty("name").getValue());
+
+        final Task taskGamma = new Task();
+        taskGamma.setName("gamma");
+        otherEntityManager.getTransaction().begin();
+        otherEntityManager.persist(taskGamma);
+        otherEntityManager.getTransaction().commit();
+        otherEntityManager.close();
+
+        entityContainer.pollChanges();
+        Assert.assertEquals("Verify changed row count refreshes container", 2, itemSetChanges.get());
+        Assert.assertEquals("Verify inserted row is in container", 3, entityContainer.size());
+    }
 }
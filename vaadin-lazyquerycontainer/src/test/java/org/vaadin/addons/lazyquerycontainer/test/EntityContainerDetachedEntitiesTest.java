@@ -18,17 +18,27 @@ package org.vaadin.addons.lazyquerycontainer.test;
 import com.vaadin.data.Item;
 import com.vaadin.data.util.filter.And;
 import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.Or;
+import com.vaadin.data.util.filter.SimpleStringFilter;
 import junit.framework.Assert;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.vaadin.addons.lazyquerycontainer.Aggregate;
+import org.vaadin.addons.lazyquerycontainer.AggregateFunction;
+import org.vaadin.addons.lazyquerycontainer.EntityQueryDefinition;
+import org.vaadin.addons.lazyquerycontainer.In;
 import org.vaadin.addons.lazyquerycontainer.LazyEntityContainer;
+import org.vaadin.addons.lazyquerycontainer.LazyQueryContainer;
 import org.vaadin.addons.lazyquerycontainer.LazyQueryView;
 import org.vaadin.addons.lazyquerycontainer.QueryItemStatus;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Unit test for LazyEntityContainer.
@@ -284,4 +294,236 @@ public class EntityContainerDetachedEntitiesTest {
 
         Assert.assertEquals("Verify container size", 1, entityContainer.size());
     }
+
+    /**
+     * Test for distinct values of a property with row counts.
+     */
+    @Test
+    public final void testDistinctValues() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class, ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, true, true);
+        entityManager.getTransaction().begin();
+        for (final String name : new String[]{"alpha", "beta", "gamma", "delta"}) {
+            final Task task = new Task();
+            task.setName(name);
+            task.setReporter(name.length() == 5 ? "reporter-x" : "reporter-y");
+            task.setAssignee("beta".equals(name) ? null : "assignee-" + name.charAt(0));
+            entityManager.persist(task);
+        }
+        entityManager.getTransaction().commit();
+        entityContainer.addContainerFilter(new Compare.Equal("reporter", "reporter-x"));
+        entityContainer.addContainerFilter(new Compare.Equal("assignee", "assignee-a"));
+
+        final Aggregate rowCount = new Aggregate("reporter", AggregateFunction.COUNT_ROWS);
+        final LazyQueryContainer reporters = entityContainer.getDistinctValues("reporter", false);
+        Assert.assertEquals("Verify distinct value count", 2, reporters.size());
+        final Item reporterX = reporters.getItem(reporters.getIdByIndex(0));
+        Assert.assertEquals("Verify first value", "reporter-x", reporterX.getItemProperty("reporter").getValue());
+        Assert.assertEquals("Verify row count of value", 3L, reporterX.getItemProperty(rowCount).getValue());
+
+        final Aggregate assigneeRowCount = new Aggregate("assignee", AggregateFunction.COUNT_ROWS);
+        final LazyQueryContainer filteredAssignees = entityContainer.getDistinctValues("assignee", true);
+        Assert.assertEquals("Verify values are restricted by other filters", 3, filteredAssignees.size());
+        final Item assigneeA = filteredAssignees.getItem(filteredAssignees.getIdByIndex(0));
+        Assert.assertEquals("Verify filter of the property is not applied", "assignee-a",
+                assigneeA.getItemProperty("assignee").getValue());
+        Assert.assertEquals("Verify row count of value", 1L, assigneeA.getItemProperty(assigneeRowCount).getValue());
+
+        final LazyQueryContainer assignees = entityContainer.getDistinctValues("assignee", false);
+        Assert.assertEquals("Verify null is a distinct value", 4, assignees.size());
+        boolean nullCounted = false;
+        for (final Object itemId : assignees.getItemIds()) {
+            final Item assignee = assignees.getItem(itemId);
+            if (assignee.getItemProperty("assignee").getValue() == null) {
+                nullCounted = Long.valueOf(1L).equals(assignee.getItemProperty(assigneeRowCount).getValue());
+            }
+        }
+        Assert.assertTrue("Verify rows with null value are counted", nullCounted);
+    }
+
+    @Test
+    public final void testFilterTranslation() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class, ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, true, true);
+        entityManager.getTransaction().begin();
+        for (final String name : new String[]{"Alpha", "alphabet", "Beta", "gamma"}) {
+            final Task task = new Task();
+            task.setName(name);
+            entityManager.persist(task);
+        }
+        entityManager.getTransaction().commit();
+
+        entityContainer.addContainerFilter(new SimpleStringFilter("name", "alpha", false, true));
+        Assert.assertEquals("Verify case sensitive prefix filter", 1, entityContainer.size());
+        entityContainer.removeAllContainerFilters();
+        entityContainer.addContainerFilter(new SimpleStringFilter("name", "ALPHA", true, true));
+        Assert.assertEquals("Verify case insensitive prefix filter", 2, entityContainer.size());
+        entityContainer.removeAllContainerFilters();
+        entityContainer.addContainerFilter(new SimpleStringFilter("name", "ET", true, false));
+        Assert.assertEquals("Verify case insensitive contains filter", 2, entityContainer.size());
+        entityContainer.removeAllContainerFilters();
+
+        entityContainer.addContainerFilter(new Or(new Compare.Equal("name", "Beta"),
+                new Compare.Equal("name", "gamma"), new Compare.Equal("name", "delta")));
+        Assert.assertEquals("Verify or of equals", 2, entityContainer.size());
+        entityContainer.removeAllContainerFilters();
+        entityContainer.addContainerFilter(new In("name", Arrays.asList("Alpha", "gamma")));
+        Assert.assertEquals("Verify in filter", 2, entityContainer.size());
+        entityContainer.removeAllContainerFilters();
+        entityContainer.addContainerFilter(new In("name", Arrays.asList()));
+        Assert.assertEquals("Verify empty in filter", 0, entityContainer.size());
+    }
+
+    @Test
+    public final void testNavigationById() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class, 2, "taskId", true, true, true);
+        entityManager.getTransaction().begin();
+        final List<Task> tasks = new ArrayList<Task>();
+        for (final String name : new String[]{"a", "b", "c", "d", "e"}) {
+            final Task task = new Task();
+            task.setName(name);
+            entityManager.persist(task);
+            tasks.add(task);
+        }
+        entityManager.getTransaction().commit();
+        entityContainer.sort(new Object[]{"name"}, new boolean[]{true});
+
+        Assert.assertFalse("Verify unknown ID is not last", entityContainer.isLastId(-1L));
+        Assert.assertEquals("Verify index of unknown ID", -1, entityContainer.indexOfId(-1L));
+        Assert.assertTrue("Verify last ID", entityContainer.isLastId(tasks.get(4).getTaskId()));
+        Assert.assertFalse("Verify first ID is not last", entityContainer.isLastId(tasks.get(0).getTaskId()));
+        Object itemId = entityContainer.firstItemId();
+        for (int i = 1; i < tasks.size(); i++) {
+            itemId = entityContainer.nextItemId(itemId);
+            Assert.assertEquals("Verify next ID", tasks.get(i).getTaskId(), itemId);
+        }
+        Assert.assertNull("Verify no ID after last", entityContainer.nextItemId(itemId));
+    }
+
+    @Test
+    public final void testIdSnapshot() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class, 2, "taskId", true, true, true);
+        ((EntityQueryDefinition) entityContainer.getQueryView().getQueryDefinition()).setIdSnapshot(true);
+        entityManager.getTransaction().begin();
+        for (final String name : new String[]{"d", "b", "e", "c"}) {
+            final Task task = new Task();
+            task.setName(name);
+            entityManager.persist(task);
+        }
+        entityManager.getTransaction().commit();
+        entityContainer.sort(new Object[]{"name"}, new boolean[]{true});
+
+        Assert.assertEquals("Verify snapshot size", 4, entityContainer.size());
+        final Object firstId = entityContainer.getIdByIndex(0);
+        final Object lastId = entityContainer.getIdByIndex(3);
+        Assert.assertEquals("Verify index of ID", 3, entityContainer.indexOfId(lastId));
+        Assert.assertEquals("Verify index of unknown ID", -1, entityContainer.indexOfId(-1L));
+        Assert.assertEquals("Verify ID resolved without loading item", "e",
+                entityContainer.getItem(lastId).getItemProperty("name").getValue());
+
+        entityManager.getTransaction().begin();
+        final Task insertedTask = new Task();
+        insertedTask.setName("a");
+        entityManager.persist(insertedTask);
+        entityManager.getTransaction().commit();
+
+        Assert.assertEquals("Verify snapshot is not affected by inserts", 4, entityContainer.size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals("Verify stable paging", String.valueOf((char) ('b' + i)),
+                    entityContainer.getItem(entityContainer.getIdByIndex(i)).getItemProperty("name").getValue());
+        }
+        Assert.assertEquals("Verify first ID", firstId, entityContainer.getIdByIndex(0));
+        final List<?> rangeIds = entityContainer.getItemIds(1, 10);
+        Assert.assertEquals("Verify range is limited to snapshot size", 3, rangeIds.size());
+        for (int i = 0; i < rangeIds.size(); i++) {
+            Assert.assertEquals("Verify range ID", entityContainer.getIdByIndex(i + 1), rangeIds.get(i));
+        }
+
+        entityContainer.refresh();
+        Assert.assertEquals("Verify refresh takes new snapshot", 5, entityContainer.size());
+        Assert.assertEquals("Verify inserted row", insertedTask.getTaskId(), entityContainer.getIdByIndex(0));
+    }
+
+    @Test
+    public final void testIdSnapshotDeletedRow() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class, 10, "taskId", true, true, true);
+        ((EntityQueryDefinition) entityContainer.getQueryView().getQueryDefinition()).setIdSnapshot(true);
+        entityContainer.addContainerProperty(LazyQueryView.PROPERTY_ID_ITEM_STATUS, QueryItemStatus.class,
+                QueryItemStatus.None, true, false);
+        entityManager.getTransaction().begin();
+        final List<Task> tasks = new ArrayList<Task>();
+        for (final String name : new String[]{"a", "b", "c", "d", "e"}) {
+            final Task task = new Task();
+            task.setName(name);
+            entityManager.persist(task);
+            tasks.add(task);
+        }
+        entityManager.getTransaction().commit();
+        entityContainer.sort(new Object[]{"name"}, new boolean[]{true});
+        Assert.assertEquals("Verify snapshot size", 5, entityContainer.size());
+
+        entityManager.getTransaction().begin();
+        entityManager.remove(tasks.get(2));
+        entityManager.getTransaction().commit();
+
+        Assert.assertEquals("Verify snapshot size after delete", 5, entityContainer.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            final Object itemId = entityContainer.getIdByIndex(i);
+            Assert.assertEquals("Verify snapshot ID", tasks.get(i).getTaskId(), itemId);
+            Assert.assertEquals("Verify item is in its snapshot position", itemId,
+                    entityContainer.getItem(itemId).getItemProperty("taskId").getValue());
+        }
+        Assert.assertEquals("Verify item after deleted row", "d",
+                entityContainer.getItem(entityContainer.getIdByIndex(3)).getItemProperty("name").getValue());
+        final Item deletedItem = entityContainer.getItem(entityContainer.getIdByIndex(2));
+        Assert.assertEquals("Verify deleted row status", QueryItemStatus.Removed,
+                deletedItem.getItemProperty(LazyQueryView.PROPERTY_ID_ITEM_STATUS).getValue());
+        Assert.assertTrue("Verify deleted row is read only", deletedItem.getItemProperty("name").isReadOnly());
+        Assert.assertEquals("Verify item status of following row", QueryItemStatus.None,
+                entityContainer.getItem(entityContainer.getIdByIndex(4))
+                        .getItemProperty(LazyQueryView.PROPERTY_ID_ITEM_STATUS).getValue());
+
+        entityContainer.commit();
+        Assert.assertEquals("Verify commit does not delete rows", 4L,
+                entityManager.createQuery("select count(t) from Task t").getSingleResult());
+    }
+
+    @Test
+    public final void testIdSnapshotPagedByKey() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class, 10, "taskId", true, true, true);
+        final EntityQueryDefinition queryDefinition =
+                (EntityQueryDefinition) entityContainer.getQueryView().getQueryDefinition();
+        queryDefinition.setIdSnapshot(true);
+        queryDefinition.setIdSnapshotPageSize(2);
+        entityManager.getTransaction().begin();
+        final List<Task> tasks = new ArrayList<Task>();
+        for (final String name : new String[]{"b", null, "a", "b", null, "c", "b"}) {
+            final Task task = new Task();
+            task.setName(name);
+            entityManager.persist(task);
+            tasks.add(task);
+        }
+        entityManager.getTransaction().commit();
+
+        // nulls are ordered first in ascending order and ties are ordered by ID
+        final int[] ascendingOrder = new int[]{1, 4, 2, 0, 3, 6, 5};
+        entityContainer.sort(new Object[]{"name"}, new boolean[]{true});
+        Assert.assertEquals("Verify snapshot size", tasks.size(), entityContainer.size());
+        for (int i = 0; i < ascendingOrder.length; i++) {
+            Assert.assertEquals("Verify ascending snapshot ID", tasks.get(ascendingOrder[i]).getTaskId(),
+                    entityContainer.getIdByIndex(i));
+        }
+
+        final int[] descendingOrder = new int[]{5, 0, 3, 6, 2, 1, 4};
+        entityContainer.sort(new Object[]{"name"}, new boolean[]{false});
+        Assert.assertEquals("Verify snapshot size", tasks.size(), entityContainer.size());
+        for (int i = 0; i < descendingOrder.length; i++) {
+            Assert.assertEquals("Verify descending snapshot ID", tasks.get(descendingOrder[i]).getTaskId(),
+                    entityContainer.getIdByIndex(i));
+        }
+    }
 }
@@ -0,0 +1,255 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer.test;
+
+import com.vaadin.data.Item;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vaadin.addons.lazyquerycontainer.AggregateFunction;
+import org.vaadin.addons.lazyquerycontainer.AggregateQuery;
+import org.vaadin.addons.lazyquerycontainer.AsyncQuery;
+import org.vaadin.addons.lazyquerycontainer.EntityQueryDefinition;
+import org.vaadin.addons.lazyquerycontainer.EntityQueryFactory;
+import org.vaadin.addons.lazyquerycontainer.ExecutorAsyncQuery;
+import org.vaadin.addons.lazyquerycontainer.ExecutorAsyncQueryFactory;
+import org.vaadin.addons.lazyquerycontainer.HierarchicalQuery;
+import org.vaadin.addons.lazyquerycontainer.IdSnapshotQuery;
+import org.vaadin.addons.lazyquerycontainer.ItemIdQuery;
+import org.vaadin.addons.lazyquerycontainer.LazyHierarchicalContainer;
+import org.vaadin.addons.lazyquerycontainer.LazyQueryContainer;
+import org.vaadin.addons.lazyquerycontainer.LazyQueryDefinition;
+import org.vaadin.addons.lazyquerycontainer.PollingQuery;
+import org.vaadin.addons.lazyquerycontainer.Query;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Unit test for the optional query interfaces of queries wrapped by ExecutorAsyncQueryFactory.
+ */
+public class ExecutorAsyncQueryTest {
+    /**
+     * Batch size for the containers.
+     */
+    private static final int BATCH_SIZE = 2;
+    /**
+     * The JPA EntityManagerFactory.
+     */
+    private static EntityManagerFactory entityManagerFactory =
+            Persistence.createEntityManagerFactory("vaadin-lazyquerycontainer-test");
+    /**
+     * The JPA EntityManager.
+     */
+    private EntityManager entityManager;
+    /**
+     * The executor running the query operations.
+     */
+    private ExecutorService executor;
+    /**
+     * The persisted tasks in name order.
+     */
+    private List<Task> tasks;
+
+    /**
+     * Unit test setup.
+     */
+    @Before
+    public void before() {
+        executor = Executors.newFixedThreadPool(2);
+        entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createQuery("delete from Task").executeUpdate();
+        entityManager.createQuery("update Folder f set f.parent = null").executeUpdate();
+        entityManager.createQuery("delete from Folder").executeUpdate();
+        tasks = new ArrayList<Task>();
+        for (final String name : new String[]{"alpha", "beta", "gamma"}) {
+            final Task task = new Task();
+            task.setName(name);
+            entityManager.persist(task);
+            tasks.add(task);
+        }
+        entityManager.getTransaction().commit();
+    }
+
+    /**
+     * Unit test teardown.
+     */
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Constructs task query definition.
+     *
+     * @return the query definition
+     */
+    private EntityQueryDefinition createTaskQueryDefinition() {
+        final EntityQueryDefinition queryDefinition = new EntityQueryDefinition(true, true, true,
+                Task.class, BATCH_SIZE, "taskId");
+        queryDefinition.addProperty("taskId", Long.class, 0L, true, true);
+        queryDefinition.addProperty("name", String.class, "", true, true);
+        queryDefinition.addProperty("assignee", String.class, "", true, true);
+        queryDefinition.addProperty("version", Long.class, 0L, true, true);
+        queryDefinition.setDefaultSortState(new Object[]{"name"}, new boolean[]{true});
+        return queryDefinition;
+    }
+
+    /**
+     * Constructs container loading tasks through ExecutorAsyncQueryFactory.
+     *
+     * @param queryDefinition the query definition
+     * @return the container
+     */
+    private LazyQueryContainer createTaskContainer(final EntityQueryDefinition queryDefinition) {
+        return new LazyQueryContainer(queryDefinition,
+                new ExecutorAsyncQueryFactory(new EntityQueryFactory(entityManager), executor));
+    }
+
+    /**
+     * Test for query interfaces supported by the adapter.
+     */
+    @Test
+    public final void testQueryInterfaces() {
+        final Query entityQuery = new ExecutorAsyncQueryFactory(new EntityQueryFactory(entityManager), executor)
+                .constructQuery(createTaskQueryDefinition());
+        Assert.assertTrue("Verify query is adapted", entityQuery instanceof ExecutorAsyncQuery);
+        Assert.assertNotNull("Verify async query", ExecutorAsyncQuery.getQueryInterface(entityQuery,
+                AsyncQuery.class));
+        Assert.assertNotNull("Verify aggregate query", ExecutorAsyncQuery.getQueryInterface(entityQuery,
+                AggregateQuery.class));
+        Assert.assertNotNull("Verify item ID query", ExecutorAsyncQuery.getQueryInterface(entityQuery,
+                ItemIdQuery.class));
+        Assert.assertNotNull("Verify polling query", ExecutorAsyncQuery.getQueryInterface(entityQuery,
+                PollingQuery.class));
+        Assert.assertNotNull("Verify hierarchical query", ExecutorAsyncQuery.getQueryInterface(entityQuery,
+                HierarchicalQuery.class));
+        Assert.assertNotNull("Verify ID snapshot query", ExecutorAsyncQuery.getQueryInterface(entityQuery,
+                IdSnapshotQuery.class));
+
+        final LazyQueryDefinition mockDefinition = new LazyQueryDefinition(true, BATCH_SIZE, null);
+        final MockQueryFactory mockFactory = new MockQueryFactory(1, 0, 0);
+        mockFactory.setQueryDefinition(mockDefinition);
+        final Query mockQuery = new ExecutorAsyncQueryFactory(mockFactory, executor).constructQuery(mockDefinition);
+        Assert.assertNotNull("Verify async mock query", ExecutorAsyncQuery.getQueryInterface(mockQuery,
+                AsyncQuery.class));
+        Assert.assertNull("Verify mock query is not aggregate query", ExecutorAsyncQuery.getQueryInterface(
+                mockQuery, AggregateQuery.class));
+        Assert.assertNull("Verify mock query is not item ID query", ExecutorAsyncQuery.getQueryInterface(
+                mockQuery, ItemIdQuery.class));
+        Assert.assertFalse("Verify mock query has no ID snapshot", ((IdSnapshotQuery) mockQuery).isIdSnapshot());
+    }
+
+    /**
+     * Test for aggregates behind the adapter.
+     */
+    @Test
+    public final void testAggregate() {
+        final LazyQueryContainer container = createTaskContainer(createTaskQueryDefinition());
+        Assert.assertEquals("Verify maximum", "gamma", container.aggregate("name", AggregateFunction.MAX));
+        Assert.assertEquals("Verify count", 3, ((Number) container.aggregate("taskId",
+                AggregateFunction.COUNT)).intValue());
+    }
+
+    /**
+     * Test for loading items by ID behind the adapter.
+     */
+    @Test
+    public final void testItemIdQuery() {
+        final LazyQueryContainer container = createTaskContainer(createTaskQueryDefinition());
+        final Item item = container.getItem(tasks.get(2).getTaskId());
+        Assert.assertNotNull("Verify item is loaded by ID", item);
+        Assert.assertEquals("Verify item", "gamma", item.getItemProperty("name").getValue());
+    }
+
+    /**
+     * Test for polling changes behind the adapter.
+     */
+    @Test
+    public final void testPollingQuery() {
+        final EntityQueryDefinition queryDefinition = createTaskQueryDefinition();
+        queryDefinition.setVersionPropertyId("version");
+        final LazyQueryContainer container = createTaskContainer(queryDefinition);
+        Assert.assertEquals("Verify container size", 3, container.size());
+        final Item itemBeta = container.getItem(container.getIdByIndex(1));
+
+        final EntityManager otherEntityManager = entityManagerFactory.createEntityManager();
+        otherEntityManager.getTransaction().begin();
+        otherEntityManager.find(Task.class, tasks.get(1).getTaskId()).setAssignee("assignee-beta");
+        otherEntityManager.getTransaction().commit();
+        otherEntityManager.close();
+
+        container.pollChanges();
+        Assert.assertEquals("Verify changed row is patched", "assignee-beta",
+                itemBeta.getItemProperty("assignee").getValue());
+    }
+
+    /**
+     * Test for ID snapshot behind the adapter.
+     */
+    @Test
+    public final void testIdSnapshotQuery() {
+        final EntityQueryDefinition queryDefinition = createTaskQueryDefinition();
+        queryDefinition.setIdSnapshot(true);
+        final LazyQueryContainer container = createTaskContainer(queryDefinition);
+        Assert.assertEquals("Verify container size", 3, container.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            Assert.assertEquals("Verify snapshot ID", tasks.get(i).getTaskId(), container.getIdByIndex(i));
+        }
+        Assert.assertEquals("Verify index of ID", 2, container.indexOfId(tasks.get(2).getTaskId()));
+    }
+
+    /**
+     * Test for resolving children states behind the adapter.
+     */
+    @Test
+    public final void testHierarchicalQuery() {
+        entityManager.getTransaction().begin();
+        final Folder folderAlpha = new Folder();
+        folderAlpha.setName("alpha");
+        entityManager.persist(folderAlpha);
+        final Folder folderBeta = new Folder();
+        folderBeta.setName("beta");
+        entityManager.persist(folderBeta);
+        final Folder folderAlphaOne = new Folder();
+        folderAlphaOne.setName("alpha-1");
+        folderAlphaOne.setParent(folderAlpha);
+        entityManager.persist(folderAlphaOne);
+        entityManager.getTransaction().commit();
+
+        final EntityQueryDefinition queryDefinition = new EntityQueryDefinition(true, true, false,
+                Folder.class, BATCH_SIZE, "folderId");
+        queryDefinition.addProperty("folderId", Long.class, null, true, true);
+        queryDefinition.addProperty("name", String.class, "", true, true);
+        queryDefinition.addProperty("parent.folderId", Long.class, null, true, false);
+        queryDefinition.setDefaultSortState(new Object[]{"name"}, new boolean[]{true});
+        queryDefinition.setMaxNestedPropertyDepth(1);
+        final LazyHierarchicalContainer container = new LazyHierarchicalContainer(queryDefinition,
+                new ExecutorAsyncQueryFactory(new EntityQueryFactory(entityManager), executor), "parent.folderId");
+
+        Assert.assertTrue("Verify alpha has children", container.hasChildren(folderAlpha.getFolderId()));
+        Assert.assertFalse("Verify beta has no children", container.hasChildren(folderBeta.getFolderId()));
+        Assert.assertEquals("Verify parent of child", folderAlpha.getFolderId(),
+                container.getParent(folderAlphaOne.getFolderId()));
+    }
+}
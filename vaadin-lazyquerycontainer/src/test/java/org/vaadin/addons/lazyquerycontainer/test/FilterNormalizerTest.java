@@ -0,0 +1,68 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer.test;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.util.filter.And;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.Not;
+import com.vaadin.data.util.filter.Or;
+import junit.framework.TestCase;
+import org.vaadin.addons.lazyquerycontainer.FilterNormalizer;
+import org.vaadin.addons.lazyquerycontainer.In;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * JUnit test for testing FilterNormalizer implementation.
+ */
+public class FilterNormalizerTest extends TestCase {
+
+    public void testFlattenJunctions() {
+        final Container.Filter a = new Compare.Equal("name", "a");
+        final Container.Filter b = new Compare.Greater("reporter", "b");
+        final Container.Filter c = new Compare.Less("assignee", "c");
+        assertEquals(new And(a, b, c), FilterNormalizer.normalize(new And(a, new And(b, new And(c, a)))));
+        assertEquals(a, FilterNormalizer.normalize(new And(new And(a), a)));
+    }
+
+    public void testOrToIn() {
+        final Container.Filter or = new Or(new Compare.Equal("name", "a"), new Or(new Compare.Equal("name", "b"),
+                new In("name", Arrays.asList("c", "a"))));
+        assertEquals(new In("name", Arrays.asList("a", "b", "c")), FilterNormalizer.normalize(or));
+        final Container.Filter other = new Compare.Equal("reporter", "x");
+        assertEquals(new Or(new In("name", Arrays.asList("a", "b")), other),
+                FilterNormalizer.normalize(new Or(new Compare.Equal("name", "a"), other,
+                        new Compare.Equal("name", "b"))));
+        assertEquals(new Compare.Equal("name", "a"),
+                FilterNormalizer.normalize(new Or(new Compare.Equal("name", "a"), new Compare.Equal("name", "a"))));
+    }
+
+    public void testEmptyIn() {
+        final In empty = new In("name", Collections.emptyList());
+        final Container.Filter a = new Compare.Equal("name", "a");
+        assertEquals(empty, FilterNormalizer.normalize(new And(a, empty)));
+        assertEquals(a, FilterNormalizer.normalize(new Or(empty, a)));
+    }
+
+    public void testDoubleNegation() {
+        final Container.Filter a = new Compare.Equal("name", "a");
+        assertEquals(a, FilterNormalizer.normalize(new Not(new Not(a))));
+        assertEquals(new Not(a), FilterNormalizer.normalize(new Not(new Not(new Not(a)))));
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer.test;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import java.io.Serializable;
+
+/**
+ * Folder entity for JPA hierarchy testing.
+ */
+@Entity
+
+public final class Folder implements Serializable {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Unique identifier of the folder.
+     */
+    @Id
+    @GeneratedValue
+    private long folderId;
+    /**
+     * Name of the folder.
+     */
+    private String name;
+    /**
+     * Parent folder or null for root folders.
+     */
+    @ManyToOne
+    private Folder parent;
+
+    /**
+     * @return the folderId
+     */
+    public long getFolderId() {
+        return folderId;
+    }
+
+    /**
+     * @param folderId the folderId to set
+     */
+    public void setFolderId(final long folderId) {
+        this.folderId = folderId;
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name the name to set
+     */
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the parent
+     */
+    public Folder getParent() {
+        return parent;
+    }
+
+    /**
+     * @param parent the parent to set
+     */
+    public void setParent(final Folder parent) {
+        this.parent = parent;
+    }
+
+    @Override
+    public String toString() {
+        return "Folder name: " + name;
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer.test;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+import junit.framework.TestCase;
+import org.vaadin.addons.lazyquerycontainer.ItemChangeList;
+
+/**
+ * JUnit test for testing ItemChangeList implementation.
+ */
+public class ItemChangeListTest extends TestCase {
+
+    private Item constructItem(final int index) {
+        final PropertysetItem item = new PropertysetItem();
+        item.addItemProperty("Index", new ObjectProperty<Integer>(index));
+        return item;
+    }
+
+    public void testOrder() {
+        final ItemChangeList list = new ItemChangeList();
+        final Item[] items = new Item[100];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = constructItem(i);
+            if (i % 2 == 0) {
+                list.addFirst(items[i]);
+            } else {
+                list.add(items[i]);
+            }
+        }
+        assertEquals(items.length, list.size());
+        assertSame(items[98], list.get(0));
+        assertSame(items[0], list.get(49));
+        assertSame(items[1], list.get(50));
+        assertSame(items[99], list.get(99));
+    }
+
+    public void testIdentityMembership() {
+        final ItemChangeList list = new ItemChangeList();
+        final Item item = constructItem(0);
+        final PropertysetItem equalItem = new PropertysetItem();
+        equalItem.addItemProperty("Index", item.getItemProperty("Index"));
+        assertEquals(item, equalItem);
+        assertTrue(list.add(item));
+        assertFalse(list.addFirst(item));
+        assertEquals(1, list.size());
+        assertTrue(list.contains(item));
+        assertFalse(list.contains(equalItem));
+        list.clear();
+        assertEquals(0, list.size());
+        assertFalse(list.contains(item));
+    }
+
+}
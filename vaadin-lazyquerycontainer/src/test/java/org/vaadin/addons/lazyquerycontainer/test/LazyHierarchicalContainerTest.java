@@ -0,0 +1,168 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer.test;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.vaadin.addons.lazyquerycontainer.EntityQueryDefinition;
+import org.vaadin.addons.lazyquerycontainer.EntityQueryFactory;
+import org.vaadin.addons.lazyquerycontainer.LazyHierarchicalContainer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Unit test for LazyHierarchicalContainer.
+ */
+public class LazyHierarchicalContainerTest {
+    /**
+     * Batch size for hierarchical container.
+     */
+    private static final int BATCH_SIZE = 2;
+    /**
+     * The JPA EntityManagerFactory.
+     */
+    private static EntityManagerFactory entityManagerFactory =
+            Persistence.createEntityManagerFactory("vaadin-lazyquerycontainer-test");
+    /**
+     * The JPA EntityManager.
+     */
+    private EntityManager entityManager;
+    /**
+     * The root folder with children.
+     */
+    private Folder folderAlpha;
+    /**
+     * The child folder with children.
+     */
+    private Folder folderAlphaOne;
+    /**
+     * The leaf folder.
+     */
+    private Folder folderAlphaOneLeaf;
+    /**
+     * The container under test.
+     */
+    private LazyHierarchicalContainer container;
+
+    /**
+     * Unit test setup.
+     */
+    @Before
+    public void before() {
+        entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createQuery("update Folder f set f.parent = null").executeUpdate();
+        entityManager.createQuery("delete from Folder").executeUpdate();
+        folderAlpha = persistFolder("alpha", null);
+        persistFolder("beta", null);
+        folderAlphaOne = persistFolder("alpha-1", folderAlpha);
+        persistFolder("alpha-2", folderAlpha);
+        persistFolder("alpha-3", folderAlpha);
+        folderAlphaOneLeaf = persistFolder("alpha-1-leaf", folderAlphaOne);
+        entityManager.getTransaction().commit();
+
+        final EntityQueryDefinition queryDefinition = new EntityQueryDefinition(true, true, false,
+                Folder.class, BATCH_SIZE, "folderId");
+        queryDefinition.addProperty("folderId", Long.class, null, true, true);
+        queryDefinition.addProperty("name", String.class, "", true, true);
+        queryDefinition.addProperty("parent.folderId", Long.class, null, true, false);
+        queryDefinition.setDefaultSortState(new Object[]{"name"}, new boolean[]{true});
+        queryDefinition.setMaxNestedPropertyDepth(1);
+        container = new LazyHierarchicalContainer(queryDefinition, new EntityQueryFactory(entityManager),
+                "parent.folderId");
+    }
+
+    /**
+     * Persists new folder.
+     *
+     * @param name   the name of the folder
+     * @param parent the parent folder or null
+     * @return the folder
+     */
+    private Folder persistFolder(final String name, final Folder parent) {
+        final Folder folder = new Folder();
+        folder.setName(name);
+        folder.setParent(parent);
+        entityManager.persist(folder);
+        return folder;
+    }
+
+    /**
+     * Gets names of the given folders in order.
+     *
+     * @param itemIds the item IDs of the folders
+     * @return the names
+     */
+    private List<Object> getNames(final Collection<?> itemIds) {
+        final List<Object> names = new ArrayList<Object>();
+        for (final Object itemId : itemIds) {
+            names.add(container.getItem(itemId).getItemProperty("name").getValue());
+        }
+        return names;
+    }
+
+    /**
+     * Test for navigating the hierarchy.
+     */
+    @Test
+    public final void testHierarchy() {
+        final List<Object> rootItemIds = new ArrayList<Object>(container.rootItemIds());
+        Assert.assertEquals("Verify root folders", "[alpha, beta]", getNames(rootItemIds).toString());
+        Assert.assertTrue("Verify alpha has children", container.hasChildren(rootItemIds.get(0)));
+        Assert.assertFalse("Verify beta has no children", container.areChildrenAllowed(rootItemIds.get(1)));
+        Assert.assertTrue("Verify beta has no children loaded", container.getChildren(rootItemIds.get(1)).isEmpty());
+        Assert.assertTrue("Verify alpha is root", container.isRoot(rootItemIds.get(0)));
+
+        final Collection<?> childItemIds = container.getChildren(folderAlpha.getFolderId());
+        Assert.assertEquals("Verify children are loaded over batches", "[alpha-1, alpha-2, alpha-3]",
+                getNames(childItemIds).toString());
+        Assert.assertEquals("Verify parent of child", folderAlpha.getFolderId(),
+                container.getParent(folderAlphaOne.getFolderId()));
+        Assert.assertTrue("Verify alpha-1 has children", container.hasChildren(folderAlphaOne.getFolderId()));
+        Assert.assertFalse("Verify alpha-3 has no children",
+                container.hasChildren(new ArrayList<Object>(childItemIds).get(2)));
+
+        Assert.assertEquals("Verify parent of item not read through child list", folderAlphaOne.getFolderId(),
+                container.getParent(folderAlphaOneLeaf.getFolderId()));
+        Assert.assertEquals("Verify size contains all folders", 6, container.size());
+    }
+
+    /**
+     * Test for evicting child views of least recently accessed nodes.
+     */
+    @Test
+    public final void testNodeEviction() {
+        container.setMaxCachedNodeCount(2);
+        for (final Object rootItemId : container.rootItemIds()) {
+            for (final Object childItemId : container.getChildren(rootItemId)) {
+                Assert.assertEquals("Verify parent of child", rootItemId, container.getParent(childItemId));
+                for (final Object leafItemId : container.getChildren(childItemId)) {
+                    Assert.assertEquals("Verify parent of leaf", childItemId, container.getParent(leafItemId));
+                }
+            }
+        }
+        Assert.assertEquals("Verify evicted children are reloaded", "[alpha-1, alpha-2, alpha-3]",
+                getNames(container.getChildren(folderAlpha.getFolderId())).toString());
+        Assert.assertEquals("Verify parent is resolved after eviction", folderAlpha.getFolderId(),
+                container.getParent(folderAlphaOne.getFolderId()));
+    }
+}
@@ -30,6 +30,7 @@ import org.vaadin.addons.lazyquerycontainer.QueryView;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * JUnit test for testing LazyQueryContainer implementation.
@@ -78,6 +79,36 @@ public class LazyQueryContainerPropertyIdsTest extends TestCase implements ItemS
         }
     }
 
+    public void testGetItemIdsRange() {
+        container.sort(new Object[]{"Index"}, new boolean[]{false});
+        List<?> ids = container.getItemIds(90, 20);
+        assertEquals(10, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(9 - i, ids.get(i));
+        }
+        assertEquals(94, container.indexOfId(5));
+    }
+
+    public void testNavigation() {
+        container.sort(new Object[]{"Index"}, new boolean[]{false});
+        Object itemId = container.firstItemId();
+        assertTrue(container.isFirstId(itemId));
+        for (int i = 1; i < viewSize; i++) {
+            itemId = container.nextItemId(itemId);
+            assertEquals(viewSize - 1 - i, itemId);
+        }
+        assertTrue(container.isLastId(itemId));
+        assertNull(container.nextItemId(itemId));
+        for (int i = viewSize - 2; i >= 0; i--) {
+            itemId = container.prevItemId(itemId);
+            assertEquals(viewSize - 1 - i, itemId);
+        }
+        assertNull(container.prevItemId(itemId));
+        assertEquals(50, container.indexOfId(49));
+        assertEquals(49, container.nextItemId(50));
+        assertEquals(-1, container.indexOfId(viewSize));
+    }
+
     public void testGetItem() {
         for (int i = 0; i < viewSize; i++) {
             Item item = container.getItem(container.getIdByIndex(i));
@@ -25,11 +25,15 @@ import junit.framework.TestCase;
 import org.vaadin.addons.lazyquerycontainer.LazyQueryContainer;
 import org.vaadin.addons.lazyquerycontainer.LazyQueryDefinition;
 import org.vaadin.addons.lazyquerycontainer.LazyQueryView;
+import org.vaadin.addons.lazyquerycontainer.Query;
+import org.vaadin.addons.lazyquerycontainer.QueryDefinition;
 import org.vaadin.addons.lazyquerycontainer.QueryItemStatus;
 import org.vaadin.addons.lazyquerycontainer.QueryView;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * JUnit test for testing LazyQueryContainer implementation.
@@ -78,6 +82,62 @@ public class LazyQueryContainerTest extends TestCase implements ItemSetChangeLis
         }
     }
 
+    public void testGetItemIdsRange() {
+        List<?> ids = container.getItemIds(90, 20);
+        assertEquals(10, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(90 + i, ids.get(i));
+        }
+        assertEquals(0, container.getItemIds(viewSize, 10).size());
+    }
+
+    public void testGetItemIdsRangeWithoutLoading() {
+        final LazyQueryDefinition definition = new LazyQueryDefinition(true, viewSize, null);
+        definition.addProperty("Index", Integer.class, 0, true, true);
+        final List<Integer> loads = new ArrayList<Integer>();
+        final MockQueryFactory factory = new MockQueryFactory(viewSize, 0, 0) {
+            @Override
+            public Query constructQuery(final QueryDefinition queryDefinition) {
+                final Query query = super.constructQuery(queryDefinition);
+                return new Query() {
+                    @Override
+                    public int size() {
+                        return query.size();
+                    }
+
+                    @Override
+                    public List<Item> loadItems(final int startIndex, final int count) {
+                        loads.add(startIndex);
+                        return query.loadItems(startIndex, count);
+                    }
+
+                    @Override
+                    public void saveItems(final List<Item> addedItems, final List<Item> modifiedItems,
+                                          final List<Item> removedItems) {
+                        query.saveItems(addedItems, modifiedItems, removedItems);
+                    }
+
+                    @Override
+                    public boolean deleteAllItems() {
+                        return query.deleteAllItems();
+                    }
+
+                    @Override
+                    public Item constructItem() {
+                        return query.constructItem();
+                    }
+                };
+            }
+        };
+        factory.setQueryDefinition(definition);
+        final LazyQueryContainer indexContainer = new LazyQueryContainer(new LazyQueryView(definition, factory));
+        final List<?> ids = indexContainer.getItemIds(40, 20);
+        assertEquals(20, ids.size());
+        assertEquals(40, ids.get(0));
+        assertEquals(59, ids.get(19));
+        assertTrue(loads.isEmpty());
+    }
+
     public void testGetItem() {
         for (int i = 0; i < viewSize; i++) {
             Item item = container.getItem(i);
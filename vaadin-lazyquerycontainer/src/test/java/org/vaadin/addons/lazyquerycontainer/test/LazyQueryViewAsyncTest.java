@@ -0,0 +1,332 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer.test;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import com.vaadin.data.util.filter.Compare;
+import junit.framework.TestCase;
+import org.vaadin.addons.lazyquerycontainer.ExecutorAsyncQueryFactory;
+import org.vaadin.addons.lazyquerycontainer.LazyQueryDefinition;
+import org.vaadin.addons.lazyquerycontainer.LazyQueryView;
+import org.vaadin.addons.lazyquerycontainer.QueryItemStatus;
+import org.vaadin.addons.lazyquerycontainer.QueryViewListener;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JUnit test for testing LazyQueryView with asynchronously loaded queries.
+ */
+public class LazyQueryViewAsyncTest extends TestCase {
+
+    private final int viewSize = 100;
+    private final int batchSize = 10;
+    private ExecutorService executor;
+    private LazyQueryView view;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newFixedThreadPool(2);
+        view = createView(0);
+    }
+
+    private LazyQueryView createView(final int batchQueryTime) {
+        LazyQueryDefinition definition = new LazyQueryDefinition(true, this.batchSize, null);
+        definition.addProperty("Index", Integer.class, 0, true, true);
+        definition.addProperty("Reverse Index", Integer.class, 0, true, false);
+        definition.addProperty("Editable", String.class, "", false, false);
+        definition.addProperty(LazyQueryView.PROPERTY_ID_ITEM_STATUS, QueryItemStatus.class, QueryItemStatus.None,
+                true, false);
+
+        MockQueryFactory factory = new MockQueryFactory(viewSize, batchQueryTime, 0);
+        factory.setQueryDefinition(definition);
+        LazyQueryView queryView = new LazyQueryView(definition, new ExecutorAsyncQueryFactory(factory, executor));
+        queryView.setPrefetchBatchCount(2);
+        return queryView;
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        executor.shutdownNow();
+    }
+
+    public void testSize() {
+        assertEquals(viewSize, view.size());
+    }
+
+    public void testGetItem() {
+        for (int i = 0; i < viewSize; i++) {
+            Item item = view.getItem(i);
+            Property indexProperty = item.getItemProperty("Index");
+            assertEquals(i, indexProperty.getValue());
+        }
+    }
+
+    public void testPrefetch() {
+        view.prefetch(0, viewSize);
+        for (int i = viewSize - 1; i >= 0; i--) {
+            assertEquals(i, view.getItem(i).getItemProperty("Index").getValue());
+        }
+    }
+
+    public void testRefreshCancelsPendingLoads() {
+        view.prefetch(0, viewSize);
+        view.refresh();
+        view.sort(new Object[]{"Index"}, new boolean[]{false});
+        for (int i = 0; i < viewSize; i++) {
+            assertEquals(viewSize - i - 1, view.getItem(i).getItemProperty("Index").getValue());
+        }
+    }
+
+    public void testModifyCommitItem() {
+        view.getItem(0).getItemProperty("Editable").setValue("test");
+        assertTrue(view.isModified());
+        view.commit();
+        view.refresh();
+        assertFalse(view.isModified());
+        assertEquals("test", view.getItem(0).getItemProperty("Editable").getValue());
+    }
+
+    public void testNonBlockingGetItem() throws InterruptedException {
+        view.setPrefetchBatchCount(0);
+        view.setNonBlocking(true);
+        Item item = view.getItem(viewSize - 1);
+        if (item.getItemProperty(LazyQueryView.PROPERTY_ID_ITEM_STATUS).getValue() == QueryItemStatus.Loading) {
+            assertEquals(0, item.getItemProperty("Index").getValue());
+            Thread.sleep(100);
+        }
+        assertEquals(viewSize - 1, view.getItem(viewSize - 1).getItemProperty("Index").getValue());
+    }
+
+    public void testCompletionExecutor() throws InterruptedException {
+        final AtomicInteger completions = new AtomicInteger();
+        view.setPrefetchBatchCount(0);
+        view.setNonBlocking(true);
+        view.setCompletionExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                synchronized (view) {
+                    command.run();
+                }
+            }
+        });
+        view.addQueryViewListener(new QueryViewListener() {
+            @Override
+            public void itemSetChanged() {
+                completions.incrementAndGet();
+            }
+        });
+        final Item item;
+        synchronized (view) {
+            item = view.getItem(viewSize / 2);
+        }
+        if (item.getItemProperty(LazyQueryView.PROPERTY_ID_ITEM_STATUS).getValue() == QueryItemStatus.Loading) {
+            for (int i = 0; i < 50 && completions.get() == 0; i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, completions.get());
+        }
+        synchronized (view) {
+            assertEquals(viewSize / 2, view.getItem(viewSize / 2).getItemProperty("Index").getValue());
+        }
+    }
+
+    public void testLoadReleasesViewLock() throws Exception {
+        final LazyQueryView slowView = createView(300);
+        slowView.setPrefetchBatchCount(0);
+        assertEquals(0, slowView.getItem(0).getItemProperty("Index").getValue());
+        final Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                slowView.getItem(viewSize - 1);
+            }
+        });
+        loader.start();
+        Thread.sleep(50);
+        final long startTime = System.currentTimeMillis();
+        assertEquals(1, slowView.getItem(1).getItemProperty("Index").getValue());
+        assertTrue(System.currentTimeMillis() - startTime < 200);
+        loader.join();
+        assertEquals(viewSize - 1, slowView.getItem(viewSize - 1).getItemProperty("Index").getValue());
+    }
+
+    public void testItemAddedWhileWaitingForBatch() throws Exception {
+        final LazyQueryView slowView = createView(300);
+        slowView.setPrefetchBatchCount(0);
+        assertEquals(0, slowView.getItem(0).getItemProperty("Index").getValue());
+        final List<Item> loadedItems = new CopyOnWriteArrayList<Item>();
+        final Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loadedItems.add(slowView.getItem(viewSize - 1));
+                loadedItems.addAll(slowView.getItems(viewSize - batchSize, batchSize));
+            }
+        });
+        loader.start();
+        Thread.sleep(50);
+        slowView.addItem();
+        loader.join();
+        assertEquals("Item at the index after the added item", viewSize - 2,
+                loadedItems.get(0).getItemProperty("Index").getValue());
+        for (int i = 0; i < batchSize; i++) {
+            assertEquals(viewSize - batchSize - 1 + i, loadedItems.get(1 + i).getItemProperty("Index").getValue());
+        }
+        slowView.discard();
+    }
+
+    public void testLoadTimeoutWithoutPlaceholders() throws Exception {
+        final List<Future<?>> loads = new CopyOnWriteArrayList<Future<?>>();
+        executor.shutdownNow();
+        executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            public void execute(final Runnable command) {
+                loads.add((Future<?>) command);
+                super.execute(command);
+            }
+        };
+        final LazyQueryView slowView = createView(300);
+        slowView.setPrefetchBatchCount(0);
+        slowView.setLoadTimeout(50);
+        assertEquals(viewSize, slowView.size());
+        slowView.prefetch(0, batchSize);
+        Thread.sleep(100);
+        slowView.prefetch(viewSize - batchSize, batchSize);
+        int cancelledLoads = 0;
+        for (final Future<?> load : loads) {
+            if (load.isCancelled()) {
+                cancelledLoads++;
+            }
+        }
+        assertEquals(1, cancelledLoads);
+        assertEquals(0, slowView.getItem(0).getItemProperty("Index").getValue());
+    }
+
+    public void testConcurrentRefresh() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        final Thread refresher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        view.refresh();
+                        Thread.sleep(1);
+                    }
+                } catch (final Exception e) {
+                    failures.incrementAndGet();
+                }
+            }
+        });
+        refresher.start();
+        while (refresher.isAlive()) {
+            for (int i = 0; i < viewSize; i += batchSize / 2) {
+                assertEquals(i, view.getItem(i).getItemProperty("Index").getValue());
+            }
+        }
+        refresher.join();
+        assertEquals(0, failures.get());
+    }
+
+    public void testSizeDuringFilterDebounce() throws Exception {
+        final CountDownLatch countReleased = new CountDownLatch(1);
+        final ExecutorService blockedExecutor = Executors.newSingleThreadExecutor();
+        blockedExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    countReleased.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        try {
+            final LazyQueryDefinition definition = new LazyQueryDefinition(true, batchSize, null);
+            definition.addProperty("Index", Integer.class, 0, true, true);
+            final MockQueryFactory factory = new MockQueryFactory(viewSize, 0, 0);
+            factory.setQueryDefinition(definition);
+            final LazyQueryView debouncedView = new LazyQueryView(definition,
+                    new ExecutorAsyncQueryFactory(factory, blockedExecutor));
+            debouncedView.setFilterDebounceMillis(300);
+            final Thread counter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    debouncedView.size();
+                }
+            });
+            counter.start();
+            Thread.sleep(50);
+            debouncedView.addFilter(new Compare.Equal("Index", 1));
+            countReleased.countDown();
+            assertEquals(viewSize, debouncedView.size());
+            counter.join();
+        } finally {
+            countReleased.countDown();
+            blockedExecutor.shutdownNow();
+        }
+    }
+
+    public void testFilterDebounceScheduler() throws Exception {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final AtomicInteger notifications = new AtomicInteger();
+            final LazyQueryView failingView = createView(0);
+            final LazyQueryView notifiedView = createView(0);
+            for (final LazyQueryView debouncedView : new LazyQueryView[]{failingView, notifiedView}) {
+                debouncedView.setFilterDebounceMillis(20);
+                debouncedView.setFilterDebounceScheduler(scheduler);
+                debouncedView.setCompletionExecutor(new Executor() {
+                    @Override
+                    public void execute(final Runnable command) {
+                        command.run();
+                    }
+                });
+            }
+            failingView.addQueryViewListener(new QueryViewListener() {
+                @Override
+                public void itemSetChanged() {
+                    throw new IllegalStateException("listener failure");
+                }
+            });
+            notifiedView.addQueryViewListener(new QueryViewListener() {
+                @Override
+                public void itemSetChanged() {
+                    notifications.incrementAndGet();
+                }
+            });
+            failingView.addFilter(new Compare.Equal("Index", 1));
+            Thread.sleep(100);
+            notifiedView.addFilter(new Compare.Equal("Index", 1));
+            for (int i = 0; i < 50 && notifications.get() == 0; i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, notifications.get());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+}
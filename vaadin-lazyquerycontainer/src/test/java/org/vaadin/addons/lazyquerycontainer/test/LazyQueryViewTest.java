@@ -17,13 +17,31 @@ package org.vaadin.addons.lazyquerycontainer.test;
 
 import com.vaadin.data.Item;
 import com.vaadin.data.Property;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+import com.vaadin.data.util.filter.Compare;
 import junit.framework.Assert;
 import junit.framework.TestCase;
+import org.vaadin.addons.lazyquerycontainer.EntityQueryDefinition;
+import org.vaadin.addons.lazyquerycontainer.FilterEditor;
+import org.vaadin.addons.lazyquerycontainer.FilterUpdate;
+import org.vaadin.addons.lazyquerycontainer.ItemImportListener;
 import org.vaadin.addons.lazyquerycontainer.LazyQueryDefinition;
 import org.vaadin.addons.lazyquerycontainer.LazyQueryView;
+import org.vaadin.addons.lazyquerycontainer.QueryChangeBus;
 import org.vaadin.addons.lazyquerycontainer.QueryItemStatus;
+import org.vaadin.addons.lazyquerycontainer.QueryViewListener;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * JUnit test for testing LazyQueryView implementation.
@@ -260,4 +278,314 @@ public class LazyQueryViewTest extends TestCase {
         assertFalse(view.getItem(removeIndex).getItemProperty("Editable").isReadOnly());
     }
 
+    public void testUpdateFilters() {
+        final int queryIndex = (Integer) view.getItem(0).getItemProperty(LazyQueryView.DEBUG_PROPERTY_ID_QUERY_INDEX)
+                .getValue();
+        final Compare.Equal filter = new Compare.Equal("Index", 1);
+        view.updateFilters(new FilterUpdate() {
+            @Override
+            public void update(final FilterEditor editor) {
+                editor.addFilter(filter);
+                editor.removeFilters();
+                editor.addFilter(filter);
+            }
+        });
+        assertEquals(1, view.getFilters().size());
+        assertEquals(queryIndex + 1,
+                view.getItem(0).getItemProperty(LazyQueryView.DEBUG_PROPERTY_ID_QUERY_INDEX).getValue());
+        view.removeFilters();
+    }
+
+    public void testFilterDebounce() throws InterruptedException {
+        final int queryIndex = (Integer) view.getItem(0).getItemProperty(LazyQueryView.DEBUG_PROPERTY_ID_QUERY_INDEX)
+                .getValue();
+        view.setFilterDebounceMillis(50);
+        for (int i = 0; i < 10; i++) {
+            view.removeFilters();
+            view.addFilter(new Compare.Equal("Index", i));
+        }
+        assertEquals(1, view.getFilters().size());
+        assertEquals(0, definition.getFilters().size());
+        assertEquals(queryIndex,
+                view.getItem(0).getItemProperty(LazyQueryView.DEBUG_PROPERTY_ID_QUERY_INDEX).getValue());
+        Thread.sleep(100);
+        assertEquals(queryIndex + 1,
+                view.getItem(0).getItemProperty(LazyQueryView.DEBUG_PROPERTY_ID_QUERY_INDEX).getValue());
+        assertEquals(1, definition.getFilters().size());
+        view.setFilterDebounceMillis(0);
+        view.removeFilters();
+    }
+
+    public void testFilterItemSetChangeNotification() throws InterruptedException {
+        final List<Boolean> lockHeld = new ArrayList<Boolean>();
+        view.addQueryViewListener(new QueryViewListener() {
+            @Override
+            public void itemSetChanged() {
+                lockHeld.add(Thread.holdsLock(view));
+            }
+        });
+        view.setFilterDebounceMillis(50);
+        view.addFilter(new Compare.Equal("Index", 1));
+        assertEquals("Pending filter does not change item set", 0, lockHeld.size());
+        Thread.sleep(100);
+        view.size();
+        assertEquals("Filter applied on access changes item set", 1, lockHeld.size());
+        view.removeFilter(new Compare.Equal("Index", 2));
+        Thread.sleep(100);
+        view.size();
+        assertEquals("Unchanged filters do not change item set", 1, lockHeld.size());
+
+        view.setFilterDebounceMillis(0);
+        view.removeFilters();
+        assertEquals("Filter applied immediately changes item set", 2, lockHeld.size());
+        view.removeFilters();
+        assertEquals("Unchanged filters do not change item set", 2, lockHeld.size());
+        assertFalse("Listeners are notified without lock", lockHeld.contains(Boolean.TRUE));
+    }
+
+    public void testImportItems() {
+        final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 250; i++) {
+            rows.add(Collections.<String, Object>singletonMap("Editable", "imported-" + i));
+        }
+        final List<Integer> progress = new ArrayList<Integer>();
+        assertEquals(250, view.importItems(rows.iterator(), new ItemImportListener() {
+            @Override
+            public void itemsImported(final int importedCount) {
+                progress.add(importedCount);
+            }
+        }));
+        assertEquals(3, progress.size());
+        assertEquals(250, (int) progress.get(2));
+        assertFalse(view.isModified());
+        assertEquals(viewSize + 250, view.size());
+        assertEquals("imported-0", view.getItem(150).getItemProperty("Editable").getValue());
+    }
+
+    public void testImportItemsWithUncommittedChanges() {
+        view.addItem();
+        try {
+            view.importItems(Collections.emptyList().iterator(), null);
+            fail();
+        } catch (final IllegalStateException e) {
+            assertTrue(view.isModified());
+        }
+        view.discard();
+    }
+
+    public void testSerialization() throws Exception {
+        view.getItem(0).getItemProperty("Editable").setValue("modified");
+        view.removeItem(1);
+        view.getItem(viewSize - 1);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(view);
+        out.close();
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        final LazyQueryView restoredView = (LazyQueryView) in.readObject();
+
+        assertTrue(restoredView.isModified());
+        assertEquals(viewSize, restoredView.size());
+        assertEquals("modified", restoredView.getItem(0).getItemProperty("Editable").getValue());
+        assertEquals(QueryItemStatus.Removed,
+                restoredView.getItem(1).getItemProperty(LazyQueryView.PROPERTY_ID_ITEM_STATUS).getValue());
+        assertEquals(2, restoredView.getItem(2).getItemProperty("Index").getValue());
+        assertEquals(new ArrayList<Object>(definition.getPropertyIds()),
+                new ArrayList<Object>(restoredView.getQueryDefinition().getPropertyIds()));
+
+        restoredView.getItem(2).getItemProperty("Editable").setValue("modified too");
+        restoredView.discard();
+        assertFalse(restoredView.isModified());
+        assertEquals("", restoredView.getItem(0).getItemProperty("Editable").getValue());
+    }
+
+    public void testQueryDefinitionSubclassSerialization() throws Exception {
+        final TenantQueryDefinition tenantDefinition = new TenantQueryDefinition("tenant-a");
+        tenantDefinition.addProperty("Index", Integer.class, 0, true, true);
+        tenantDefinition.addFilter(new Compare.Equal("Index", 1));
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(tenantDefinition);
+        out.close();
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        final TenantQueryDefinition restoredDefinition = (TenantQueryDefinition) in.readObject();
+        in.close();
+        assertEquals("tenant-a", restoredDefinition.getTenant());
+        assertEquals(Collections.singletonList("Index"), new ArrayList<Object>(restoredDefinition.getPropertyIds()));
+        assertEquals(tenantDefinition.getFilters(), restoredDefinition.getFilters());
+
+        final LazyQueryDefinition snapshot = tenantDefinition.snapshot();
+        assertEquals("tenant-a", ((TenantQueryDefinition) snapshot).getTenant());
+    }
+
+    public void testQueryDefinitionSnapshot() {
+        definition.addFilter(new Compare.Equal("Index", 1));
+        final LazyQueryDefinition snapshot = definition.snapshot();
+        assertTrue(snapshot.isSnapshot());
+        assertSame(snapshot, snapshot.snapshot());
+        assertEquals(snapshot, definition.snapshot());
+        assertEquals(snapshot.hashCode(), definition.snapshot().hashCode());
+        assertFalse(snapshot.equals(definition));
+        assertEquals(new ArrayList<Object>(definition.getPropertyIds()),
+                new ArrayList<Object>(snapshot.getPropertyIds()));
+        assertEquals(definition.getFilters(), snapshot.getFilters());
+
+        try {
+            snapshot.setBatchSize(1);
+            fail();
+        } catch (final UnsupportedOperationException e) {
+            assertEquals(viewSize, snapshot.getBatchSize());
+        }
+
+        definition.removeFilters();
+        assertFalse(snapshot.equals(definition.snapshot()));
+        assertEquals(1, snapshot.getFilters().size());
+    }
+
+    public void testQueryDefinitionSortSnapshot() {
+        view.sort(new Object[]{"Index"}, new boolean[]{false});
+        assertEquals(viewSize - 1, view.getItem(0).getItemProperty("Index").getValue());
+        assertEquals(0, definition.getSortPropertyIds().length);
+        assertEquals(0, definition.getSortPropertyAscendingStates().length);
+
+        final LazyQueryDefinition snapshot = definition.snapshot(new Object[]{"Index"}, new boolean[]{false});
+        snapshot.getSortPropertyIds()[0] = "Reverse Index";
+        snapshot.getSortPropertyAscendingStates()[0] = true;
+        assertEquals("Index", snapshot.getSortPropertyIds()[0]);
+        assertFalse(snapshot.getSortPropertyAscendingStates()[0]);
+        assertEquals(0, definition.getSortPropertyIds().length);
+    }
+
+    public void testQueryDefinitionSnapshotCopiesFields() {
+        final Object defaultValue = new Object();
+        definition.addProperty("Unserializable", Object.class, defaultValue, true, false);
+        final LazyQueryDefinition snapshot = definition.snapshot();
+        assertSame(defaultValue, snapshot.getPropertyDefaultValue("Unserializable"));
+        assertEquals(snapshot, definition.snapshot());
+        definition.removeProperty("Unserializable");
+        assertTrue(snapshot.getPropertyIds().contains("Unserializable"));
+
+        final EntityQueryDefinition entityDefinition = new EntityQueryDefinition(true, true, false,
+                Object.class, viewSize, null);
+        entityDefinition.setCaseInsensitivePropertyId("name", "lowerName");
+        entityDefinition.setCaseInsensitivePropertyId("email", "lowerEmail");
+        final EntityQueryDefinition otherDefinition = new EntityQueryDefinition(true, true, false,
+                Object.class, viewSize, null);
+        otherDefinition.setCaseInsensitivePropertyId("email", "lowerEmail");
+        otherDefinition.setCaseInsensitivePropertyId("name", "lowerName");
+        final LazyQueryDefinition entitySnapshot = entityDefinition.snapshot();
+        assertTrue(entitySnapshot instanceof EntityQueryDefinition);
+        assertEquals(entitySnapshot, otherDefinition.snapshot());
+        assertEquals(entitySnapshot.hashCode(), otherDefinition.snapshot().hashCode());
+        assertFalse(entitySnapshot.equals(snapshot));
+
+        otherDefinition.setIdSnapshot(true);
+        assertFalse(entitySnapshot.equals(otherDefinition.snapshot()));
+        assertFalse(((EntityQueryDefinition) entitySnapshot).isIdSnapshot());
+    }
+
+    public void testQueryChangeBus() {
+        final LazyQueryDefinition idDefinition = new LazyQueryDefinition(true, viewSize, "Index");
+        idDefinition.addProperty("Index", Integer.class, 0, true, true);
+        idDefinition.addProperty("Editable", String.class, "", false, false);
+        final MockQueryFactory factory = new MockQueryFactory(viewSize, 0, 0);
+        factory.setQueryDefinition(idDefinition);
+        final LazyQueryView idView = new LazyQueryView(idDefinition, factory);
+        idView.setCompletionExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                command.run();
+            }
+        });
+        final QueryChangeBus bus = new QueryChangeBus();
+        bus.addQueryChangeListener(idView);
+        final List<Integer> itemSetChanges = new ArrayList<Integer>();
+        idView.addQueryViewListener(new QueryViewListener() {
+            @Override
+            public void itemSetChanged() {
+                itemSetChanges.add(idView.size());
+            }
+        });
+        final Item item = idView.getItem(5);
+
+        final PropertysetItem upsertedItem = new PropertysetItem();
+        upsertedItem.addItemProperty("Index", new ObjectProperty<Integer>(5));
+        upsertedItem.addItemProperty("Editable", new ObjectProperty<String>("changed"));
+        bus.itemUpserted(5, upsertedItem);
+        assertSame(item, idView.getItem(5));
+        assertEquals("changed", item.getItemProperty("Editable").getValue());
+        assertFalse(idView.isModified());
+        assertTrue(itemSetChanges.isEmpty());
+
+        bus.itemDeleted(3);
+        assertEquals(viewSize - 1, idView.size());
+        assertEquals(2, idView.getItem(2).getItemProperty("Index").getValue());
+        assertEquals(4, idView.getItem(3).getItemProperty("Index").getValue());
+        assertSame(item, idView.getItem(4));
+        assertEquals(Collections.singletonList(viewSize - 1), itemSetChanges);
+
+        bus.itemDeleted(viewSize * 2);
+        assertEquals(viewSize - 1, idView.size());
+    }
+
+    public void testQueryChangeBusWithoutCompletionExecutor() {
+        final LazyQueryDefinition idDefinition = new LazyQueryDefinition(true, viewSize, "Index");
+        idDefinition.addProperty("Index", Integer.class, 0, true, true);
+        idDefinition.addProperty("Editable", String.class, "", false, false);
+        final MockQueryFactory factory = new MockQueryFactory(viewSize, 0, 0);
+        factory.setQueryDefinition(idDefinition);
+        final LazyQueryView idView = new LazyQueryView(idDefinition, factory);
+        final QueryChangeBus bus = new QueryChangeBus();
+        bus.addQueryChangeListener(idView);
+        final List<Integer> itemSetChanges = new ArrayList<Integer>();
+        idView.addQueryViewListener(new QueryViewListener() {
+            @Override
+            public void itemSetChanged() {
+                itemSetChanges.add(idView.size());
+            }
+        });
+        final Item item = idView.getItem(5);
+
+        final PropertysetItem upsertedItem = new PropertysetItem();
+        upsertedItem.addItemProperty("Index", new ObjectProperty<Integer>(5));
+        upsertedItem.addItemProperty("Editable", new ObjectProperty<String>("changed"));
+        bus.itemUpserted(5, upsertedItem);
+        bus.itemDeleted(3);
+        assertEquals("Changes are queued", "", item.getItemProperty("Editable").getValue());
+        assertEquals("Changes are queued", viewSize, idView.size());
+        assertTrue(itemSetChanges.isEmpty());
+
+        final List<String> appliedValues = new ArrayList<String>();
+        idView.setCompletionExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                command.run();
+                appliedValues.add((String) item.getItemProperty("Editable").getValue());
+            }
+        });
+        assertEquals("Queued changes are applied through new completion executor",
+                Collections.singletonList("changed"), appliedValues);
+        assertEquals(viewSize - 1, idView.size());
+        assertEquals(Collections.singletonList(viewSize - 1), itemSetChanges);
+    }
+
+
+    /**
+     * Query definition subclass carrying its own state.
+     */
+    private static final class TenantQueryDefinition extends LazyQueryDefinition {
+        private static final long serialVersionUID = 1L;
+        private final String tenant;
+
+        private TenantQueryDefinition(final String tenant) {
+            super(true, 10, null);
+            this.tenant = tenant;
+        }
+
+        public String getTenant() {
+            return tenant;
+        }
+    }
 }
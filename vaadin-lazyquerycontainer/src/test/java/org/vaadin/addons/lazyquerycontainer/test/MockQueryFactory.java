@@ -23,6 +23,7 @@ import org.vaadin.addons.lazyquerycontainer.Query;
 import org.vaadin.addons.lazyquerycontainer.QueryDefinition;
 import org.vaadin.addons.lazyquerycontainer.QueryFactory;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -33,7 +34,7 @@ import java.util.List;
  *
  * @author Tommi S.E. Laukkanen
  */
-public class MockQueryFactory implements QueryFactory {
+public class MockQueryFactory implements QueryFactory, Serializable {
 
     private List<Item> items;
     private QueryDefinition definition;
@@ -20,6 +20,7 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
+import javax.persistence.Version;
 import java.io.Serializable;
 
 /**
@@ -55,6 +56,11 @@ public final class Task implements Serializable {
      */
     @ManyToOne(cascade =  CascadeType.PERSIST)
     private Author author;
+    /**
+     * Version of the task.
+     */
+    @Version
+    private long version;
 
     /**
      * @return the taskId
@@ -133,6 +139,20 @@ public final class Task implements Serializable {
         this.author = author;
     }
 
+    /**
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param version the version to set
+     */
+    public void setVersion(final long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "Task name: " + name + " reporter: " + reporter + " assignee: " + assignee;